@@ -0,0 +1,23 @@
+package com.chatflow.client;
+
+/**
+ * Load-test settings read from the environment.
+ */
+public class ClientConfig {
+    // Rooms to spread load over. Servers create rooms on first use, so this
+    // can go well past the original 20
+    public static final int ROOM_COUNT = envInt("CHATFLOW_ROOM_COUNT", 20);
+
+    private static int envInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid value for " + name + ": " + value + ", using default: " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.chatflow.client;
 
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ConnectionStats {
 
@@ -9,6 +10,9 @@ public class ConnectionStats {
     private AtomicInteger failedConnections = new AtomicInteger(0);
     private AtomicInteger reconnections = new AtomicInteger(0);
     private AtomicInteger totalRetries = new AtomicInteger(0);
+    private AtomicLong bytesSent = new AtomicLong(0);
+    private AtomicLong bytesReceived = new AtomicLong(0);
+    private AtomicInteger throttledResponses = new AtomicInteger(0);
 
     public void recordConnection() {
         totalConnections.incrementAndGet();
@@ -30,6 +34,20 @@ public class ConnectionStats {
         totalRetries.incrementAndGet();
     }
 
+    // Payload bytes, to compare wire formats
+    public void recordBytesSent(int bytes) {
+        bytesSent.addAndGet(bytes);
+    }
+
+    public void recordBytesReceived(int bytes) {
+        bytesReceived.addAndGet(bytes);
+    }
+
+    // Server pushed back because this connection had too much in flight
+    public void recordThrottled() {
+        throttledResponses.incrementAndGet();
+    }
+
     // Getters
     public int getTotalConnections() {
         return totalConnections.get();
@@ -51,6 +69,18 @@ public class ConnectionStats {
         return totalRetries.get();
     }
 
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public int getThrottledResponses() {
+        return throttledResponses.get();
+    }
+
     public void printStats() {
         System.out.println("\n=== CONNECTION STATISTICS ===");
         System.out.println("Total connections: " + getTotalConnections());
@@ -58,5 +88,9 @@ public class ConnectionStats {
         System.out.println("Failed connections: " + getFailedConnections());
         System.out.println("Reconnections: " + getReconnections());
         System.out.println("Total retry attempts: " + getTotalRetries());
+        System.out.println("Wire format: " + WireFormat.name());
+        System.out.println("Payload bytes sent: " + getBytesSent());
+        System.out.println("Payload bytes received: " + getBytesReceived());
+        System.out.println("Throttled responses: " + getThrottledResponses());
     }
 }
\ No newline at end of file
@@ -19,8 +19,8 @@ public class MessageProducer implements Runnable {
 
         try {
             for (int i = 0; i < totalMessages; i++) {
-                // Generate random room (1-20)
-                int roomId = random.nextInt(20) + 1;
+                // Generate random room (1-ROOM_COUNT)
+                int roomId = random.nextInt(ClientConfig.ROOM_COUNT) + 1;
 
                 // Generate message
                 String message = MessageGenerator.generateMessage(roomId);
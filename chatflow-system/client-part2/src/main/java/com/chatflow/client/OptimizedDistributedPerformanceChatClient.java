@@ -1,11 +1,16 @@
 package com.chatflow.client;
 
+import com.chatflow.common.BinaryChatFrame;
+import com.chatflow.common.BinaryCodec;
+import com.chatflow.common.SequenceTracker;
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -25,6 +30,8 @@ public class OptimizedDistributedPerformanceChatClient extends WebSocketClient {
     private boolean shouldReturnToPool = false;
     private static ConcurrentHashMap<String, MessageTracker> globalMessageTracker =
             new ConcurrentHashMap<>();
+    // Loss and reordering per (server, room) stream, one receiver per room
+    private static final SequenceTracker sequenceTracker = new SequenceTracker();
     private ObjectMapper objectMapper = new ObjectMapper();
 
     public OptimizedDistributedPerformanceChatClient(URI serverUri, MessageQueue messageQueue,
@@ -35,7 +42,7 @@ public class OptimizedDistributedPerformanceChatClient extends WebSocketClient {
                                                      AtomicInteger failureCount,
                                                      ConnectionStats stats,
                                                      DistributedConnectionPool connectionPool) {
-        super(serverUri);
+        super(serverUri, WireFormat.draft());
         this.messageQueue = messageQueue;
         this.metricsCollector = metricsCollector;
         this.messagesToSend = messagesToSend;
@@ -60,10 +67,18 @@ public class OptimizedDistributedPerformanceChatClient extends WebSocketClient {
                 while (sentCount < messagesToSend && messageQueue.hasMessages()) {
                     String message = messageQueue.take();
 
-                    // Enhanced message with tracking for correlation
-                    String enhancedMessage = enhanceMessageForTracking(message);
+                    // Register tracking for correlation
+                    JsonNode messageNode = trackMessage(message);
 
-                    boolean success = sendWithRetry(enhancedMessage, 5);
+                    boolean success;
+                    if (WireFormat.BINARY && messageNode != null) {
+                        byte[] frame = WireFormat.toBinary(messageNode);
+                        stats.recordBytesSent(frame.length);
+                        success = sendWithRetry(() -> send(frame), 5);
+                    } else {
+                        stats.recordBytesSent(message.getBytes(StandardCharsets.UTF_8).length);
+                        success = sendWithRetry(() -> send(message), 5);
+                    }
 
                     if (success) {
                         sentCount++;
@@ -90,7 +105,8 @@ public class OptimizedDistributedPerformanceChatClient extends WebSocketClient {
         }).start();
     }
 
-    private String enhanceMessageForTracking(String message) {
+    // Returns the parsed message, or null if it could not be parsed
+    private JsonNode trackMessage(String message) {
         try {
             JsonNode messageNode = objectMapper.readTree(message);
             String trackingId = messageNode.get("trackingId").asText(); // Changed from userId
@@ -101,20 +117,20 @@ public class OptimizedDistributedPerformanceChatClient extends WebSocketClient {
             MessageTracker tracker = new MessageTracker(sendTime, messageType, roomId);
             globalMessageTracker.put(trackingId, tracker); // Use trackingId as key
 
-            return message;
+            return messageNode;
 
         } catch (Exception e) {
-            return message;
+            return null;
         }
     }
 
     // Keep your existing retry logic
-    private boolean sendWithRetry(String message, int maxRetries) {
+    private boolean sendWithRetry(Runnable sendAction, int maxRetries) {
         int attempt = 0;
 
         while (attempt < maxRetries) {
             try {
-                send(message);
+                sendAction.run();
                 return true;
 
             } catch (Exception e) {
@@ -145,6 +161,11 @@ public class OptimizedDistributedPerformanceChatClient extends WebSocketClient {
         }
     }
 
+    @Override
+    public void onMessage(ByteBuffer message) {
+        // Binary ACK, real metrics come from receiver clients
+    }
+
     @Override
     public void onClose(int code, String reason, boolean remote) {
         System.out.println("Sender client closed after sending " + sentCount + " messages");
@@ -165,31 +186,61 @@ public class OptimizedDistributedPerformanceChatClient extends WebSocketClient {
             ObjectMapper mapper = new ObjectMapper();
             JsonNode messageNode = mapper.readTree(broadcastMessage);
 
+            trackSequence(messageNode.path("serverId").asText(null), messageNode.path("roomId").asText(null),
+                    messageNode.path("sequence").asLong(0));
+            recordTrackedDelivery(messageNode.get("trackingId").asText(), metricsCollector, successCount);
 
-            String trackingId = messageNode.get("trackingId").asText();
-            MessageTracker tracker = globalMessageTracker.remove(trackingId);
-
-            if (tracker != null) {
-                long receiveTime = System.currentTimeMillis();
-                long latency = receiveTime - tracker.sendTime;
-
-                MessageMetric metric = new MessageMetric(
-                        tracker.sendTime, tracker.messageType, latency,
-                        "SUCCESS", tracker.roomId
-                );
-                metricsCollector.addMetric(metric);
-                successCount.incrementAndGet();
-            } else {
-                System.out.println("CORRELATION MISS: No tracker found for trackingId: " + trackingId);
-                successCount.incrementAndGet();
-            }
+        } catch (Exception e) {
+            System.out.println("Error in recordBroadcastMetric: " + e.getMessage());
+            successCount.incrementAndGet();
+        }
+    }
 
+    public static void recordBroadcastMetric(ByteBuffer broadcastFrame,
+                                             MetricsCollector metricsCollector,
+                                             AtomicInteger successCount) {
+        try {
+            BinaryChatFrame frame = BinaryCodec.decodeChat(broadcastFrame);
+            trackSequence(frame.getServerId(), frame.getRoomId(), frame.getSequence());
+            recordTrackedDelivery(frame.getTrackingId(), metricsCollector, successCount);
         } catch (Exception e) {
             System.out.println("Error in recordBroadcastMetric: " + e.getMessage());
             successCount.incrementAndGet();
         }
     }
 
+    // Broadcasts from consumers that predate sequences carry none
+    private static void trackSequence(String serverId, String roomId, long sequence) {
+        if (sequence > 0 && serverId != null && roomId != null) {
+            sequenceTracker.track(serverId, roomId, sequence);
+        }
+    }
+
+    public static SequenceTracker getSequenceTracker() {
+        return sequenceTracker;
+    }
+
+    private static void recordTrackedDelivery(String trackingId,
+                                              MetricsCollector metricsCollector,
+                                              AtomicInteger successCount) {
+        MessageTracker tracker = globalMessageTracker.remove(trackingId);
+
+        if (tracker != null) {
+            long receiveTime = System.currentTimeMillis();
+            long latency = receiveTime - tracker.sendTime;
+
+            MessageMetric metric = new MessageMetric(
+                    tracker.sendTime, tracker.messageType, latency,
+                    "SUCCESS", tracker.roomId
+            );
+            metricsCollector.addMetric(metric);
+            successCount.incrementAndGet();
+        } else {
+            System.out.println("CORRELATION MISS: No tracker found for trackingId: " + trackingId);
+            successCount.incrementAndGet();
+        }
+    }
+
     // Helper class for message tracking
     private static class MessageTracker {
         final long sendTime;
@@ -67,7 +67,7 @@ public class OptimizedDistributedPerformanceTestClient {
         System.out.println("Starting receiver clients for all rooms...");
 
         // One receiver per room to catch all broadcasts
-        for (int roomId = 1; roomId <= 20; roomId++) {
+        for (int roomId = 1; roomId <= ClientConfig.ROOM_COUNT; roomId++) {
             ReceiverClient receiver = new ReceiverClient(
                     CONSUMER_ENDPOINT + "/chat/" + roomId,
                     metricsCollector, successCount
@@ -106,7 +106,7 @@ public class OptimizedDistributedPerformanceTestClient {
 
         // Create sender clients (pulling from shared queue)
         for (int i = 0; i < WARMUP_THREADS; i++) {
-            int roomId = random.nextInt(20) + 1;
+            int roomId = random.nextInt(ClientConfig.ROOM_COUNT) + 1;
 
             OptimizedDistributedPerformanceChatClient client = connectionPool.borrowSender(
                     roomId, queue, metricsCollector, MESSAGES_PER_WARMUP_THREAD,
@@ -144,7 +144,7 @@ public class OptimizedDistributedPerformanceTestClient {
 
         // Create sender clients with correct message distribution
         for (int i = 0; i < numThreads; i++) {
-            int roomId = random.nextInt(20) + 1;
+            int roomId = random.nextInt(ClientConfig.ROOM_COUNT) + 1;
 
             // Calculate messages for this specific thread
             int messagesToSend = (i == numThreads - 1) ?
@@ -181,6 +181,7 @@ public class OptimizedDistributedPerformanceTestClient {
         System.out.println("Distributed throughput: " + String.format("%.2f", throughput) + " msg/sec");
 
         stats.printStats();
+        OptimizedDistributedPerformanceChatClient.getSequenceTracker().printMetrics();
     }
 
     private static void performStatisticalAnalysis() {
@@ -1,11 +1,14 @@
 package com.chatflow.client;
 
+import com.chatflow.common.BinaryCodec;
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -38,7 +41,7 @@ public class PerformanceChatClient extends WebSocketClient {
                                  int roomId, CountDownLatch latch,
                                  AtomicInteger successCount, AtomicInteger failureCount,
                                  ConnectionStats stats, ConnectionPool connectionPool) {
-        super(serverUri);
+        super(serverUri, WireFormat.draft());
         this.messageQueue = messageQueue;
         this.metricsCollector = metricsCollector;
         this.messagesToSend = messagesToSend;
@@ -57,7 +60,7 @@ public class PerformanceChatClient extends WebSocketClient {
                                  int roomId, CountDownLatch latch,
                                  AtomicInteger successCount, AtomicInteger failureCount,
                                  ConnectionStats stats) {
-        super(serverUri);
+        super(serverUri, WireFormat.draft());
         this.messageQueue = messageQueue;
         this.metricsCollector = metricsCollector;
         this.messagesToSend = messagesToSend;
@@ -79,8 +82,9 @@ public class PerformanceChatClient extends WebSocketClient {
                 while (sentCount < messagesToSend && messageQueue.hasMessages()) {
                     String message = messageQueue.take();
 
-                    // Extract message type from JSON
-                    String msgType = extractMessageType(message);
+                    // Parse once, for the message type and the binary encoding
+                    JsonNode node = parseMessage(message);
+                    String msgType = extractMessageType(node);
 
                     // Generate unique message ID
                     int msgId = messageIdCounter.incrementAndGet();
@@ -91,7 +95,14 @@ public class PerformanceChatClient extends WebSocketClient {
                     messageTypes.put(msgId, msgType);
 
                     // Send message
-                    send(message);
+                    if (WireFormat.BINARY && node != null) {
+                        byte[] frame = WireFormat.toBinary(node);
+                        stats.recordBytesSent(frame.length);
+                        send(frame);
+                    } else {
+                        stats.recordBytesSent(message.getBytes(StandardCharsets.UTF_8).length);
+                        send(message);
+                    }
                     sentCount++;
                 }
 
@@ -117,37 +128,56 @@ public class PerformanceChatClient extends WebSocketClient {
     public void onMessage(String response) {
         try {
             long receiveTime = System.currentTimeMillis();
+            stats.recordBytesReceived(response.getBytes(StandardCharsets.UTF_8).length);
 
             // Parse response to get status
             JsonNode jsonNode = objectMapper.readTree(response);
-            String status = jsonNode.get("status").asText();
+            recordResponse(jsonNode.get("status").asText(), receiveTime);
 
-            // Find matching send time (use most recent)
-            Integer msgId = findOldestUnmatchedMessage();
+        } catch (Exception e) {
+            System.out.println("Error processing response: " + e.getMessage());
+        }
+    }
 
-            if (msgId != null) {
-                Long sendTime = sendTimes.remove(msgId);
-                String msgType = messageTypes.remove(msgId);
+    @Override
+    public void onMessage(ByteBuffer response) {
+        long receiveTime = System.currentTimeMillis();
+        stats.recordBytesReceived(response.remaining());
+
+        // Binary responses carry their status in the frame type
+        byte frameType = BinaryCodec.frameType(response);
+        String status = frameType == BinaryCodec.ACK ? "SUCCESS"
+                : frameType == BinaryCodec.THROTTLE ? "THROTTLE" : "ERROR";
+        recordResponse(status, receiveTime);
+    }
 
-                if (sendTime != null) {
-                    long latency = receiveTime - sendTime;
+    private void recordResponse(String status, long receiveTime) {
+        if (status.equals("THROTTLE")) {
+            stats.recordThrottled();
+        }
 
-                    // Record metric
-                    MessageMetric metric = new MessageMetric(
-                            sendTime, msgType, latency, status, roomId
-                    );
-                    metricsCollector.addMetric(metric);
+        // Find matching send time (use most recent)
+        Integer msgId = findOldestUnmatchedMessage();
 
-                    if (status.equals("SUCCESS")) {
-                        successCount.incrementAndGet();
-                    } else {
-                        failureCount.incrementAndGet();
-                    }
+        if (msgId != null) {
+            Long sendTime = sendTimes.remove(msgId);
+            String msgType = messageTypes.remove(msgId);
+
+            if (sendTime != null) {
+                long latency = receiveTime - sendTime;
+
+                // Record metric
+                MessageMetric metric = new MessageMetric(
+                        sendTime, msgType, latency, status, roomId
+                );
+                metricsCollector.addMetric(metric);
+
+                if (status.equals("SUCCESS")) {
+                    successCount.incrementAndGet();
+                } else {
+                    failureCount.incrementAndGet();
                 }
             }
-
-        } catch (Exception e) {
-            System.out.println("Error processing response: " + e.getMessage());
         }
     }
 
@@ -157,13 +187,19 @@ public class PerformanceChatClient extends WebSocketClient {
                 .orElse(null);
     }
 
-    private String extractMessageType(String message) {
+    private JsonNode parseMessage(String message) {
         try {
-            JsonNode node = objectMapper.readTree(message);
-            return node.get("messageType").asText();
+            return objectMapper.readTree(message);
         } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private String extractMessageType(JsonNode node) {
+        if (node == null || !node.hasNonNull("messageType")) {
             return "UNKNOWN";
         }
+        return node.get("messageType").asText();
     }
 
     private void attemptReconnect() {
@@ -70,7 +70,7 @@ public class PerformanceTestClient {
         long phaseStart = System.currentTimeMillis();
 
         for (int i = 0; i < WARMUP_THREADS; i++) {
-            int roomId = random.nextInt(20) + 1;
+            int roomId = random.nextInt(ClientConfig.ROOM_COUNT) + 1;
             URI serverUri = new URI(SERVER_URL + roomId);
 
             PerformanceChatClient client = new PerformanceChatClient(
@@ -114,7 +114,7 @@ public class PerformanceTestClient {
 
         // Create worker threads that use pooled connections
         for (int i = 0; i < numThreads; i++) {
-            int roomId = random.nextInt(20) + 1;
+            int roomId = random.nextInt(ClientConfig.ROOM_COUNT) + 1;
 
             int messagesToSend = (i == numThreads - 1) ?
                     (remainingMessages - (i * messagesPerThread)) : messagesPerThread;
@@ -4,6 +4,7 @@ import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class ReceiverClient extends WebSocketClient {
@@ -12,7 +13,7 @@ public class ReceiverClient extends WebSocketClient {
 
     public ReceiverClient(String uri, MetricsCollector metricsCollector,
                           AtomicInteger successCount) throws Exception {
-        super(new URI(uri));
+        super(new URI(uri), WireFormat.draft());
         this.metricsCollector = metricsCollector;
         this.successCount = successCount;
     }
@@ -30,6 +31,14 @@ public class ReceiverClient extends WebSocketClient {
         );
     }
 
+    @Override
+    public void onMessage(ByteBuffer message) {
+        // Binary broadcast, sent when the binary subprotocol was negotiated
+        OptimizedDistributedPerformanceChatClient.recordBroadcastMetric(
+                message, metricsCollector, successCount
+        );
+    }
+
     @Override
     public void onClose(int code, String reason, boolean remote) {
         System.out.println("Receiver closed: " + getURI().getPath());
@@ -0,0 +1,44 @@
+package com.chatflow.client;
+
+import com.chatflow.common.BinaryCodec;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.protocols.Protocol;
+
+import java.time.Instant;
+import java.util.Collections;
+
+/**
+ * Wire format used by the load clients, set with CHATFLOW_WIRE_FORMAT
+ * (json or binary, default json). Binary clients request the
+ * chatflow.binary.v1 subprotocol and exchange BinaryCodec frames.
+ */
+public class WireFormat {
+    public static final boolean BINARY = "binary".equalsIgnoreCase(System.getenv("CHATFLOW_WIRE_FORMAT"));
+
+    public static String name() {
+        return BINARY ? BinaryCodec.PROTOCOL : "json";
+    }
+
+    // Handshake draft for a new client, asking for the binary subprotocol when enabled
+    public static Draft draft() {
+        if (!BINARY) {
+            return new Draft_6455();
+        }
+        return new Draft_6455(Collections.emptyList(),
+                Collections.singletonList(new Protocol(BinaryCodec.PROTOCOL)));
+    }
+
+    // Converts a generated JSON message into a binary CHAT frame
+    public static byte[] toBinary(JsonNode message) {
+        return BinaryCodec.encodeChat(
+                message.get("userId").asInt(),
+                BinaryCodec.messageTypeCode(message.get("messageType").asText()),
+                Instant.parse(message.get("timestamp").asText()).toEpochMilli(),
+                message.get("username").asText(),
+                message.get("message").asText(),
+                message.hasNonNull("trackingId") ? message.get("trackingId").asText() : null
+        );
+    }
+}
@@ -0,0 +1,145 @@
+package com.chatflow.common;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Small HTTP server for health, readiness and metrics. Handlers run on a
+ * dedicated pool of a couple of daemon threads rather than on the HTTP
+ * dispatcher thread, so a slow scrape never holds up the next probe, and
+ * nothing here competes with the message path for its threads.
+ */
+public class AdminHttpServer {
+    private static final ChatLogger log = ChatLogger.getLogger(AdminHttpServer.class);
+    private static final int THREADS = 2;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public AdminHttpServer(int port, String name) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        AtomicInteger threadNumber = new AtomicInteger(0);
+        this.executor = Executors.newFixedThreadPool(THREADS, task -> {
+            Thread thread = new Thread(task, name + "-http-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+    }
+
+    public void route(String path, Supplier<Response> handler) {
+        routeWithQuery(path, query -> handler.get());
+    }
+
+    // The handler gets the raw query string, null when there is none
+    public void routeWithQuery(String path, Function<String, Response> handler) {
+        server.createContext(path, exchange -> {
+            Response response;
+            try {
+                response = handler.apply(exchange.getRequestURI().getRawQuery());
+            } catch (RuntimeException e) {
+                log.error("Admin handler for {} failed: {}", path, e.getMessage());
+                response = Response.text(500, "error: " + e.getMessage() + "\n");
+            }
+            respond(exchange, response);
+        });
+    }
+
+    /**
+     * /loglevel lists the enabled log levels. ?level=debug sets the threshold,
+     * ?enable=trace or ?disable=info switches a single level.
+     */
+    public void routeLogLevels() {
+        routeWithQuery("/loglevel", AdminHttpServer::logLevels);
+    }
+
+    private static Response logLevels(String query) {
+        if (query != null) {
+            for (String param : query.split("&")) {
+                int equals = param.indexOf('=');
+                String name = equals < 0 ? param : param.substring(0, equals);
+                LogLevel level = equals < 0 ? null : LogLevel.fromString(param.substring(equals + 1), null);
+                if (level == null) {
+                    return Response.text(400, "usage: /loglevel?level|enable|disable=error|warn|info|debug|trace\n");
+                }
+                switch (name) {
+                    case "level":
+                        ChatLogger.setLevel(level);
+                        break;
+                    case "enable":
+                    case "disable":
+                        ChatLogger.setLevelEnabled(level, "enable".equals(name));
+                        break;
+                    default:
+                        return Response.text(400, "unknown parameter: " + name + "\n");
+                }
+                log.warn("Log levels changed: {} {}", name, level);
+            }
+        }
+        StringBuilder response = new StringBuilder("{\"enabled\":[");
+        boolean first = true;
+        for (LogLevel level : LogLevel.values()) {
+            if (ChatLogger.isLevelEnabled(level)) {
+                response.append(first ? "\"" : ",\"").append(level).append('"');
+                first = false;
+            }
+        }
+        return Response.json(200, response.append("]}").toString());
+    }
+
+    private static void respond(HttpExchange exchange, Response response) throws IOException {
+        byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", response.contentType);
+        exchange.sendResponseHeaders(response.status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    public static final class Response {
+        final int status;
+        final String contentType;
+        final String body;
+
+        private Response(int status, String contentType, String body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public static Response json(int status, String body) {
+            return new Response(status, "application/json", body);
+        }
+
+        public static Response text(int status, String body) {
+            return new Response(status, "text/plain; charset=utf-8", body);
+        }
+
+        public static Response metrics(PrometheusWriter metrics) {
+            return new Response(200, PrometheusWriter.CONTENT_TYPE, metrics.toString());
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.chatflow.common;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded multi-producer ring of preallocated log events, drained by one
+ * background thread that formats them and writes whole batches to stdout.
+ * Logging threads never take the PrintStream lock or wait on console I/O:
+ * they claim a slot with a single CAS, and when the ring is full the line is
+ * dropped and counted instead.
+ *
+ * Nothing flushes on its own at JVM exit: an application calls
+ * {@link #shutdown} as the last step of its own shutdown, after the lines it
+ * logs while draining. Lines appended after that are dropped and counted.
+ */
+public class AsyncLogAppender {
+    private static final int MAX_BATCH = 512;
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+
+    private final LogEvent[] events;
+    // Per-slot sequence: equals the claim position when free, position + 1 when written
+    private final AtomicLongArray slotSequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(0);
+    private long head = 0; // Only touched by the drain thread
+    private volatile long writtenHead = 0; // head as of the last completed write
+
+    private final PrintStream out;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final Thread drainThread;
+    private volatile boolean running = true;
+
+    public AsyncLogAppender(int capacity, PrintStream out) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Log ring capacity must be a power of two: " + capacity);
+        }
+        this.events = new LogEvent[capacity];
+        this.slotSequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            events[i] = new LogEvent();
+            slotSequences.set(i, i);
+        }
+        this.mask = capacity - 1;
+        this.out = out;
+
+        this.drainThread = new Thread(this::drainLoop, "chatflow-log-writer");
+        this.drainThread.setDaemon(true);
+        this.drainThread.start();
+    }
+
+    /**
+     * Returns false (and counts a drop) when the ring is full or the
+     * appender has shut down.
+     */
+    boolean append(LogLevel level, String loggerName, String format, int argCount,
+                   Object arg1, Object arg2, Object arg3, Throwable error) {
+        if (!running) {
+            dropped.increment();
+            return false;
+        }
+        long position;
+        LogEvent event;
+        while (true) {
+            position = tail.get();
+            int index = (int) (position & mask);
+            long sequence = slotSequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    event = events[index];
+                    break;
+                }
+            } else if (sequence < position) {
+                dropped.increment();
+                return false;
+            }
+            // Another producer moved on first, retry with the new tail
+        }
+
+        event.timestampMillis = System.currentTimeMillis();
+        event.level = level;
+        event.loggerName = loggerName;
+        event.threadName = Thread.currentThread().getName();
+        event.format = format;
+        event.argCount = argCount;
+        event.arg1 = arg1;
+        event.arg2 = arg2;
+        event.arg3 = arg3;
+        event.error = error;
+        slotSequences.lazySet((int) (position & mask), position + 1);
+        return true;
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    /**
+     * Waits (up to the timeout) until everything appended so far is written.
+     */
+    public void flush(long timeoutMillis) {
+        long target = tail.get();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (writtenHead < target && System.currentTimeMillis() < deadline) {
+            LockSupport.unpark(drainThread);
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    /**
+     * Stops taking lines and waits (up to the timeout) for the writer to
+     * write everything already appended, including lines whose append was
+     * still in progress when it stopped.
+     */
+    public void shutdown(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        running = false;
+        LockSupport.unpark(drainThread);
+        try {
+            drainThread.join(Math.max(1, deadline - System.currentTimeMillis()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        StringBuilder batch = new StringBuilder(8192);
+        while (true) {
+            // Read before draining, so a stop is only acted on after a pass that saw it
+            boolean stopping = !running;
+            int count = drainBatch(batch);
+            if (count == 0) {
+                // A producer that got in before the stop may still be filling its slot
+                if (stopping && head == tail.get()) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    // Formats and writes up to MAX_BATCH events; returns how many
+    private int drainBatch(StringBuilder batch) {
+        int count = 0;
+        while (count < MAX_BATCH) {
+            int index = (int) (head & mask);
+            if (slotSequences.get(index) != head + 1) {
+                break;
+            }
+            LogEvent event = events[index];
+            try {
+                format(event, batch);
+            } catch (RuntimeException e) {
+                // A misbehaving toString() must not kill the writer thread
+                batch.append("Failed to format log line: ").append(e).append(System.lineSeparator());
+            }
+            event.clear();
+            slotSequences.lazySet(index, head + events.length);
+            head++;
+            count++;
+        }
+
+        if (count > 0) {
+            // One PrintStream call per batch instead of one per line
+            out.print(batch);
+            out.flush();
+            batch.setLength(0);
+            written.add(count);
+            writtenHead = head;
+        }
+        return count;
+    }
+
+    private static void format(LogEvent event, StringBuilder sb) {
+        sb.append(Instant.ofEpochMilli(event.timestampMillis)).append(' ')
+                .append(event.level).append(' ')
+                .append('[').append(event.threadName).append("] ")
+                .append(event.loggerName).append(" - ");
+
+        // Substitute {} placeholders in order
+        String format = event.format;
+        Object[] args = {event.arg1, event.arg2, event.arg3};
+        int argIndex = 0;
+        int start = 0;
+        int placeholder;
+        while (argIndex < event.argCount && (placeholder = format.indexOf("{}", start)) >= 0) {
+            sb.append(format, start, placeholder).append(args[argIndex++]);
+            start = placeholder + 2;
+        }
+        sb.append(format, start, format.length()).append(System.lineSeparator());
+
+        if (event.error != null) {
+            StringWriter trace = new StringWriter();
+            event.error.printStackTrace(new PrintWriter(trace));
+            sb.append(trace);
+        }
+    }
+
+    // Preallocated ring slot, overwritten in place
+    private static final class LogEvent {
+        long timestampMillis;
+        LogLevel level;
+        String loggerName;
+        String threadName;
+        String format;
+        int argCount;
+        Object arg1;
+        Object arg2;
+        Object arg3;
+        Throwable error;
+
+        void clear() {
+            loggerName = null;
+            threadName = null;
+            format = null;
+            arg1 = null;
+            arg2 = null;
+            arg3 = null;
+            error = null;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.chatflow.common;
+
+/**
+ * Decoded CHAT or BROADCAST frame of the binary wire format. Each module
+ * maps it onto its own ChatMessage / QueueMessage. messageId, roomId,
+ * sequence and serverId are only present on BROADCAST frames (0 and null
+ * otherwise).
+ */
+public class BinaryChatFrame {
+    private final byte frameType;
+    private final int userId;
+    private final byte messageType;
+    private final long timestampMillis;
+    private final String username;
+    private final String message;
+    private final String trackingId;
+    private final long messageId;
+    private final String roomId;
+    private final long sequence;
+    private final String serverId;
+
+    public BinaryChatFrame(byte frameType, int userId, byte messageType, long timestampMillis,
+                           String username, String message, String trackingId,
+                           long messageId, String roomId, long sequence, String serverId) {
+        this.frameType = frameType;
+        this.userId = userId;
+        this.messageType = messageType;
+        this.timestampMillis = timestampMillis;
+        this.username = username;
+        this.message = message;
+        this.trackingId = trackingId;
+        this.messageId = messageId;
+        this.roomId = roomId;
+        this.sequence = sequence;
+        this.serverId = serverId;
+    }
+
+    public byte getFrameType() { return frameType; }
+    public int getUserId() { return userId; }
+    public byte getMessageType() { return messageType; }
+    public long getTimestampMillis() { return timestampMillis; }
+    public String getUsername() { return username; }
+    public String getMessage() { return message; }
+    public String getTrackingId() { return trackingId; }
+    public long getMessageId() { return messageId; }
+    public String getRoomId() { return roomId; }
+    public long getSequence() { return sequence; }
+    public String getServerId() { return serverId; }
+}
@@ -0,0 +1,186 @@
+package com.chatflow.common;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary wire format, selected by clients with the
+ * "chatflow.binary.v1" WebSocket subprotocol (JSON text stays the default).
+ * Every frame starts with a one-byte frame type. Integers are big-endian;
+ * strings are a u16 byte length followed by UTF-8 bytes, with 0xFFFF
+ * meaning null.
+ *
+ *   CHAT      type | userId i32 | messageType u8 | timestamp i64 | username | message | trackingId
+ *   ACK       type | serverTimestamp i64 | messageId i64
+ *   ERROR     type | serverTimestamp i64 | message
+ *   BROADCAST CHAT layout | messageId i64 | roomId | sequence i64 | serverId
+ *   THROTTLE  ERROR layout, the message was not published; retry after backing off
+ *
+ * Timestamps are epoch milliseconds. messageType is the index into
+ * {@link #MESSAGE_TYPES}, which follows the MessageType enum order.
+ */
+public final class BinaryCodec {
+    public static final String PROTOCOL = "chatflow.binary.v1";
+
+    public static final byte CHAT = 1;
+    public static final byte ACK = 2;
+    public static final byte ERROR = 3;
+    public static final byte BROADCAST = 4;
+    public static final byte THROTTLE = 5;
+
+    private static final String[] MESSAGE_TYPES = {"TEXT", "JOIN", "LEAVE"};
+    private static final int NULL_LENGTH = 0xFFFF;
+    private static final int MAX_STRING_BYTES = NULL_LENGTH - 1;
+
+    private BinaryCodec() {}
+
+    // Returns -1 for names that are not a known message type
+    public static byte messageTypeCode(String name) {
+        for (int i = 0; i < MESSAGE_TYPES.length; i++) {
+            if (MESSAGE_TYPES[i].equalsIgnoreCase(name)) {
+                return (byte) i;
+            }
+        }
+        return -1;
+    }
+
+    // Returns null for unknown codes
+    public static String messageTypeName(byte code) {
+        return code >= 0 && code < MESSAGE_TYPES.length ? MESSAGE_TYPES[code] : null;
+    }
+
+    // Frame type of the frame at the buffer's position, without consuming it
+    public static byte frameType(ByteBuffer frame) {
+        return frame.remaining() == 0 ? 0 : frame.get(frame.position());
+    }
+
+    public static byte[] encodeChat(int userId, byte messageType, long timestampMillis,
+                                    String username, String message, String trackingId) {
+        byte[] usernameBytes = utf8(username);
+        byte[] messageBytes = utf8(message);
+        byte[] trackingBytes = utf8(trackingId);
+
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + 1 + 8
+                + sizeOf(usernameBytes) + sizeOf(messageBytes) + sizeOf(trackingBytes));
+        buffer.put(CHAT).putInt(userId).put(messageType).putLong(timestampMillis);
+        putString(buffer, usernameBytes);
+        putString(buffer, messageBytes);
+        putString(buffer, trackingBytes);
+        return buffer.array();
+    }
+
+    public static byte[] encodeBroadcast(int userId, byte messageType, long timestampMillis,
+                                         String username, String message, String trackingId,
+                                         long messageId, String roomId, long sequence, String serverId) {
+        byte[] usernameBytes = utf8(username);
+        byte[] messageBytes = utf8(message);
+        byte[] trackingBytes = utf8(trackingId);
+        byte[] roomIdBytes = utf8(roomId);
+        byte[] serverIdBytes = utf8(serverId);
+
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + 1 + 8
+                + sizeOf(usernameBytes) + sizeOf(messageBytes) + sizeOf(trackingBytes)
+                + 8 + sizeOf(roomIdBytes) + 8 + sizeOf(serverIdBytes));
+        buffer.put(BROADCAST).putInt(userId).put(messageType).putLong(timestampMillis);
+        putString(buffer, usernameBytes);
+        putString(buffer, messageBytes);
+        putString(buffer, trackingBytes);
+        buffer.putLong(messageId);
+        putString(buffer, roomIdBytes);
+        buffer.putLong(sequence);
+        putString(buffer, serverIdBytes);
+        return buffer.array();
+    }
+
+    public static byte[] encodeAck(long messageId, long serverTimestampMillis) {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 8);
+        buffer.put(ACK).putLong(serverTimestampMillis).putLong(messageId);
+        return buffer.array();
+    }
+
+    public static byte[] encodeError(String errorMessage, long serverTimestampMillis) {
+        return encodeResponse(ERROR, errorMessage, serverTimestampMillis);
+    }
+
+    public static byte[] encodeThrottle(String message, long serverTimestampMillis) {
+        return encodeResponse(THROTTLE, message, serverTimestampMillis);
+    }
+
+    private static byte[] encodeResponse(byte type, String text, long serverTimestampMillis) {
+        byte[] textBytes = utf8(text);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + sizeOf(textBytes));
+        buffer.put(type).putLong(serverTimestampMillis);
+        putString(buffer, textBytes);
+        return buffer.array();
+    }
+
+    /**
+     * Decodes a CHAT or BROADCAST frame.
+     *
+     * @throws IllegalArgumentException if the frame is truncated or of another type
+     */
+    public static BinaryChatFrame decodeChat(ByteBuffer frame) {
+        try {
+            byte type = frame.get();
+            if (type != CHAT && type != BROADCAST) {
+                throw new IllegalArgumentException("Not a chat frame: type " + type);
+            }
+            int userId = frame.getInt();
+            byte messageType = frame.get();
+            long timestampMillis = frame.getLong();
+            String username = getString(frame);
+            String message = getString(frame);
+            String trackingId = getString(frame);
+            long messageId = type == BROADCAST ? frame.getLong() : 0;
+            String roomId = type == BROADCAST ? getString(frame) : null;
+            long sequence = type == BROADCAST ? frame.getLong() : 0;
+            String serverId = type == BROADCAST ? getString(frame) : null;
+            return new BinaryChatFrame(type, userId, messageType, timestampMillis,
+                    username, message, trackingId, messageId, roomId, sequence, serverId);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated frame", e);
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        if (value == null) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("String too long for binary frame: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        return 2 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putShort((short) NULL_LENGTH);
+        } else {
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        if (!buffer.hasArray()) {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
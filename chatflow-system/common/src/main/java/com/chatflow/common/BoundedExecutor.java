@@ -0,0 +1,155 @@
+package com.chatflow.common;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs tasks on an unbounded executor, normally a thread per task on virtual
+ * threads, with at most maxConcurrency running at once. A caller that finds
+ * every permit taken blocks until one frees up, which pushes back on
+ * whatever feeds it (for the server, the socket reads of a decoder thread).
+ *
+ * {@link #serial()} gives an executor that runs its tasks one at a time in
+ * submission order, for work that must stay ordered, such as one
+ * connection's messages. It holds a single permit while it has work.
+ */
+public class BoundedExecutor implements Executor {
+    private static final ChatLogger log = ChatLogger.getLogger(BoundedExecutor.class);
+
+    private final String name;
+    private final ExecutorService threads;
+    private final int maxConcurrency;
+    private final Semaphore permits;
+
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder callerWaits = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public BoundedExecutor(String name, ExecutorService threads, int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive");
+        }
+        this.name = name;
+        this.threads = threads;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (!permits.tryAcquire()) {
+            callerWaits.increment();
+            permits.acquireUninterruptibly();
+        }
+        try {
+            threads.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    failed.increment();
+                    log.error("{} task failed: {}", name, e.getMessage());
+                } finally {
+                    executed.increment();
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public Executor serial() {
+        return new Serial();
+    }
+
+    /**
+     * Stops taking tasks and waits for the running ones; queued serial tasks
+     * run as part of them.
+     */
+    public boolean shutdown(long timeoutMillis) throws InterruptedException {
+        threads.shutdown();
+        return threads.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public int getActive() { return maxConcurrency - permits.availablePermits(); }
+    public int getMaxConcurrency() { return maxConcurrency; }
+    public long getExecuted() { return executed.sum(); }
+    public long getCallerWaits() { return callerWaits.sum(); }
+    public long getFailed() { return failed.sum(); }
+
+    public void printMetrics() {
+        System.out.println("\n=== " + name + " Tasks ===");
+        System.out.println("Active: " + getActive() + " / " + maxConcurrency);
+        System.out.println("Executed: " + getExecuted() + " (failed: " + getFailed() + ")");
+        System.out.println("Callers Blocked At Limit: " + getCallerWaits());
+    }
+
+    private final class Serial implements Executor, Runnable {
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    BoundedExecutor.this.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            boolean completed = false;
+            try {
+                // Loops instead of resubmitting, which could wait on its own permit
+                do {
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            failed.increment();
+                            log.error("{} task failed: {}", name, e.getMessage());
+                        }
+                    }
+                    scheduled.set(false);
+                } while (!tasks.isEmpty() && scheduled.compareAndSet(false, true));
+                completed = true;
+            } finally {
+                if (!completed) {
+                    // An Error escaped a task; the tasks queued behind it get a fresh run, scheduled
+                    // from another thread since this one still holds the permit that run waits for
+                    failed.increment();
+                    scheduled.set(false);
+                    if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+                        try {
+                            threads.execute(this::reschedule);
+                        } catch (RejectedExecutionException e) {
+                            scheduled.set(false); // shut down, nothing will run them
+                        }
+                    }
+                }
+            }
+        }
+
+        private void reschedule() {
+            try {
+                BoundedExecutor.this.execute(this);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.chatflow.common;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Leveled logger backed by a shared {@link AsyncLogAppender}. Disabled
+ * levels cost one volatile read. Formatting ({} placeholders) happens on the
+ * writer thread, so callers pass arguments instead of concatenating strings.
+ *
+ * Per-message events should go through a {@link #sampled()} logger, which
+ * keeps about one call in CHATFLOW_LOG_SAMPLE_RATE (default 10,000).
+ *
+ * Environment: CHATFLOW_LOG_LEVEL (default INFO), CHATFLOW_LOG_SAMPLE_RATE,
+ * CHATFLOW_LOG_BUFFER (ring slots, default 8192).
+ */
+public final class ChatLogger {
+    private static final int DEFAULT_SAMPLE_RATE = envInt("CHATFLOW_LOG_SAMPLE_RATE", 10_000);
+
+    // Bit per LogLevel, switched at runtime with setLevel/setLevelEnabled (see /loglevel on the admin servers)
+    private static volatile int enabledLevels =
+            thresholdMask(LogLevel.fromString(System.getenv("CHATFLOW_LOG_LEVEL"), LogLevel.INFO));
+
+    private final String name;
+    private final int sampleRate;
+
+    private ChatLogger(String name, int sampleRate) {
+        this.name = name;
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    public static ChatLogger getLogger(Class<?> type) {
+        return new ChatLogger(type.getSimpleName(), 1);
+    }
+
+    // Same logger, keeping roughly one call in the default sample rate
+    public ChatLogger sampled() {
+        return sampled(DEFAULT_SAMPLE_RATE);
+    }
+
+    public ChatLogger sampled(int rate) {
+        return new ChatLogger(name, rate);
+    }
+
+    // Runtime switches
+
+    public static void setLevel(LogLevel threshold) {
+        enabledLevels = thresholdMask(threshold);
+    }
+
+    public static void setLevelEnabled(LogLevel level, boolean enabled) {
+        int mask = enabledLevels;
+        enabledLevels = enabled ? (mask | level.bit()) : (mask & ~level.bit());
+    }
+
+    public static boolean isLevelEnabled(LogLevel level) {
+        return (enabledLevels & level.bit()) != 0;
+    }
+
+    public static long getDroppedCount() {
+        return Appender.INSTANCE.getDroppedCount();
+    }
+
+    public static long getWrittenCount() {
+        return Appender.INSTANCE.getWrittenCount();
+    }
+
+    public static void flush(long timeoutMillis) {
+        Appender.INSTANCE.flush(timeoutMillis);
+    }
+
+    // Last step of an application's shutdown, after everything it logs while draining
+    public static void shutdown(long timeoutMillis) {
+        Appender.INSTANCE.shutdown(timeoutMillis);
+    }
+
+    // Logging API
+
+    public void error(String message) { log(LogLevel.ERROR, message, 0, null, null, null, null); }
+    public void error(String format, Object arg) { log(LogLevel.ERROR, format, 1, arg, null, null, null); }
+    public void error(String format, Object arg1, Object arg2) { log(LogLevel.ERROR, format, 2, arg1, arg2, null, null); }
+    public void error(String format, Object arg1, Object arg2, Object arg3) { log(LogLevel.ERROR, format, 3, arg1, arg2, arg3, null); }
+    public void error(String message, Throwable error) { log(LogLevel.ERROR, message, 0, null, null, null, error); }
+
+    public void warn(String message) { log(LogLevel.WARN, message, 0, null, null, null, null); }
+    public void warn(String format, Object arg) { log(LogLevel.WARN, format, 1, arg, null, null, null); }
+    public void warn(String format, Object arg1, Object arg2) { log(LogLevel.WARN, format, 2, arg1, arg2, null, null); }
+    public void warn(String format, Object arg1, Object arg2, Object arg3) { log(LogLevel.WARN, format, 3, arg1, arg2, arg3, null); }
+    public void warn(String message, Throwable error) { log(LogLevel.WARN, message, 0, null, null, null, error); }
+
+    public void info(String message) { log(LogLevel.INFO, message, 0, null, null, null, null); }
+    public void info(String format, Object arg) { log(LogLevel.INFO, format, 1, arg, null, null, null); }
+    public void info(String format, Object arg1, Object arg2) { log(LogLevel.INFO, format, 2, arg1, arg2, null, null); }
+    public void info(String format, Object arg1, Object arg2, Object arg3) { log(LogLevel.INFO, format, 3, arg1, arg2, arg3, null); }
+
+    public void debug(String message) { log(LogLevel.DEBUG, message, 0, null, null, null, null); }
+    public void debug(String format, Object arg) { log(LogLevel.DEBUG, format, 1, arg, null, null, null); }
+    public void debug(String format, Object arg1, Object arg2) { log(LogLevel.DEBUG, format, 2, arg1, arg2, null, null); }
+    public void debug(String format, Object arg1, Object arg2, Object arg3) { log(LogLevel.DEBUG, format, 3, arg1, arg2, arg3, null); }
+
+    public void trace(String message) { log(LogLevel.TRACE, message, 0, null, null, null, null); }
+    public void trace(String format, Object arg) { log(LogLevel.TRACE, format, 1, arg, null, null, null); }
+    public void trace(String format, Object arg1, Object arg2) { log(LogLevel.TRACE, format, 2, arg1, arg2, null, null); }
+
+    private void log(LogLevel level, String format, int argCount,
+                     Object arg1, Object arg2, Object arg3, Throwable error) {
+        if ((enabledLevels & level.bit()) == 0) {
+            return;
+        }
+        // Thread-local random keeps sampling free of a shared counter
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        Appender.INSTANCE.append(level, name, format, argCount, arg1, arg2, arg3, error);
+    }
+
+    private static int thresholdMask(LogLevel threshold) {
+        int mask = 0;
+        for (LogLevel level : LogLevel.values()) {
+            if (level.ordinal() <= threshold.ordinal()) {
+                mask |= level.bit();
+            }
+        }
+        return mask;
+    }
+
+    private static int envInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    // Created on first use; the application flushes it with shutdown() once it has drained
+    private static final class Appender {
+        static final AsyncLogAppender INSTANCE = create();
+
+        private static AsyncLogAppender create() {
+            int requested = envInt("CHATFLOW_LOG_BUFFER", 8192);
+            int capacity = Integer.highestOneBit(Math.max(2, requested));
+            return new AsyncLogAppender(capacity, System.out);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.chatflow.common;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the 64-bit message IDs seen in the last windowMillis, in memory
+ * fixed at construction: 32 to 48 bytes per ID of capacity (the table rounds
+ * up to a power of two), nothing allocated per message. IDs are stored
+ * whole, so within the window the answer is exact (no false positives,
+ * unlike a Bloom filter); IDs older than the window are forgotten one at a
+ * time as they expire rather than all at once.
+ *
+ * The only way to miss a duplicate inside the window is more than capacity
+ * IDs arriving within it. The oldest IDs are then dropped early, which is
+ * counted in {@link #getEvictedEarly()}; size capacity for rate * window.
+ *
+ * Split into stripes by ID, each a ring of (ID, arrival time) in arrival
+ * order plus an open-addressing table of the same IDs, guarded by its own
+ * lock.
+ */
+public class DedupWindow {
+    private static final int STRIPES = 16;
+    private static final long EMPTY = 0;
+
+    private final long windowMillis;
+    private final int capacity;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder evictedEarly = new LongAdder();
+
+    public DedupWindow(int capacity, long windowMillis) {
+        if (capacity < STRIPES || windowMillis <= 0) {
+            throw new IllegalArgumentException("Capacity must be at least " + STRIPES + " and the window positive");
+        }
+        this.windowMillis = windowMillis;
+        int perStripe = (capacity + STRIPES - 1) / STRIPES;
+        this.capacity = perStripe * STRIPES;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+    }
+
+    /**
+     * True if the ID was seen within the window; otherwise records it. IDs
+     * of 0 or less are never duplicates and are not recorded.
+     */
+    public boolean checkAndAdd(long id) {
+        return checkAndAdd(id, System.currentTimeMillis());
+    }
+
+    public boolean checkAndAdd(long id, long nowMillis) {
+        if (id <= 0) {
+            return false;
+        }
+        checked.increment();
+        long hash = mix(id);
+        Stripe stripe = stripes[(int) (hash >>> 60) & (STRIPES - 1)];
+        boolean duplicate;
+        synchronized (stripe) {
+            duplicate = stripe.checkAndAdd(id, hash, nowMillis - windowMillis, nowMillis);
+        }
+        if (duplicate) {
+            duplicates.increment();
+        }
+        return duplicate;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.count;
+            }
+        }
+        return size;
+    }
+
+    public int getCapacity() { return capacity; }
+    public long getWindowMillis() { return windowMillis; }
+    public long getChecked() { return checked.sum(); }
+    public long getDuplicates() { return duplicates.sum(); }
+    // Dropped before their window was up because the ring was full
+    public long getEvictedEarly() { return evictedEarly.sum(); }
+
+    // Heap held by the arrays, for sizing
+    public long getMemoryBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += 8L * (stripe.ringIds.length + stripe.ringTimes.length + stripe.table.length);
+        }
+        return bytes;
+    }
+
+    public void writeMetrics(PrometheusWriter metrics) {
+        metrics.counter("chatflow_dedup_checked_total", "Message IDs checked against the dedup window", getChecked());
+        metrics.counter("chatflow_dedup_duplicates_total", "Message IDs already seen within the window",
+                getDuplicates());
+        metrics.counter("chatflow_dedup_evicted_early_total", "IDs dropped before the window ended, ring full",
+                getEvictedEarly());
+        metrics.gauge("chatflow_dedup_entries", "IDs currently remembered", size());
+        metrics.gauge("chatflow_dedup_capacity", "Most IDs the window can hold", capacity);
+    }
+
+    public void printMetrics() {
+        System.out.println("\n=== Dedup Window ===");
+        System.out.println("Entries: " + size() + " / " + capacity + " (" + windowMillis + " ms, "
+                + getMemoryBytes() / 1024 + " KB)");
+        System.out.println("Checked: " + getChecked() + ", Duplicates: " + getDuplicates());
+        System.out.println("Evicted Before Window End: " + getEvictedEarly());
+    }
+
+    // Time-ordered IDs share their high bits, so spread them before picking stripe and slot
+    static long mix(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    private final class Stripe {
+        // Ring in arrival order: the oldest entry is at tail
+        final long[] ringIds;
+        final long[] ringTimes;
+        int tail;
+        int count;
+        // Linear probing at most half full, EMPTY marks a free slot
+        final long[] table;
+        final int mask;
+
+        Stripe(int capacity) {
+            this.ringIds = new long[capacity];
+            this.ringTimes = new long[capacity];
+            this.table = new long[Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1];
+            this.mask = table.length - 1;
+        }
+
+        boolean checkAndAdd(long id, long hash, long expireBefore, long now) {
+            while (count > 0 && ringTimes[tail] < expireBefore) {
+                removeOldest();
+            }
+            int slot = (int) hash & mask;
+            while (table[slot] != EMPTY) {
+                if (table[slot] == id) {
+                    return true;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (count == ringIds.length) {
+                removeOldest();
+                evictedEarly.increment();
+                // Removal may have shifted entries into the probe path, find the free slot again
+                slot = (int) hash & mask;
+                while (table[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+            }
+            table[slot] = id;
+            int head = tail + count;
+            if (head >= ringIds.length) {
+                head -= ringIds.length;
+            }
+            ringIds[head] = id;
+            ringTimes[head] = now;
+            count++;
+            return false;
+        }
+
+        private void removeOldest() {
+            remove(ringIds[tail]);
+            tail = tail + 1 == ringIds.length ? 0 : tail + 1;
+            count--;
+        }
+
+        // Backward-shift deletion, so the table never fills with tombstones
+        private void remove(long id) {
+            int slot = (int) mix(id) & mask;
+            while (table[slot] != id) {
+                if (table[slot] == EMPTY) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (table[next] != EMPTY) {
+                int home = (int) mix(table[next]) & mask;
+                // Move the entry back unless its home lies cyclically in (hole, next]
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    table[hole] = table[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            table[hole] = EMPTY;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.chatflow.common;
+
+/**
+ * One message handed to a {@link MessageSubscriber}'s handler. The handle and
+ * delivery tag belong to the subscriber that created it (an AMQP channel, an
+ * in-memory queue) and are what it needs to ack or nack the message.
+ */
+public final class Delivery {
+    private final byte[] body;
+    private final String roomId;
+    private final boolean batch;
+    private final boolean redelivered;
+    private final long deliveryTag;
+    private final Object handle;
+
+    public Delivery(byte[] body, String roomId, boolean batch, boolean redelivered,
+                    long deliveryTag, Object handle) {
+        this.body = body;
+        this.roomId = roomId;
+        this.batch = batch;
+        this.redelivered = redelivered;
+        this.deliveryTag = deliveryTag;
+        this.handle = handle;
+    }
+
+    public byte[] getBody() { return body; }
+    // Null when the room is only known by parsing the body
+    public String getRoomId() { return roomId; }
+    // Body is a batch envelope of several messages
+    public boolean isBatch() { return batch; }
+    public boolean isRedelivered() { return redelivered; }
+    public long getDeliveryTag() { return deliveryTag; }
+    public Object getHandle() { return handle; }
+}
@@ -0,0 +1,302 @@
+package com.chatflow.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Broker inside the JVM: one bounded queue per room, drained once someone
+ * subscribes by a dispatch pool shared by all rooms. A room with messages
+ * takes a pool thread for one batch at a time and then queues again behind
+ * the other rooms, so its deliveries stay in order and idle rooms cost no
+ * thread at all. It lets the server and consumer
+ * run in one process with no broker latency in the measurements, and lets
+ * the server run alone against a discarding subscriber.
+ *
+ * A publish either lands in the room's queue or fails at once when the queue
+ * is full; nothing blocks and nothing is persisted. A delivered message
+ * belongs to the handler: acks only count, nacks with requeue put it back at
+ * the tail of its queue. Draining stops the dispatch pool after the batches
+ * it is delivering; what is still queued then is lost with the process.
+ */
+public class InMemoryBroker implements MessageBroker {
+    private static final ChatLogger log = ChatLogger.getLogger(InMemoryBroker.class);
+
+    private static final CompletableFuture<Void> ACCEPTED = CompletableFuture.completedFuture(null);
+    private static final String ROOM_QUEUE_PREFIX = MessageSubscriber.roomQueue("");
+    // Deliveries handed to a room's handler before the room yields its pool thread
+    private static final int DISPATCH_BATCH = 64;
+
+    private final int queueCapacity;
+    private final ExecutorService dispatchers;
+    private final Map<String, RoomQueue> queues = new ConcurrentHashMap<>();
+    private final List<Consumer<String>> roomListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+    private volatile boolean draining;
+
+    private final AtomicLong published = new AtomicLong(0);
+    private final AtomicLong rejected = new AtomicLong(0);
+    private final AtomicLong delivered = new AtomicLong(0);
+    private final AtomicLong acked = new AtomicLong(0);
+    private final AtomicLong nacked = new AtomicLong(0);
+    private final AtomicLong requeued = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+
+    public InMemoryBroker(int queueCapacity) {
+        this(queueCapacity, Runtime.getRuntime().availableProcessors());
+    }
+
+    // Handlers that block hold a dispatch thread meanwhile, so size the pool for them
+    public InMemoryBroker(int queueCapacity, int dispatchThreads) {
+        this(queueCapacity, fixedPool(Math.max(1, dispatchThreads)));
+    }
+
+    // Takes over the executor, for example a thread per task on virtual threads
+    public InMemoryBroker(int queueCapacity, ExecutorService dispatchers) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        this.queueCapacity = queueCapacity;
+        this.dispatchers = dispatchers;
+        log.info("In-memory broker created, {} messages per room queue", queueCapacity);
+    }
+
+    private static ExecutorService fixedPool(int threads) {
+        AtomicInteger count = new AtomicInteger(0);
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "broker-dispatch-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Called with the room ID the first time anything is published to a room,
+     * before that message is queued; the counterpart of the AMQP room
+     * announcements.
+     */
+    public void onRoomCreated(Consumer<String> listener) {
+        roomListeners.add(listener);
+    }
+
+    @Override
+    public CompletableFuture<Void> publish(String roomId, byte[] body) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IOException("Broker is closed"));
+        }
+        RoomQueue queue = queue(MessageSubscriber.roomQueue(roomId), roomId);
+        if (!queue.messages.offer(new Delivery(body, roomId, false, false, queue.nextTag(), queue))) {
+            rejected.incrementAndGet();
+            return CompletableFuture.failedFuture(new IOException("Queue " + queue.name + " is full"));
+        }
+        published.incrementAndGet();
+        schedule(queue);
+        return ACCEPTED;
+    }
+
+    @Override
+    public void subscribe(String queueName, Consumer<Delivery> handler) throws IOException {
+        if (!queueName.startsWith(ROOM_QUEUE_PREFIX)) {
+            throw new IOException("In-memory broker only has room queues, not " + queueName);
+        }
+        if (closed || draining) {
+            throw new IOException("Broker is shutting down");
+        }
+        RoomQueue queue = queue(queueName, null);
+        synchronized (queue) {
+            if (queue.handler != null) {
+                throw new IOException("Queue " + queueName + " already has a subscriber");
+            }
+            queue.handler = handler;
+        }
+        schedule(queue); // for what was published before
+        log.info("Subscribed to in-memory queue {}", queueName);
+    }
+
+    // roomId is null when the queue is created by a subscriber, which needs no announcement
+    private RoomQueue queue(String queueName, String roomId) {
+        RoomQueue queue = queues.get(queueName);
+        if (queue == null) {
+            RoomQueue created = new RoomQueue(queueName, queueCapacity);
+            queue = queues.putIfAbsent(queueName, created);
+            if (queue == null) {
+                queue = created;
+                if (roomId != null) {
+                    for (Consumer<String> listener : roomListeners) {
+                        listener.accept(roomId);
+                    }
+                }
+            }
+        }
+        return queue;
+    }
+
+    // Gives a subscribed room with messages to the pool, unless it is already there
+    private void schedule(RoomQueue queue) {
+        if (queue.handler == null || closed || draining || !queue.scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            dispatchers.execute(() -> dispatch(queue));
+        } catch (RejectedExecutionException e) {
+            queue.scheduled.set(false); // shutting down
+        }
+    }
+
+    private void dispatch(RoomQueue queue) {
+        try {
+            if (closed || draining) {
+                return;
+            }
+            List<Delivery> batch = new ArrayList<>(DISPATCH_BATCH);
+            queue.messages.drainTo(batch, DISPATCH_BATCH);
+            delivered.addAndGet(batch.size());
+            for (Delivery delivery : batch) {
+                try {
+                    queue.handler.accept(delivery);
+                } catch (RuntimeException e) {
+                    log.error("Handler for {} failed: {}", queue.name, e.getMessage());
+                }
+            }
+        } finally {
+            // A publish that found the room scheduled left its message for this check
+            queue.scheduled.set(false);
+            if (!queue.messages.isEmpty()) {
+                schedule(queue);
+            }
+        }
+    }
+
+    @Override
+    public void ack(Delivery delivery) {
+        queueOf(delivery);
+        acked.incrementAndGet();
+    }
+
+    @Override
+    public void nack(Delivery delivery, boolean requeue) {
+        RoomQueue queue = queueOf(delivery);
+        nacked.incrementAndGet();
+        if (requeue && !closed) {
+            Delivery redelivery = new Delivery(delivery.getBody(), delivery.getRoomId(), delivery.isBatch(),
+                    true, queue.nextTag(), queue);
+            if (queue.messages.offer(redelivery)) {
+                requeued.incrementAndGet();
+                schedule(queue);
+                return;
+            }
+        }
+        dropped.incrementAndGet();
+    }
+
+    private static RoomQueue queueOf(Delivery delivery) {
+        if (!(delivery.getHandle() instanceof RoomQueue)) {
+            throw new IllegalArgumentException("Delivery did not come from an in-memory broker");
+        }
+        return (RoomQueue) delivery.getHandle();
+    }
+
+    // Shared by every consumer in the process, so later calls just wait again
+    @Override
+    public int drain(long timeoutMillis) throws InterruptedException {
+        draining = true;
+        dispatchers.shutdown();
+        dispatchers.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        return (int) getOutstanding();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        dispatchers.shutdownNow();
+        log.info("In-memory broker closed with {} messages still queued", getBacklog());
+    }
+
+    public int getQueueCount() {
+        return queues.size();
+    }
+
+    public long getBacklog() {
+        long backlog = 0;
+        for (RoomQueue queue : queues.values()) {
+            backlog += queue.messages.size();
+        }
+        return backlog;
+    }
+
+    public long getPublished() { return published.get(); }
+    public long getRejected() { return rejected.get(); }
+    public long getDelivered() { return delivered.get(); }
+    public long getAcked() { return acked.get(); }
+    public long getNacked() { return nacked.get(); }
+    // Delivered and not yet acked or nacked
+    public long getOutstanding() { return delivered.get() - acked.get() - nacked.get(); }
+    public long getRequeued() { return requeued.get(); }
+    public long getDropped() { return dropped.get(); }
+
+    @Override
+    public boolean isConnected() {
+        return !closed;
+    }
+
+    @Override
+    public void writeMetrics(PrometheusWriter metrics) {
+        metrics.gauge("chatflow_memory_broker_queues", "Room queues in the in-memory broker", getQueueCount());
+        metrics.gauge("chatflow_memory_broker_backlog", "Messages queued and not yet delivered", getBacklog());
+        metrics.gauge("chatflow_memory_broker_outstanding", "Messages delivered and not yet acked or nacked",
+                getOutstanding());
+        metrics.family("chatflow_memory_broker_messages_total", "counter", "In-memory broker messages by outcome");
+        metrics.sample("chatflow_memory_broker_messages_total", getPublished(), "outcome", "published");
+        metrics.sample("chatflow_memory_broker_messages_total", getRejected(), "outcome", "rejected");
+        metrics.sample("chatflow_memory_broker_messages_total", getDelivered(), "outcome", "delivered");
+        metrics.sample("chatflow_memory_broker_messages_total", getAcked(), "outcome", "acked");
+        metrics.sample("chatflow_memory_broker_messages_total", getNacked(), "outcome", "nacked");
+        metrics.sample("chatflow_memory_broker_messages_total", getRequeued(), "outcome", "requeued");
+        metrics.sample("chatflow_memory_broker_messages_total", getDropped(), "outcome", "dropped");
+    }
+
+    @Override
+    public void printMetrics() {
+        System.out.println("\n=== In-Memory Broker ===");
+        System.out.println("Queues: " + getQueueCount() + ", Backlog: " + getBacklog());
+        System.out.println("Published: " + getPublished());
+        System.out.println("Rejected (queue full): " + getRejected());
+        System.out.println("Delivered: " + getDelivered());
+        System.out.println("Acked: " + getAcked() + ", Nacked: " + getNacked());
+        System.out.println("Requeued: " + getRequeued());
+        System.out.println("Dropped: " + getDropped());
+    }
+
+    private static final class RoomQueue {
+        final String name;
+        final BlockingQueue<Delivery> messages;
+        private final AtomicLong tags = new AtomicLong(0);
+        // Set once under this
+        volatile Consumer<Delivery> handler;
+        // In the dispatch pool's queue or being delivered
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        RoomQueue(String name, int capacity) {
+            this.name = name;
+            this.messages = new ArrayBlockingQueue<>(capacity);
+        }
+
+        long nextTag() {
+            return tags.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.chatflow.common;
+
+public enum LogLevel {
+    ERROR, WARN, INFO, DEBUG, TRACE;
+
+    final int bit() {
+        return 1 << ordinal();
+    }
+
+    public static LogLevel fromString(String value, LogLevel defaultLevel) {
+        try {
+            return LogLevel.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return defaultLevel;
+        }
+    }
+}
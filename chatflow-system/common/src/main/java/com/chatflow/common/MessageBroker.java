@@ -0,0 +1,10 @@
+package com.chatflow.common;
+
+/**
+ * A broker both the server and the consumer can run against. The AMQP side is
+ * split across the modules (the server's RabbitMQManager publishes, the
+ * consumer's AmqpSubscriber consumes, over their own connections); an
+ * {@link InMemoryBroker} does both, so the whole pipeline can run in one JVM.
+ */
+public interface MessageBroker extends MessagePublisher, MessageSubscriber {
+}
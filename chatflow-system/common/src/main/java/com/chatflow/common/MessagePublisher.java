@@ -0,0 +1,37 @@
+package com.chatflow.common;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Publishing half of a {@link MessageBroker}, all the server needs. Bodies
+ * are serialized QueueMessages; the broker only routes them by room.
+ */
+public interface MessagePublisher {
+
+    /**
+     * Publishes one message to the room's queue. The future completes once it
+     * is safe to ACK the client and completes exceptionally if the broker
+     * refused or lost the message.
+     */
+    CompletableFuture<Void> publish(String roomId, byte[] body) throws IOException;
+
+    /**
+     * As publish, for callers that hand over a room's messages one at a time
+     * in their order (under a lock of their own): the broker receives them in
+     * that order too. publish only keeps the order of one calling thread.
+     */
+    default CompletableFuture<Void> publishOrdered(String roomId, byte[] body) throws IOException {
+        return publish(roomId, body);
+    }
+
+    // False while the link to the broker is down; readiness checks this
+    boolean isConnected();
+
+    void printMetrics();
+
+    // The same figures for /metrics
+    void writeMetrics(PrometheusWriter metrics);
+
+    void close() throws IOException;
+}
@@ -0,0 +1,42 @@
+package com.chatflow.common;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Consuming half of a {@link MessageBroker}, all a consumer needs. Queues are
+ * named "room.&lt;roomId&gt;", or "shard.&lt;n&gt;" where the broker supports
+ * sharded rooms. Every delivery must be acked or nacked exactly once, on the
+ * subscriber that delivered it.
+ */
+public interface MessageSubscriber {
+
+    static String roomQueue(String roomId) {
+        return "room." + roomId;
+    }
+
+    static String shardQueue(int shard) {
+        return "shard." + shard;
+    }
+
+    /**
+     * Starts delivering the queue's messages to the handler, on a thread of
+     * the broker's choosing. A queue's messages arrive in order.
+     */
+    void subscribe(String queueName, Consumer<Delivery> handler) throws IOException;
+
+    void ack(Delivery delivery) throws IOException;
+
+    // Requeued messages come back with isRedelivered() set
+    void nack(Delivery delivery, boolean requeue) throws IOException;
+
+    /**
+     * Stops new deliveries and waits up to the timeout for the ones already
+     * handed out to be acked or nacked. Returns how many are still
+     * outstanding; a broker that persists messages redelivers those once
+     * the subscriber closes.
+     */
+    int drain(long timeoutMillis) throws IOException, InterruptedException;
+
+    void close() throws IOException;
+}
@@ -0,0 +1,114 @@
+package com.chatflow.common;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.math.BigDecimal;
+
+/**
+ * Builds a Prometheus text exposition (format 0.0.4) by hand, so the
+ * modules need no client library. Each metric family is declared once with
+ * {@link #family} and followed by its samples; counters and gauges with no
+ * labels can use the one-line {@link #counter} and {@link #gauge}.
+ */
+public final class PrometheusWriter {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final StringBuilder out = new StringBuilder(8192);
+
+    public PrometheusWriter family(String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    // Labels as name, value pairs
+    public PrometheusWriter sample(String name, double value, String... labels) {
+        out.append(name);
+        if (labels.length > 0) {
+            out.append('{');
+            for (int i = 0; i + 1 < labels.length; i += 2) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.append(labels[i]).append("=\"");
+                escape(labels[i + 1]);
+                out.append('"');
+            }
+            out.append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+        return this;
+    }
+
+    public PrometheusWriter counter(String name, String help, double value) {
+        return family(name, "counter", help).sample(name, value);
+    }
+
+    public PrometheusWriter gauge(String name, String help, double value) {
+        return family(name, "gauge", help).sample(name, value);
+    }
+
+    /**
+     * A histogram from per-bucket (not cumulative) counts; the last count is
+     * the overflow bucket above the highest bound. Bounds and sum are in the
+     * unit the name says, normally seconds.
+     */
+    public PrometheusWriter histogram(String name, String help, double[] upperBounds, long[] bucketCounts,
+                                      double sum) {
+        family(name, "histogram", help);
+        long cumulative = 0;
+        for (int i = 0; i < upperBounds.length; i++) {
+            cumulative += bucketCounts[i];
+            sample(name + "_bucket", cumulative, "le", BigDecimal.valueOf(upperBounds[i]).toPlainString());
+        }
+        cumulative += bucketCounts[upperBounds.length];
+        sample(name + "_bucket", cumulative, "le", "+Inf");
+        sample(name + "_sum", sum);
+        return sample(name + "_count", cumulative);
+    }
+
+    // Heap, GC and thread figures of this JVM
+    public PrometheusWriter jvm() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        family("jvm_memory_heap_bytes", "gauge", "Heap memory by area");
+        sample("jvm_memory_heap_bytes", heap.getUsed(), "area", "used");
+        sample("jvm_memory_heap_bytes", heap.getCommitted(), "area", "committed");
+        sample("jvm_memory_heap_bytes", heap.getMax(), "area", "max");
+
+        family("jvm_gc_collections_total", "counter", "Collections per garbage collector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sample("jvm_gc_collections_total", Math.max(0, gc.getCollectionCount()), "gc", gc.getName());
+        }
+        family("jvm_gc_collection_seconds_total", "counter", "Time spent collecting per garbage collector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sample("jvm_gc_collection_seconds_total", Math.max(0, gc.getCollectionTime()) / 1000.0,
+                    "gc", gc.getName());
+        }
+        return gauge("jvm_threads_live", "Live platform threads", ManagementFactory.getThreadMXBean().getThreadCount());
+    }
+
+    private void escape(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+}
@@ -0,0 +1,198 @@
+package com.chatflow.common;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Classifies per-room sequence numbers as they arrive. Servers number each
+ * room's messages 1, 2, 3... independently, so a stream is (serverId, roomId)
+ * and a restarted server, which gets a new serverId, starts a new stream.
+ *
+ * Each stream keeps the highest sequence seen plus a 64-bit bitmap of the
+ * sequences just below it, the same sliding window IPsec uses against
+ * replays. That is a fixed 32 bytes or so per stream instead of one map entry
+ * per message, and it tells apart a gap (messages skipped, maybe lost), a
+ * late arrival filling an earlier gap (reordered) and a duplicate. Anything
+ * older than the window, or older than the first message seen on the stream,
+ * is reported as {@link Result#STALE}.
+ *
+ * A stream that sees nothing for idleMillis is dropped, so restarted servers
+ * do not leave theirs behind for good; if it does come back it starts over as
+ * if joined mid-stream. Idle streams are looked for at most every quarter of
+ * idleMillis, by whichever call to track comes due.
+ */
+public class SequenceTracker {
+    static final int WINDOW = 64;
+    private static final long DEFAULT_IDLE_MILLIS = 10 * 60 * 1000;
+
+    public enum Result {
+        // Next in sequence
+        IN_ORDER,
+        // Newer than expected, the sequences in between have not arrived yet
+        GAP,
+        // Fills an earlier gap
+        LATE,
+        // Already seen
+        DUPLICATE,
+        // Too far behind to tell late from duplicate
+        STALE
+    }
+
+    // serverId -> roomId -> window; two lookups, no key object per message
+    private final Map<String, Map<String, Window>> streams = new ConcurrentHashMap<>();
+    private final long idleMillis;
+    private final AtomicLong nextSweepMillis;
+
+    private final AtomicLong inOrder = new AtomicLong(0);
+    private final AtomicLong gaps = new AtomicLong(0);
+    private final AtomicLong missing = new AtomicLong(0);
+    private final AtomicLong late = new AtomicLong(0);
+    private final AtomicLong duplicates = new AtomicLong(0);
+    private final AtomicLong stale = new AtomicLong(0);
+    private final AtomicLong evicted = new AtomicLong(0);
+
+    public SequenceTracker() {
+        this(DEFAULT_IDLE_MILLIS);
+    }
+
+    public SequenceTracker(long idleMillis) {
+        this.idleMillis = Math.max(1, idleMillis);
+        this.nextSweepMillis = new AtomicLong(System.currentTimeMillis() + sweepInterval());
+    }
+
+    public Result track(String serverId, String roomId, long sequence) {
+        return track(serverId, roomId, sequence, System.currentTimeMillis());
+    }
+
+    public Result track(String serverId, String roomId, long sequence, long nowMillis) {
+        long sweepAt = nextSweepMillis.get();
+        if (nowMillis >= sweepAt && nextSweepMillis.compareAndSet(sweepAt, nowMillis + sweepInterval())) {
+            evictIdle(nowMillis);
+        }
+
+        Map<String, Window> rooms = streams.get(serverId);
+        if (rooms == null) {
+            rooms = streams.computeIfAbsent(serverId, k -> new ConcurrentHashMap<>());
+        }
+        Window window = rooms.get(roomId);
+        if (window == null) {
+            window = rooms.computeIfAbsent(roomId, k -> new Window());
+        }
+
+        Result result;
+        long skipped;
+        synchronized (window) {
+            result = window.accept(sequence);
+            skipped = window.lastSkipped;
+            window.lastSeenMillis = nowMillis;
+        }
+
+        switch (result) {
+            case IN_ORDER: inOrder.incrementAndGet(); break;
+            case GAP: gaps.incrementAndGet(); missing.addAndGet(skipped); break;
+            case LATE: late.incrementAndGet(); missing.decrementAndGet(); break;
+            case DUPLICATE: duplicates.incrementAndGet(); break;
+            default: stale.incrementAndGet(); break;
+        }
+        return result;
+    }
+
+    private long sweepInterval() {
+        return Math.max(1, idleMillis / 4);
+    }
+
+    private void evictIdle(long nowMillis) {
+        long idleBefore = nowMillis - idleMillis;
+        for (Map.Entry<String, Map<String, Window>> server : streams.entrySet()) {
+            Map<String, Window> rooms = server.getValue();
+            for (Map.Entry<String, Window> room : rooms.entrySet()) {
+                if (room.getValue().lastSeenMillis < idleBefore && rooms.remove(room.getKey(), room.getValue())) {
+                    evicted.incrementAndGet();
+                }
+            }
+            if (rooms.isEmpty()) {
+                streams.remove(server.getKey(), rooms);
+            }
+        }
+    }
+
+    public int getStreamCount() {
+        int count = 0;
+        for (Map<String, Window> rooms : streams.values()) {
+            count += rooms.size();
+        }
+        return count;
+    }
+
+    public long getInOrder() { return inOrder.get(); }
+    public long getGaps() { return gaps.get(); }
+    // Skipped sequences that have not turned up late (yet)
+    public long getMissing() { return missing.get(); }
+    public long getLate() { return late.get(); }
+    public long getDuplicates() { return duplicates.get(); }
+    public long getStale() { return stale.get(); }
+    // Streams dropped after idleMillis without a message
+    public long getEvicted() { return evicted.get(); }
+
+    public void writeMetrics(PrometheusWriter metrics) {
+        metrics.gauge("chatflow_sequence_streams", "Tracked (server, room) sequence streams", getStreamCount());
+        metrics.counter("chatflow_sequence_streams_evicted_total", "Streams dropped after going idle",
+                getEvicted());
+        metrics.family("chatflow_sequence_messages_total", "counter", "Sequenced messages by how they arrived");
+        metrics.sample("chatflow_sequence_messages_total", getInOrder(), "arrival", "in_order");
+        metrics.sample("chatflow_sequence_messages_total", getGaps(), "arrival", "gap");
+        metrics.sample("chatflow_sequence_messages_total", getLate(), "arrival", "late");
+        metrics.sample("chatflow_sequence_messages_total", getDuplicates(), "arrival", "duplicate");
+        metrics.sample("chatflow_sequence_messages_total", getStale(), "arrival", "stale");
+        metrics.gauge("chatflow_sequence_missing", "Skipped sequences that have not turned up", getMissing());
+    }
+
+    public void printMetrics() {
+        System.out.println("\n=== Room Sequences ===");
+        System.out.println("Streams: " + getStreamCount() + " (evicted when idle: " + getEvicted() + ")");
+        System.out.println("In Order: " + getInOrder());
+        System.out.println("Gaps: " + getGaps() + " (missing: " + getMissing() + ")");
+        System.out.println("Late (reordered): " + getLate());
+        System.out.println("Duplicates: " + getDuplicates());
+        System.out.println("Stale: " + getStale());
+    }
+
+    // Guarded by its own monitor
+    static final class Window {
+        private long highest; // 0 until the first message
+        private long first;
+        // Bit i set means highest - i has been seen
+        private long seen;
+        long lastSkipped;
+        volatile long lastSeenMillis;
+
+        Result accept(long sequence) {
+            lastSkipped = 0;
+            if (highest == 0) {
+                // Joined mid-stream: earlier sequences are not ours to miss
+                highest = sequence;
+                first = sequence;
+                seen = 1;
+                return Result.IN_ORDER;
+            }
+            if (sequence > highest) {
+                long shift = sequence - highest;
+                seen = shift >= WINDOW ? 1 : (seen << shift) | 1;
+                highest = sequence;
+                lastSkipped = shift - 1;
+                return shift == 1 ? Result.IN_ORDER : Result.GAP;
+            }
+            long offset = highest - sequence;
+            if (offset >= WINDOW || sequence < first) {
+                return Result.STALE;
+            }
+            long bit = 1L << offset;
+            if ((seen & bit) != 0) {
+                return Result.DUPLICATE;
+            }
+            seen |= bit;
+            return Result.LATE;
+        }
+    }
+}
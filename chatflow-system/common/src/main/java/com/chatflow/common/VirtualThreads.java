@@ -0,0 +1,74 @@
+package com.chatflow.common;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads (Java 21) looked up reflectively, so the modules still
+ * build and run on Java 17; the java21 profile (mvn -Pjava21) only moves the
+ * bytecode target. On an older JVM {@link #isSupported()} is false and
+ * callers stay on platform threads.
+ */
+public final class VirtualThreads {
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_FACTORY;
+    private static final Method THREAD_PER_TASK_EXECUTOR;
+    private static final boolean SUPPORTED;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method perTask = null;
+        boolean supported = false;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            // Java 19 and 20 have the methods but throw without --enable-preview
+            ofVirtual.invoke(null);
+            supported = true;
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            // Before Java 21
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_FACTORY = factory;
+        THREAD_PER_TASK_EXECUTOR = perTask;
+        SUPPORTED = supported;
+    }
+
+    private VirtualThreads() {}
+
+    public static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    // Threads named namePrefix0, namePrefix1...
+    public static ThreadFactory factory(String namePrefix) {
+        if (!SUPPORTED) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21, running " + Runtime.version());
+        }
+        try {
+            Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), namePrefix, 0L);
+            return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create a virtual thread factory", e);
+        }
+    }
+
+    // A new virtual thread per task, nothing is pooled
+    public static ExecutorService newExecutor(String namePrefix) {
+        ThreadFactory factory = factory(namePrefix);
+        try {
+            return (ExecutorService) THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create a virtual thread executor", e);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.chatflow.common;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Handshake drafts shared by the ingress and broadcast servers. Both accept
+ * the {@link BinaryCodec#PROTOCOL} subprotocol (JSON otherwise) and can offer
+ * permessage-deflate. Clients that do not ask for compression still connect
+ * and get uncompressed frames.
+ */
+public final class WebSocketDrafts {
+
+    private WebSocketDrafts() {}
+
+    /**
+     * @param compression     offer permessage-deflate to clients that request it
+     * @param threshold       payloads smaller than this many bytes are sent uncompressed
+     * @param contextTakeover keep the deflate window between messages; better ratio,
+     *                        but about 64KB of compressor state per connection
+     */
+    public static List<Draft> serverDrafts(boolean compression, int threshold, boolean contextTakeover) {
+        List<IProtocol> protocols = List.of(new Protocol(BinaryCodec.PROTOCOL), new Protocol(""));
+        List<IExtension> extensions = compression
+                ? List.of(deflate(threshold, contextTakeover))
+                : Collections.emptyList();
+        return List.of(new Draft_6455(extensions, protocols));
+    }
+
+    public static PerMessageDeflateExtension deflate(int threshold, boolean contextTakeover) {
+        PerMessageDeflateExtension extension = new ConfiguredDeflateExtension();
+        extension.setThreshold(threshold);
+        extension.setServerNoContextTakeover(!contextTakeover);
+        extension.setClientNoContextTakeover(!contextTakeover);
+        return extension;
+    }
+
+    // True when the client negotiated the binary subprotocol in its handshake
+    public static boolean isBinary(WebSocket conn) {
+        IProtocol protocol = conn.getProtocol();
+        return protocol != null && BinaryCodec.PROTOCOL.equals(protocol.getProvidedProtocol());
+    }
+
+    // Works around two gaps in the stock extension: copyInstance (called for
+    // every connection) drops the threshold and takeover settings, and
+    // encodeFrame deflates the payload's whole backing array, which is wrong
+    // for pooled buffers such as ResponseEncoder's
+    private static class ConfiguredDeflateExtension extends PerMessageDeflateExtension {
+        @Override
+        public void encodeFrame(Framedata frame) {
+            if (frame instanceof DataFrame) {
+                ByteBuffer payload = frame.getPayloadData();
+                boolean exact = payload.hasArray() && payload.arrayOffset() == 0
+                        && payload.position() == 0 && payload.limit() == payload.array().length;
+                if (!exact) {
+                    byte[] bytes = new byte[payload.remaining()];
+                    payload.duplicate().get(bytes);
+                    ((DataFrame) frame).setPayload(ByteBuffer.wrap(bytes));
+                }
+            }
+            super.encodeFrame(frame);
+        }
+
+        @Override
+        public IExtension copyInstance() {
+            PerMessageDeflateExtension copy = new ConfiguredDeflateExtension();
+            copy.setThreshold(getThreshold());
+            copy.setServerNoContextTakeover(isServerNoContextTakeover());
+            copy.setClientNoContextTakeover(isClientNoContextTakeover());
+            return copy;
+        }
+    }
+}
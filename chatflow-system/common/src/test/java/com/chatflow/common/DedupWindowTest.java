@@ -0,0 +1,100 @@
+package com.chatflow.common;
+
+import junit.framework.TestCase;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Within the window and capacity the answer is exact; IDs are forgotten as
+ * they expire, or oldest first once a stripe's ring is full; and removing an
+ * ID keeps every other ID findable, including in probe chains that wrap
+ * around the end of a table.
+ */
+public class DedupWindowTest extends TestCase {
+    private static final long WINDOW = 1000;
+
+    public void testExactWithinWindow() {
+        DedupWindow dedup = new DedupWindow(1 << 16, WINDOW);
+        Random random = new Random(25);
+        Set<Long> seen = new HashSet<>();
+        while (seen.size() < 10_000) {
+            long id = random.nextLong() & Long.MAX_VALUE;
+            if (id > 0 && seen.add(id)) {
+                assertFalse("first sight of " + id, dedup.checkAndAdd(id, 0));
+            }
+        }
+        for (long id : seen) {
+            assertTrue("repeat of " + id, dedup.checkAndAdd(id, WINDOW));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            long id = random.nextLong() & Long.MAX_VALUE;
+            if (id > 0 && !seen.contains(id) && dedup.checkAndAdd(id, WINDOW)) {
+                falsePositives++;
+            }
+        }
+        assertEquals(0, falsePositives);
+        assertEquals(10_000, dedup.getDuplicates());
+        assertEquals(0, dedup.getEvictedEarly());
+    }
+
+    public void testIdsExpireAfterWindow() {
+        DedupWindow dedup = new DedupWindow(1024, WINDOW);
+        assertFalse(dedup.checkAndAdd(42, 0));
+        assertTrue(dedup.checkAndAdd(42, WINDOW)); // a repeat does not renew it
+        assertFalse(dedup.checkAndAdd(42, WINDOW + 1));
+        assertTrue(dedup.checkAndAdd(42, WINDOW + 2));
+        assertEquals(1, dedup.size());
+        assertEquals(0, dedup.getEvictedEarly());
+    }
+
+    public void testOldestEvictedEarlyWhenFull() {
+        DedupWindow dedup = new DedupWindow(64, WINDOW);
+        int added = 1000;
+        for (long id = 1; id <= added; id++) {
+            assertFalse(dedup.checkAndAdd(id, 0));
+        }
+        assertEquals(64, dedup.size());
+        assertEquals(added - 64, dedup.getEvictedEarly());
+        // The newest ID of every stripe is still held, the very first is long gone
+        assertTrue(dedup.checkAndAdd(added, 0));
+        assertFalse(dedup.checkAndAdd(1, 0));
+    }
+
+    public void testRemovalInsideWrappedProbeChain() {
+        // 16 stripes of 4: each stripe's table has 8 slots
+        DedupWindow dedup = new DedupWindow(64, WINDOW);
+        assertEquals(16 * (4 + 4 + 8) * 8, dedup.getMemoryBytes());
+
+        // All in stripe 0. b and c share the last slot, so c wraps to slot 0
+        // and pushes d and e, whose homes are 0 and 1, along to 1 and 2
+        long b = idFor(7, 1);
+        long c = idFor(7, b + 1);
+        long d = idFor(0, c + 1);
+        long e = idFor(1, d + 1);
+        assertFalse(dedup.checkAndAdd(b, 0));
+        assertFalse(dedup.checkAndAdd(c, 10));
+        assertFalse(dedup.checkAndAdd(d, 10));
+        assertFalse(dedup.checkAndAdd(e, 10));
+
+        // b expires, and c, d and e have to shift back across the wrap to stay reachable
+        assertTrue(dedup.checkAndAdd(c, WINDOW + 5));
+        assertTrue(dedup.checkAndAdd(d, WINDOW + 5));
+        assertTrue(dedup.checkAndAdd(e, WINDOW + 5));
+        assertEquals(3, dedup.size());
+        assertFalse(dedup.checkAndAdd(b, WINDOW + 5));
+        assertEquals(0, dedup.getEvictedEarly());
+    }
+
+    // The first ID from start on that lands in stripe 0 with the given home slot of 8
+    private static long idFor(int slot, long start) {
+        for (long id = start; ; id++) {
+            long hash = DedupWindow.mix(id);
+            if ((hash >>> 60) == 0 && ((int) hash & 7) == slot) {
+                return id;
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.chatflow.common;
+
+import com.chatflow.common.SequenceTracker.Result;
+import junit.framework.TestCase;
+
+/**
+ * How one stream's window classifies arrivals, including shifts at and around
+ * the 64-bit window width, and idle streams being dropped.
+ */
+public class SequenceTrackerTest extends TestCase {
+
+    public void testInOrderAndGap() {
+        SequenceTracker.Window window = new SequenceTracker.Window();
+        assertEquals(Result.IN_ORDER, window.accept(5)); // joined mid-stream
+        assertEquals(Result.IN_ORDER, window.accept(6));
+        assertEquals(Result.GAP, window.accept(9));
+        assertEquals(2, window.lastSkipped);
+        assertEquals(Result.IN_ORDER, window.accept(10));
+        assertEquals(0, window.lastSkipped);
+    }
+
+    public void testLateAndDuplicate() {
+        SequenceTracker.Window window = new SequenceTracker.Window();
+        window.accept(1);
+        window.accept(4);
+        assertEquals(Result.LATE, window.accept(3));
+        assertEquals(Result.LATE, window.accept(2));
+        assertEquals(Result.DUPLICATE, window.accept(2));
+        assertEquals(Result.DUPLICATE, window.accept(4));
+        assertEquals(Result.DUPLICATE, window.accept(1));
+    }
+
+    public void testStale() {
+        SequenceTracker.Window window = new SequenceTracker.Window();
+        window.accept(100);
+        assertEquals(Result.STALE, window.accept(99)); // before the first one seen
+        window.accept(200);
+        assertEquals(Result.STALE, window.accept(200 - SequenceTracker.WINDOW));
+        assertEquals(Result.LATE, window.accept(200 - SequenceTracker.WINDOW + 1));
+    }
+
+    public void testShiftAtWindowWidth() {
+        // 63 keeps the old highest as the window's last bit
+        SequenceTracker.Window window = new SequenceTracker.Window();
+        window.accept(1);
+        window.accept(2);
+        assertEquals(Result.GAP, window.accept(2 + 63));
+        assertEquals(62, window.lastSkipped);
+        assertEquals(Result.DUPLICATE, window.accept(2));
+        assertEquals(Result.LATE, window.accept(3));
+
+        // 64 moves the old highest just out of the window, not back into bit 0
+        window = new SequenceTracker.Window();
+        window.accept(1);
+        window.accept(2);
+        assertEquals(Result.GAP, window.accept(2 + 64));
+        assertEquals(63, window.lastSkipped);
+        assertEquals(Result.STALE, window.accept(2));
+        assertEquals(Result.LATE, window.accept(3));
+        assertEquals(Result.DUPLICATE, window.accept(2 + 64));
+
+        // Far beyond the window: a Java shift by 64 or more would wrap
+        window = new SequenceTracker.Window();
+        window.accept(1);
+        assertEquals(Result.GAP, window.accept(1 + 1000));
+        assertEquals(Result.LATE, window.accept(1000));
+        assertEquals(Result.DUPLICATE, window.accept(1001));
+    }
+
+    public void testIdleStreamsAreEvicted() {
+        SequenceTracker tracker = new SequenceTracker(1000);
+        long start = System.currentTimeMillis();
+        tracker.track("server-1", "1", 1, start);
+        tracker.track("server-2", "1", 1, start + 600);
+        assertEquals(2, tracker.getStreamCount());
+
+        // server-1 has been idle for over a second, server-2 not yet
+        tracker.track("server-2", "1", 2, start + 1200);
+        assertEquals(1, tracker.getStreamCount());
+        assertEquals(1, tracker.getEvicted());
+
+        // A stream that comes back starts over
+        assertEquals(Result.IN_ORDER, tracker.track("server-1", "1", 7, start + 1300));
+        assertEquals(2, tracker.getStreamCount());
+    }
+}
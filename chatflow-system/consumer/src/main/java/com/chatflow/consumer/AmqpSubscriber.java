@@ -0,0 +1,548 @@
+package com.chatflow.consumer;
+
+import com.chatflow.common.ChatLogger;
+import com.chatflow.common.Delivery;
+import com.chatflow.common.MessageSubscriber;
+import com.chatflow.common.PrometheusWriter;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Consumes room or shard queues over up to maxChannels AMQP channels. Each new
+ * queue gets a channel of its own until that many are open; after that queues
+ * join the channel with the fewest, as a room group. The client runs a
+ * channel's deliveries one at a time on the connection's shared executor, so
+ * rooms on different channels are handled in parallel and each room stays in
+ * order. With one channel this is the original single-channel consumer.
+ *
+ * If a failed declare takes a channel down, a new one is opened and the
+ * queues that were already subscribed on it are subscribed again.
+ *
+ * With an ack batch above one, acks are held per channel and sent as a single
+ * cumulative ack (multiple=true) once the batch fills or the pool's timer
+ * finds it older than the ack interval. A nack first sends the acks held
+ * before it. Held acks are sent when draining, and a consumer that dies with
+ * some held has them redelivered, where dedup drops them.
+ *
+ * With adaptive prefetch each channel has a {@link PrefetchController} and a
+ * channel-wide (global) prefetch, which the pool's timer updates from the
+ * channel's handling times, how full its window got and its queues' backlog.
+ * Otherwise every queue gets the fixed prefetch, as before.
+ *
+ * Draining cancels every consumer tag. The broker then stops sending, and
+ * cancel-ok is dispatched after the deliveries already received, so once all
+ * cancel-oks are in and nothing is unacked the prefetch windows are empty.
+ */
+public class AmqpSubscriber implements MessageSubscriber {
+    private static final ChatLogger log = ChatLogger.getLogger(AmqpSubscriber.class);
+    // Set by servers on every non-envelope message, see RoomRoute
+    private static final String ROOM_ID_HEADER = "x-room-id";
+    // Per queue, unless the prefetch is adaptive
+    private static final int PREFETCH = ConsumerConfig.CONSUMER_PREFETCH;
+    private final Connection connection;
+    private final String name;
+    private final int maxChannels;
+    private final int ackBatchSize;
+    private final boolean adaptivePrefetch;
+    private final List<Lane> lanes = new CopyOnWriteArrayList<>();
+    // Delivered to the handler, not yet acked or nacked
+    private final AtomicInteger outstanding = new AtomicInteger(0);
+    private final AtomicInteger activeConsumers = new AtomicInteger(0);
+    private boolean draining; // guarded by this
+
+    public AmqpSubscriber(Connection connection, String name, int maxChannels, int ackBatchSize,
+                          boolean adaptivePrefetch) {
+        this.connection = connection;
+        this.name = name;
+        this.maxChannels = Math.max(1, maxChannels);
+        this.ackBatchSize = Math.max(1, ackBatchSize);
+        this.adaptivePrefetch = adaptivePrefetch;
+    }
+
+    @Override
+    public synchronized void subscribe(String queueName, Consumer<Delivery> handler) throws IOException {
+        if (draining) {
+            throw new IOException("Subscriber is draining");
+        }
+        Lane lane = laneFor(queueName);
+        try {
+            lane.consume(queueName, handler);
+            lane.subscriptions.put(queueName, handler);
+        } catch (IOException | RuntimeException e) {
+            // A failed declare closes the channel along with every subscription on it
+            if (!lane.channel.isOpen()) {
+                lane.reopen();
+            }
+            throw e;
+        }
+    }
+
+    // A channel per queue up to the limit, then the least loaded one
+    private Lane laneFor(String queueName) throws IOException {
+        Lane least = null;
+        for (Lane lane : lanes) {
+            if (lane.subscriptions.containsKey(queueName)) {
+                return lane;
+            }
+            if (least == null || lane.subscriptions.size() < least.subscriptions.size()) {
+                least = lane;
+            }
+        }
+        if (lanes.size() < maxChannels && (least == null || !least.subscriptions.isEmpty())) {
+            Lane lane = new Lane(lanes.size() + 1);
+            lanes.add(lane);
+            return lane;
+        }
+        return least;
+    }
+
+    private static String roomIdHeader(AMQP.BasicProperties properties) {
+        if (properties == null || properties.getHeaders() == null) {
+            return null;
+        }
+        Object roomId = properties.getHeaders().get(ROOM_ID_HEADER);
+        return roomId == null ? null : roomId.toString(); // arrives as a LongString
+    }
+
+    @Override
+    public void ack(Delivery delivery) throws IOException {
+        outstanding.decrementAndGet();
+        ackerOf(delivery).ack(delivery.getDeliveryTag());
+    }
+
+    @Override
+    public void nack(Delivery delivery, boolean requeue) throws IOException {
+        outstanding.decrementAndGet();
+        ackerOf(delivery).nack(delivery.getDeliveryTag(), requeue);
+    }
+
+    // Sends held acks that have waited at least maxAgeMillis; run periodically by the pool
+    public void flushAcks(long maxAgeMillis) {
+        long now = System.currentTimeMillis();
+        for (Lane lane : lanes) {
+            try {
+                lane.acker.flushOlderThan(maxAgeMillis, now);
+            } catch (IOException | RuntimeException e) {
+                // The channel is gone and the broker requeues what it had not seen acked
+                log.debug("{} could not flush acks on channel {}: {}", name, lane.index, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public int drain(long timeoutMillis) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this) {
+            draining = true;
+            for (Lane lane : lanes) {
+                if (lane.channel.isOpen()) {
+                    for (String consumerTag : lane.consumerTags.values()) {
+                        lane.channel.basicCancel(consumerTag);
+                    }
+                }
+            }
+        }
+        while ((activeConsumers.get() > 0 || outstanding.get() > 0) && anyChannelOpen()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        flushAcks(0);
+        return Math.max(0, outstanding.get());
+    }
+
+    /**
+     * Runs each channel's prefetch controller and applies a changed prefetch,
+     * with queue depths as last counted by the pool.
+     */
+    public void adjustPrefetch(QueueDepths queueDepths) {
+        if (!adaptivePrefetch) {
+            return;
+        }
+        for (Lane lane : lanes) {
+            long depth = queueDepths.depth(lane.subscriptions.keySet());
+            int before = lane.controller.getPrefetch();
+            // The peak starts over from what is unacked now
+            int peak = lane.peakUnacked.getAndSet(lane.unacked.get());
+            int after = lane.controller.update(lane.deliveries.sum(), lane.handleNanos.sum(), peak, depth);
+            if (after != before) {
+                try {
+                    lane.applyPrefetch(after);
+                    log.debug("{} channel {} prefetch now {}", name, lane.index, after);
+                } catch (IOException | RuntimeException e) {
+                    log.debug("{} could not set prefetch on channel {}: {}", name, lane.index, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private boolean anyChannelOpen() {
+        for (Lane lane : lanes) {
+            if (lane.channel.isOpen()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Delivered to the handler and not yet acked or nacked
+    public int getOutstanding() {
+        return Math.max(0, outstanding.get());
+    }
+
+    public int getChannelCount() {
+        return lanes.size();
+    }
+
+    // Acked by the handler, not yet sent to the broker
+    public int getPendingAcks() {
+        int pending = 0;
+        for (Lane lane : lanes) {
+            pending += lane.acker.getPendingCount();
+        }
+        return pending;
+    }
+
+    public long getDeliveries() {
+        long total = 0;
+        for (Lane lane : lanes) {
+            total += lane.deliveries.sum();
+        }
+        return total;
+    }
+
+    private static Acker ackerOf(Delivery delivery) {
+        if (!(delivery.getHandle() instanceof Acker)) {
+            throw new IllegalArgumentException("Delivery did not come from an AMQP channel");
+        }
+        return (Acker) delivery.getHandle();
+    }
+
+    // Per channel series for a set of subscribers, each family's samples together
+    public static void writeMetrics(PrometheusWriter metrics, List<AmqpSubscriber> subscribers) {
+        metrics.family("chatflow_consumer_channel_deliveries_total", "counter", "Deliveries per consuming channel");
+        for (AmqpSubscriber subscriber : subscribers) {
+            for (Lane lane : subscriber.lanes) {
+                metrics.sample("chatflow_consumer_channel_deliveries_total", lane.deliveries.sum(),
+                        "consumer", subscriber.name, "channel", String.valueOf(lane.index));
+            }
+        }
+        metrics.family("chatflow_consumer_channel_queues", "gauge", "Queues consumed per channel");
+        for (AmqpSubscriber subscriber : subscribers) {
+            for (Lane lane : subscriber.lanes) {
+                metrics.sample("chatflow_consumer_channel_queues", lane.subscriptions.size(),
+                        "consumer", subscriber.name, "channel", String.valueOf(lane.index));
+            }
+        }
+        metrics.family("chatflow_consumer_channel_handle_seconds_total", "counter",
+                "Time handling deliveries per channel, parse and fan-out included");
+        for (AmqpSubscriber subscriber : subscribers) {
+            for (Lane lane : subscriber.lanes) {
+                metrics.sample("chatflow_consumer_channel_handle_seconds_total", lane.handleNanos.sum() / 1e9,
+                        "consumer", subscriber.name, "channel", String.valueOf(lane.index));
+            }
+        }
+        metrics.family("chatflow_consumer_channel_prefetch", "gauge",
+                "Prefetch per channel, or per queue when not adaptive");
+        for (AmqpSubscriber subscriber : subscribers) {
+            for (Lane lane : subscriber.lanes) {
+                metrics.sample("chatflow_consumer_channel_prefetch", lane.prefetch,
+                        "consumer", subscriber.name, "channel", String.valueOf(lane.index));
+            }
+        }
+        metrics.family("chatflow_consumer_prefetch_decisions_total", "counter",
+                "Adaptive prefetch updates per channel by outcome");
+        for (AmqpSubscriber subscriber : subscribers) {
+            for (Lane lane : subscriber.lanes) {
+                if (lane.controller == null) {
+                    continue;
+                }
+                String channel = String.valueOf(lane.index);
+                metrics.sample("chatflow_consumer_prefetch_decisions_total", lane.controller.getIncreases(),
+                        "consumer", subscriber.name, "channel", channel, "decision", "increase");
+                metrics.sample("chatflow_consumer_prefetch_decisions_total", lane.controller.getDecreases(),
+                        "consumer", subscriber.name, "channel", channel, "decision", "decrease");
+                metrics.sample("chatflow_consumer_prefetch_decisions_total", lane.controller.getHolds(),
+                        "consumer", subscriber.name, "channel", channel, "decision", "hold");
+            }
+        }
+        metrics.family("chatflow_consumer_acked_total", "counter", "Deliveries acked to the broker");
+        for (AmqpSubscriber subscriber : subscribers) {
+            metrics.sample("chatflow_consumer_acked_total", subscriber.sum(lane -> lane.acked),
+                    "consumer", subscriber.name);
+        }
+        metrics.family("chatflow_consumer_ack_frames_total", "counter",
+                "basic.ack frames sent, one per cumulative batch");
+        for (AmqpSubscriber subscriber : subscribers) {
+            metrics.sample("chatflow_consumer_ack_frames_total", subscriber.sum(lane -> lane.ackFrames),
+                    "consumer", subscriber.name);
+        }
+        metrics.family("chatflow_consumer_pending_acks", "gauge", "Acks held for the next cumulative ack");
+        for (AmqpSubscriber subscriber : subscribers) {
+            metrics.sample("chatflow_consumer_pending_acks", subscriber.getPendingAcks(), "consumer", subscriber.name);
+        }
+    }
+
+    private long sum(Function<Lane, LongAdder> counter) {
+        long total = 0;
+        for (Lane lane : lanes) {
+            total += counter.apply(lane).sum();
+        }
+        return total;
+    }
+
+    // Throughput per channel since the previous call; called from one reporting thread
+    public void printMetrics() {
+        System.out.println("\n=== " + name + " Channels ===");
+        long now = System.nanoTime();
+        for (Lane lane : lanes) {
+            long deliveries = lane.deliveries.sum();
+            double seconds = (now - lane.reportedAtNanos) / 1e9;
+            double rate = seconds > 0 ? (deliveries - lane.reportedDeliveries) / seconds : 0;
+            lane.reportedDeliveries = deliveries;
+            lane.reportedAtNanos = now;
+            String prefetch = lane.controller == null ? String.valueOf(lane.prefetch)
+                    : lane.prefetch + " (" + lane.controller.getLastDecision().name().toLowerCase()
+                    + ", " + lane.controller.getAverageHandleNanos() / 1000 + " us/msg)";
+            System.out.printf("  channel %d: %d queues, %d deliveries, %.1f msg/s, %d acked in %d frames, prefetch %s%s%n",
+                    lane.index, lane.subscriptions.size(), deliveries, rate, lane.acked.sum(), lane.ackFrames.sum(),
+                    prefetch, lane.channel.isOpen() ? "" : " (closed)");
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flushAcks(0);
+        IOException failure = null;
+        for (Lane lane : lanes) {
+            try {
+                if (lane.channel.isOpen()) {
+                    lane.channel.close();
+                }
+            } catch (TimeoutException e) {
+                failure = new IOException("Timed out closing channel", e);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * One channel and the queues consumed on it. Mutated under the
+     * subscriber's lock; deliveries only touch the counters.
+     */
+    private final class Lane {
+        final int index;
+        final Map<String, Consumer<Delivery>> subscriptions = new ConcurrentHashMap<>();
+        // queue -> consumer tag on the current channel
+        final Map<String, String> consumerTags = new ConcurrentHashMap<>();
+        final LongAdder deliveries = new LongAdder();
+        final LongAdder acked = new LongAdder();
+        final LongAdder ackFrames = new LongAdder();
+        // Time in the handler, parse and fan-out included
+        final LongAdder handleNanos = new LongAdder();
+        // Delivered on the current channel and not yet acked to the broker, held acks included
+        final AtomicInteger unacked = new AtomicInteger(0);
+        final AtomicInteger peakUnacked = new AtomicInteger(0);
+        final PrefetchController controller; // null unless adaptive
+        volatile int prefetch;
+        volatile Channel channel;
+        volatile Acker acker;
+        long reportedDeliveries;
+        long reportedAtNanos = System.nanoTime();
+
+        Lane(int index) throws IOException {
+            this.index = index;
+            this.controller = adaptivePrefetch ? PrefetchController.fromConfig() : null;
+            this.prefetch = adaptivePrefetch ? controller.getPrefetch() : PREFETCH;
+            open();
+        }
+
+        private void open() throws IOException {
+            Channel opened = connection.createChannel();
+            if (adaptivePrefetch) {
+                // Global: one window for the whole channel, and a change applies to running consumers
+                opened.basicQos(prefetch, true);
+            } else {
+                opened.basicQos(prefetch);
+            }
+            unacked.set(0);
+            this.acker = new Acker(this, opened);
+            this.channel = opened;
+        }
+
+        void applyPrefetch(int newPrefetch) throws IOException {
+            channel.basicQos(newPrefetch, true);
+            prefetch = newPrefetch;
+        }
+
+        // Held acks count against the window, so a batch must leave room for more deliveries
+        int ackBatchLimit() {
+            return Math.max(1, Math.min(ackBatchSize, prefetch / 2));
+        }
+
+        void reopen() throws IOException {
+            activeConsumers.addAndGet(-consumerTags.size());
+            consumerTags.clear();
+            open();
+            for (Map.Entry<String, Consumer<Delivery>> subscription : subscriptions.entrySet()) {
+                consume(subscription.getKey(), subscription.getValue());
+            }
+            log.warn("{} reopened channel {} for {} queues", name, index, subscriptions.size());
+        }
+
+        void consume(String queueName, Consumer<Delivery> handler) throws IOException {
+            // Acks go to the channel that delivered the message, which may since have been replaced
+            Acker channelAcker = acker;
+            // Same arguments as the server's declaration, so whoever is first wins
+            channel.queueDeclare(queueName, true, false, false, null);
+            channel.queueBind(queueName, RoomDiscovery.EXCHANGE_NAME, queueName);
+
+            String consumerTag = channel.basicConsume(queueName, false, new DefaultConsumer(channel) { // false = manual ack
+                @Override
+                public void handleDelivery(String consumerTag, Envelope envelope,
+                                           AMQP.BasicProperties properties, byte[] body) {
+                    outstanding.incrementAndGet();
+                    deliveries.increment();
+                    int inWindow = unacked.incrementAndGet();
+                    if (inWindow > peakUnacked.get()) {
+                        peakUnacked.accumulateAndGet(inWindow, Math::max);
+                    }
+                    long start = System.nanoTime();
+                    handler.accept(new Delivery(body, roomIdHeader(properties), BatchEnvelope.isBatch(properties),
+                            envelope.isRedeliver(), envelope.getDeliveryTag(), channelAcker));
+                    handleNanos.add(System.nanoTime() - start);
+                }
+
+                @Override
+                public void handleCancelOk(String consumerTag) {
+                    activeConsumers.decrementAndGet();
+                }
+            });
+            consumerTags.put(queueName, consumerTag);
+            activeConsumers.incrementAndGet();
+        }
+    }
+
+    /**
+     * Settles one channel's deliveries. Delivery tags count up by one per
+     * channel, and a channel's deliveries are handled one at a time, so the
+     * handler normally settles them in tag order. Acks are then held until
+     * the batch fills and sent as one ack with multiple=true. An ack that
+     * arrives out of order is sent on its own, since a cumulative ack past it
+     * could settle a delivery that is still being handled; once the gap below
+     * it is settled, batching resumes after it.
+     */
+    private final class Acker {
+        private final Lane lane;
+        private final Channel channel;
+        private long settledTag; // every tag up to this one is acked or nacked
+        // Acked or nacked on their own above settledTag, waiting for the gap below to close
+        private final Set<Long> settledAbove = new HashSet<>();
+        private long pendingTag; // highest held ack
+        private int pendingCount;
+        private long pendingSinceMillis;
+
+        Acker(Lane lane, Channel channel) {
+            this.lane = lane;
+            this.channel = channel;
+        }
+
+        synchronized void ack(long deliveryTag) throws IOException {
+            if (ackBatchSize == 1) {
+                channel.basicAck(deliveryTag, false);
+                sent(1);
+                return;
+            }
+            if (deliveryTag != settledTag + 1) {
+                channel.basicAck(deliveryTag, false);
+                sent(1);
+                settled(deliveryTag);
+                return;
+            }
+            settled(deliveryTag);
+            if (pendingCount == 0) {
+                pendingSinceMillis = System.currentTimeMillis();
+            }
+            pendingTag = deliveryTag;
+            pendingCount++;
+            if (pendingCount >= lane.ackBatchLimit()) {
+                flush();
+            }
+        }
+
+        synchronized void nack(long deliveryTag, boolean requeue) throws IOException {
+            // Held acks are all below this tag, send them first so the nack stays single
+            flush();
+            channel.basicNack(deliveryTag, false, requeue);
+            if (lane.acker == this) {
+                lane.unacked.decrementAndGet();
+            }
+            if (ackBatchSize > 1) {
+                settled(deliveryTag);
+            }
+        }
+
+        // Moves settledTag past this tag and any settled on their own just above it
+        private void settled(long deliveryTag) {
+            if (deliveryTag != settledTag + 1) {
+                if (deliveryTag > settledTag) {
+                    settledAbove.add(deliveryTag);
+                }
+                return;
+            }
+            settledTag = deliveryTag;
+            while (!settledAbove.isEmpty() && settledAbove.remove(settledTag + 1)) {
+                settledTag++;
+            }
+        }
+
+        synchronized void flushOlderThan(long maxAgeMillis, long now) throws IOException {
+            if (pendingCount > 0 && now - pendingSinceMillis >= maxAgeMillis) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            if (pendingCount == 0) {
+                return;
+            }
+            int count = pendingCount;
+            // Cleared first: if the send fails the channel is gone and the broker requeues them
+            pendingCount = 0;
+            channel.basicAck(pendingTag, true);
+            sent(count);
+        }
+
+        private void sent(int count) {
+            lane.acked.add(count);
+            lane.ackFrames.increment();
+            if (lane.acker == this) {
+                lane.unacked.addAndGet(-count);
+            }
+        }
+
+        synchronized int getPendingCount() {
+            return pendingCount;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.chatflow.consumer;
+
+import com.rabbitmq.client.AMQP;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reader for the batch envelope published by server-v2 in batching mode:
+ * a 4-byte message count followed by each message as a 4-byte length and
+ * its JSON bytes.
+ */
+public final class BatchEnvelope {
+    public static final String CONTENT_TYPE = "application/vnd.chatflow.batch";
+
+    private BatchEnvelope() {}
+
+    public static boolean isBatch(AMQP.BasicProperties properties) {
+        return properties != null && CONTENT_TYPE.equals(properties.getContentType());
+    }
+
+    public static List<byte[]> decode(byte[] body) {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        int count = buffer.getInt();
+        if (count < 0 || count > body.length / 4) {
+            throw new IllegalArgumentException("Corrupt batch envelope, count=" + count);
+        }
+
+        List<byte[]> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IllegalArgumentException("Corrupt batch envelope, length=" + length);
+            }
+            byte[] message = new byte[length];
+            buffer.get(message);
+            messages.add(message);
+        }
+        return messages;
+    }
+}
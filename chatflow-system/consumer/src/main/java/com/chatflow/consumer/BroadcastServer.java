@@ -1,20 +1,33 @@
 package com.chatflow.consumer;
 
+import com.chatflow.common.BinaryCodec;
+import com.chatflow.common.ChatLogger;
+import com.chatflow.common.WebSocketDrafts;
+
 import org.java_websocket.WebSocket;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
 import java.net.InetSocketAddress;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.ByteBuffer;
 
 public class BroadcastServer extends WebSocketServer {
-    private Map<WebSocket, String> connectionRooms = new ConcurrentHashMap<>();
+    private static final ChatLogger log = ChatLogger.getLogger(BroadcastServer.class);
+    // Per-message events, sampled so they cannot dominate CPU under load
+    private static final ChatLogger perMessageLog = log.sampled();
+    private static final String READ_ONLY_ERROR =
+            "This server is for receiving messages only. Use the main server to send messages.";
     private RoomManager roomManager;
 
     public BroadcastServer(int port, RoomManager roomManager) {
-        super(new InetSocketAddress(port));
+        // Clients asking for the binary subprotocol get binary broadcasts, everyone else JSON
+        super(new InetSocketAddress(port), WebSocketDrafts.serverDrafts(ConsumerConfig.WS_COMPRESSION,
+                ConsumerConfig.WS_COMPRESSION_THRESHOLD, ConsumerConfig.WS_CONTEXT_TAKEOVER));
         this.roomManager = roomManager;
-        System.out.println("BroadcastServer created on port " + port);
+        log.info("BroadcastServer created on port {}", port);
+        if (ConsumerConfig.WS_COMPRESSION) {
+            log.info("permessage-deflate enabled: threshold={} bytes, contextTakeover={}",
+                    ConsumerConfig.WS_COMPRESSION_THRESHOLD, ConsumerConfig.WS_CONTEXT_TAKEOVER);
+        }
     }
 
     @Override
@@ -23,7 +36,9 @@ public class BroadcastServer extends WebSocketServer {
         String roomId = extractRoomId(uri);
 
         if (roomId != null) {
-            connectionRooms.put(conn, roomId);
+            ConnectionContext context = new ConnectionContext(roomId,
+                    conn.getRemoteSocketAddress().getAddress().getHostAddress(), WebSocketDrafts.isBinary(conn));
+            conn.setAttachment(context);
 
             // Add user to room manager
             String userId = "broadcast-user-" + System.currentTimeMillis();
@@ -31,10 +46,9 @@ public class BroadcastServer extends WebSocketServer {
 
             roomManager.addUserToRoom(roomId, conn, userId, username);
 
-            System.out.println("Broadcast client connected to room: " + roomId +
-                    " from " + conn.getRemoteSocketAddress());
+            log.info("Broadcast client connected to room: {} from {}", roomId, context.getClientIp());
         } else {
-            System.out.println("Client connected without valid room");
+            log.warn("Client connected without valid room");
             conn.close(1008, "Invalid room path");
         }
     }
@@ -43,31 +57,43 @@ public class BroadcastServer extends WebSocketServer {
     public void onMessage(WebSocket conn, String message) {
         // Clients connected to broadcast server are read-only
         // They should only receive messages, not send them
-        System.out.println("Received unexpected message from broadcast client: " + message);
+        perMessageLog.warn("Received unexpected message from broadcast client: {}", message);
+
+        sendReadOnlyError(conn);
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        perMessageLog.warn("Received unexpected binary message from broadcast client: {} bytes", message.remaining());
+        sendReadOnlyError(conn);
+    }
 
-        String errorResponse = "{\"status\":\"ERROR\",\"message\":\"This server is for receiving messages only. Use the main server to send messages.\"}";
-        conn.send(errorResponse);
+    private void sendReadOnlyError(WebSocket conn) {
+        ConnectionContext context = conn.getAttachment();
+        if (context != null ? context.isBinary() : WebSocketDrafts.isBinary(conn)) {
+            conn.send(BinaryCodec.encodeError(READ_ONLY_ERROR, System.currentTimeMillis()));
+        } else {
+            conn.send("{\"status\":\"ERROR\",\"message\":\"" + READ_ONLY_ERROR + "\"}");
+        }
     }
 
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-        String roomId = connectionRooms.remove(conn);
-        if (roomId != null) {
-            roomManager.removeUserFromRoom(roomId, conn);
-            System.out.println("Broadcast client disconnected from room: " + roomId +
-                    ": " + conn.getRemoteSocketAddress());
+        ConnectionContext context = conn.getAttachment();
+        if (context != null) {
+            roomManager.removeUserFromRoom(context.getRoomId(), conn);
+            log.info("Broadcast client disconnected, {}", context);
         }
     }
 
     @Override
     public void onError(WebSocket conn, Exception ex) {
-        System.out.println("BroadcastServer error: " + ex.getMessage());
-        ex.printStackTrace();
+        log.error("BroadcastServer error: " + ex.getMessage(), ex);
     }
 
     @Override
     public void onStart() {
-        System.out.println("BroadcastServer started successfully!");
+        log.info("BroadcastServer started successfully!");
     }
 
     private String extractRoomId(String uri) {
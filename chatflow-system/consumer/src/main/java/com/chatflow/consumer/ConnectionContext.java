@@ -0,0 +1,39 @@
+package com.chatflow.consumer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A broadcast client's room and wire format, worked out once in onOpen and
+ * kept as the WebSocket's attachment, so fanning a message out to a room
+ * needs no subprotocol check per session. The counters are written by
+ * whichever consumer thread broadcasts to the room.
+ */
+public final class ConnectionContext {
+    private final String roomId;
+    private final String clientIp;
+    private final boolean binary;
+
+    private final AtomicLong sent = new AtomicLong(0);
+    private final AtomicLong sendFailures = new AtomicLong(0);
+
+    ConnectionContext(String roomId, String clientIp, boolean binary) {
+        this.roomId = roomId;
+        this.clientIp = clientIp;
+        this.binary = binary;
+    }
+
+    public String getRoomId() { return roomId; }
+    public String getClientIp() { return clientIp; }
+    public boolean isBinary() { return binary; }
+
+    void recordSent() { sent.incrementAndGet(); }
+    void recordSendFailure() { sendFailures.incrementAndGet(); }
+
+    public long getSent() { return sent.get(); }
+    public long getSendFailures() { return sendFailures.get(); }
+
+    @Override
+    public String toString() {
+        return "room " + roomId + " from " + clientIp + ": sent=" + getSent() + ", failed=" + getSendFailures();
+    }
+}
@@ -0,0 +1,53 @@
+package com.chatflow.consumer;
+
+import com.chatflow.common.AdminHttpServer;
+import com.chatflow.common.ChatLogger;
+import com.chatflow.common.PrometheusWriter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The consumer's counterpart of the server's HealthCheckServer: /health,
+ * /ready (503 when the broker link is down, the pool is shutting down or
+ * the queues back up), Prometheus /metrics and /loglevel.
+ */
+public class ConsumerAdminServer {
+    private static final ChatLogger log = ChatLogger.getLogger(ConsumerAdminServer.class);
+
+    private final AdminHttpServer server;
+
+    public ConsumerAdminServer(int port, ConsumerPool pool) throws IOException {
+        server = new AdminHttpServer(port, "consumer-admin");
+        server.route("/health", () -> AdminHttpServer.Response.json(200,
+                "{\"status\":\"OK\",\"service\":\"ChatFlow Consumer\"}"));
+        server.route("/ready", () -> ready(pool));
+        server.route("/metrics", () -> {
+            PrometheusWriter metrics = new PrometheusWriter();
+            pool.writeMetrics(metrics);
+            return AdminHttpServer.Response.metrics(metrics);
+        });
+        server.routeLogLevels();
+    }
+
+    public void start() {
+        server.start();
+        log.info("Consumer admin server started on port {}", server.getPort());
+    }
+
+    public void stop() {
+        server.stop();
+    }
+
+    private static AdminHttpServer.Response ready(ConsumerPool pool) {
+        long backlog = pool.getQueueBacklog();
+        List<String> reasons = pool.notReadyReasons(backlog);
+        StringBuilder response = new StringBuilder("{\"ready\":").append(reasons.isEmpty()).append(",\"reasons\":[");
+        for (int i = 0; i < reasons.size(); i++) {
+            response.append(i == 0 ? "\"" : ",\"").append(reasons.get(i)).append('"');
+        }
+        response.append("],\"backlog\":").append(backlog)
+                .append(",\"maxBacklog\":").append(ConsumerConfig.READY_MAX_BACKLOG).append('}');
+        return AdminHttpServer.Response.json(reasons.isEmpty() ? 200 : 503, response.toString());
+    }
+}
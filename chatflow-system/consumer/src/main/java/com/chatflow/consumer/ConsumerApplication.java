@@ -1,5 +1,8 @@
 package com.chatflow.consumer;
 
+import com.chatflow.common.ChatLogger;
+import com.chatflow.common.LogLevel;
+
 import java.util.Scanner;
 
 public class ConsumerApplication {
@@ -35,6 +38,8 @@ public class ConsumerApplication {
                 if (consumerPool != null) {
                     consumerPool.shutdown();
                 }
+                // Last, so everything logged while draining is written
+                ChatLogger.shutdown(2000);
             }));
 
             // Start consuming messages
@@ -76,6 +81,16 @@ public class ConsumerApplication {
                     printHelp();
                     break;
 
+                case "loglevel error":
+                case "loglevel warn":
+                case "loglevel info":
+                case "loglevel debug":
+                case "loglevel trace":
+                    LogLevel level = LogLevel.fromString(command.substring("loglevel ".length()), LogLevel.INFO);
+                    ChatLogger.setLevel(level);
+                    System.out.println("Log level set to " + level);
+                    break;
+
                 case "quit":
                 case "exit":
                     System.out.println("Shutting down...");
@@ -98,8 +113,10 @@ public class ConsumerApplication {
         System.out.println("Messages failed: " + metrics.getMessagesFailed());
         System.out.println("Duplicates filtered: " + metrics.getDuplicatesFiltered());
 
+        System.out.println("Known rooms: " + consumerPool.getKnownRoomCount());
         System.out.println("Active rooms: " + consumerPool.getRoomManager().getActiveRooms());
         System.out.println("Total sessions: " + consumerPool.getRoomManager().getTotalSessions());
+        System.out.println("Log lines dropped: " + ChatLogger.getDroppedCount());
     }
 
     private static void printDetailedMetrics() {
@@ -113,6 +130,7 @@ public class ConsumerApplication {
         System.out.println("status  - Show basic consumer statistics");
         System.out.println("metrics - Show detailed metrics and room stats");
         System.out.println("rooms   - Show room manager statistics");
+        System.out.println("loglevel <error|warn|info|debug|trace> - Change log level");
         System.out.println("help    - Show this help message");
         System.out.println("quit    - Shutdown consumer application");
     }
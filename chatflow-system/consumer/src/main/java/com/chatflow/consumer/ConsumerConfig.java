@@ -0,0 +1,134 @@
+package com.chatflow.consumer;
+
+import com.chatflow.common.ChatLogger;
+import com.chatflow.common.VirtualThreads;
+
+/**
+ * Runtime switches for the consumer. Every value comes from an environment
+ * variable (same as the RabbitMQ settings). Most defaults leave their feature
+ * off, but these change what an unconfigured consumer does:
+ *
+ * - DEDUP_CAPACITY, DEDUP_WINDOW_MS: message IDs are remembered for a minute
+ *   in a fixed-size window, instead of in a map cleared at 10,000 entries
+ * - DISPATCH_THREADS: deliveries run on one thread per core, where the
+ *   RabbitMQ client's own pool has two
+ * - ADMIN_PORT: health, readiness and metrics are served on 8083
+ */
+public final class ConsumerConfig {
+    private static final ChatLogger log = ChatLogger.getLogger(ConsumerConfig.class);
+
+    // permessage-deflate on the broadcast server, for clients that offer it
+    public static final boolean WS_COMPRESSION = envBoolean("CHATFLOW_WS_COMPRESSION", false);
+    // Payloads below this many bytes go out uncompressed
+    public static final int WS_COMPRESSION_THRESHOLD = envInt("CHATFLOW_WS_COMPRESSION_THRESHOLD", 256);
+    // Keep the deflate window between messages (better ratio, more memory per connection)
+    public static final boolean WS_CONTEXT_TAKEOVER = envBoolean("CHATFLOW_WS_CONTEXT_TAKEOVER", true);
+
+    // Rooms 1..N consumed from startup, as before; any other room is
+    // picked up when a server announces it
+    public static final int BOOTSTRAP_ROOMS = envInt("CHATFLOW_BOOTSTRAP_ROOMS", 20);
+
+    // Must match the servers: consume this many shard queues instead of
+    // one queue per room, 0 keeps per-room queues
+    public static final int ROOM_SHARDS = envInt("CHATFLOW_ROOM_SHARDS", 0);
+
+    // Message IDs remembered for dedup: those of the last DEDUP_WINDOW_MS, at
+    // most DEDUP_CAPACITY of them (32 to 48 bytes each, allocated up front).
+    // Redeliveries arrive within seconds; size the capacity for rate * window
+    public static final int DEDUP_CAPACITY = envInt("CHATFLOW_DEDUP_CAPACITY", 262_144);
+    public static final long DEDUP_WINDOW_MS = envLong("CHATFLOW_DEDUP_WINDOW_MS", 60_000);
+
+    // Channels each consumer spreads its queues over: a channel per queue
+    // until this many are open, then queues share them as room groups.
+    // 1 keeps all of a consumer's rooms on one channel
+    public static final int CHANNELS_PER_CONSUMER = envInt("CHATFLOW_CONSUMER_CHANNELS", 1);
+    // Threads running AMQP deliveries for every channel of the connection. A
+    // channel's deliveries run one at a time, so threads beyond the channel
+    // count stay idle
+    public static final int DISPATCH_THREADS = envInt("CHATFLOW_CONSUMER_DISPATCH_THREADS",
+            Runtime.getRuntime().availableProcessors());
+
+    // Unacked deliveries the broker sends ahead, per queue (the original 25)
+    public static final int CONSUMER_PREFETCH = envInt("CHATFLOW_CONSUMER_PREFETCH", 25);
+    // Let each channel's prefetch follow its load instead, starting from
+    // CONSUMER_PREFETCH: halved when the prefetched messages would wait longer
+    // than PREFETCH_TARGET_MS to be handled, grown by PREFETCH_STEP while the
+    // window fills up and the queues have a backlog. See PrefetchController
+    public static final boolean PREFETCH_ADAPTIVE = envBoolean("CHATFLOW_PREFETCH_ADAPTIVE", false);
+    public static final int PREFETCH_MIN = envInt("CHATFLOW_PREFETCH_MIN", 2);
+    public static final int PREFETCH_MAX = envInt("CHATFLOW_PREFETCH_MAX", 500);
+    public static final int PREFETCH_STEP = envInt("CHATFLOW_PREFETCH_STEP", 5);
+    public static final long PREFETCH_TARGET_MS = envLong("CHATFLOW_PREFETCH_TARGET_MS", 200);
+    public static final long PREFETCH_INTERVAL_MS = envLong("CHATFLOW_PREFETCH_INTERVAL_MS", 1000);
+
+    // Ack deliveries with one cumulative ack per channel every this many
+    // messages or ACK_INTERVAL_MS, whichever comes first; 1 acks each message
+    // on its own. Capped at half the prefetch so held acks never stall a channel
+    public static final int ACK_BATCH_SIZE = envInt("CHATFLOW_CONSUMER_ACK_BATCH", 1);
+    public static final long ACK_INTERVAL_MS = envLong("CHATFLOW_CONSUMER_ACK_INTERVAL_MS", 50);
+
+    // AMQP delivery dispatch on virtual threads instead of DISPATCH_THREADS
+    // (Java 21); ignored with a warning on older JVMs
+    public static final boolean VIRTUAL_THREADS = envVirtualThreads("CHATFLOW_VIRTUAL_THREADS");
+
+    // Health, readiness and Prometheus metrics
+    public static final int ADMIN_PORT = envInt("CHATFLOW_CONSUMER_ADMIN_PORT", 8083);
+    // /ready turns 503 once the consumed queues hold more than this many messages
+    public static final int READY_MAX_BACKLOG = envInt("CHATFLOW_READY_MAX_BACKLOG", 10000);
+    // Queue depths (backlog for /ready and /metrics, and adaptive prefetch) are
+    // counted in the background this often, with a passive declare for at most
+    // DEPTH_PROBES_PER_UPDATE queues each time; with more queues, each count
+    // is refreshed every few updates
+    public static final long DEPTH_INTERVAL_MS = envLong("CHATFLOW_DEPTH_INTERVAL_MS", 1000);
+    public static final int DEPTH_PROBES_PER_UPDATE = envInt("CHATFLOW_DEPTH_PROBES_PER_UPDATE", 50);
+
+    // On shutdown, how long to let consumers finish prefetched messages
+    public static final long DRAIN_TIMEOUT_MILLIS = envLong("CHATFLOW_DRAIN_TIMEOUT_MS", 10000);
+
+    private ConsumerConfig() {}
+
+    static int envInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value for {}: {}, using default: {}", name, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static long envLong(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value for {}: {}, using default: {}", name, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static boolean envBoolean(String name, boolean defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    static boolean envVirtualThreads(String name) {
+        if (!envBoolean(name, false)) {
+            return false;
+        }
+        if (!VirtualThreads.isSupported()) {
+            log.warn("{} needs Java 21, running {}; using platform threads", name, Runtime.version());
+            return false;
+        }
+        return true;
+    }
+}
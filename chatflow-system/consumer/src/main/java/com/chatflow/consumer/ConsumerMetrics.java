@@ -1,5 +1,7 @@
 package com.chatflow.consumer;
 
+import com.chatflow.common.PrometheusWriter;
+
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -8,6 +10,8 @@ public class ConsumerMetrics {
     private AtomicLong messagesDelivered = new AtomicLong(0);
     private AtomicLong messagesFailed = new AtomicLong(0);
     private AtomicLong duplicatesFiltered = new AtomicLong(0);
+    // Deliveries the broker flagged as seen before, e.g. after another consumer shut down
+    private AtomicLong redelivered = new AtomicLong(0);
 
     private ConcurrentHashMap<String, AtomicLong> messagesPerRoom = new ConcurrentHashMap<>();
     private ConcurrentHashMap<String, AtomicLong> messagesPerConsumer = new ConcurrentHashMap<>();
@@ -28,6 +32,10 @@ public class ConsumerMetrics {
         duplicatesFiltered.incrementAndGet();
     }
 
+    public void incrementRedelivered() {
+        redelivered.incrementAndGet();
+    }
+
     public void incrementRoomMessages(String roomId) {
         messagesPerRoom.computeIfAbsent(roomId, k -> new AtomicLong(0)).incrementAndGet();
     }
@@ -41,6 +49,24 @@ public class ConsumerMetrics {
     public long getMessagesDelivered() { return messagesDelivered.get(); }
     public long getMessagesFailed() { return messagesFailed.get(); }
     public long getDuplicatesFiltered() { return duplicatesFiltered.get(); }
+    public long getRedelivered() { return redelivered.get(); }
+
+    public void writeMetrics(PrometheusWriter metrics) {
+        metrics.counter("chatflow_consumer_processed_total", "Room messages taken off the queues", getMessagesProcessed());
+        metrics.counter("chatflow_consumer_delivered_total", "Broadcasts that reached at least one session",
+                getMessagesDelivered());
+        metrics.counter("chatflow_consumer_failed_total", "Deliveries nacked or broadcasts that failed", getMessagesFailed());
+        metrics.counter("chatflow_consumer_duplicates_total", "Already seen messages not broadcast again",
+                getDuplicatesFiltered());
+        metrics.counter("chatflow_consumer_redelivered_total", "Deliveries the broker flagged as redelivered",
+                getRedelivered());
+        metrics.family("chatflow_consumer_room_messages_total", "counter", "Broadcasts per room");
+        messagesPerRoom.forEach((room, count) ->
+                metrics.sample("chatflow_consumer_room_messages_total", count.get(), "room", room));
+        metrics.family("chatflow_consumer_messages_total", "counter", "Room messages per consumer");
+        messagesPerConsumer.forEach((consumer, count) ->
+                metrics.sample("chatflow_consumer_messages_total", count.get(), "consumer", consumer));
+    }
 
     public void printMetrics() {
         System.out.println("\n=== Consumer Metrics ===");
@@ -48,6 +74,7 @@ public class ConsumerMetrics {
         System.out.println("Messages Delivered: " + getMessagesDelivered());
         System.out.println("Messages Failed: " + getMessagesFailed());
         System.out.println("Duplicates Filtered: " + getDuplicatesFiltered());
+        System.out.println("Redelivered: " + getRedelivered());
 
         System.out.println("\nMessages per Room:");
         messagesPerRoom.forEach((room, count) ->
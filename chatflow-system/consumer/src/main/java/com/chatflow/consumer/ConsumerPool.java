@@ -1,41 +1,91 @@
 package com.chatflow.consumer;
 
+import com.chatflow.common.ChatLogger;
+import com.chatflow.common.InMemoryBroker;
+import com.chatflow.common.MessageSubscriber;
+import com.chatflow.common.PrometheusWriter;
+import com.chatflow.common.VirtualThreads;
+
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ConsumerPool {
+    private static final ChatLogger log = ChatLogger.getLogger(ConsumerPool.class);
     private static final String RABBITMQ_HOST = System.getenv("RABBITMQ_HOST"); // Update with your IP
     private static final int RABBITMQ_PORT = 5672;
     private static final String USERNAME = System.getenv("RABBITMQ_USER");
     private static final String PASSWORD = System.getenv("RABBITMQ_PASSWORD");
     private static final int BROADCAST_PORT = 8082; // New port for broadcast server
 
-    private Connection connection;
+    private Connection connection; // null with an in-memory broker
+    private InMemoryBroker memoryBroker; // null with RabbitMQ
+    private List<AmqpSubscriber> amqpSubscribers = new ArrayList<>();
     private List<MessageConsumer> consumers;
-    private ExecutorService executorService;
+    // Declares and subscribes queues for every consumer, one at a time
+    private ExecutorService subscriptionExecutor;
+    // Runs AMQP deliveries for all channels, null with an in-memory broker
+    private ExecutorService deliveryExecutor;
+    // Counts queue depths, flushes held acks and adjusts prefetch; null with an in-memory broker
+    private ScheduledExecutorService channelTimer;
+    // Counted on the channel timer, null with an in-memory broker
+    private QueueDepths queueDepths;
     private RoomManager roomManager;
     private ConsumerMetrics metrics;
     private BroadcastServer broadcastServer; // Add this
+    private ConsumerAdminServer adminServer;
+    private RoomDiscovery roomDiscovery;
+    private Set<String> knownRooms = ConcurrentHashMap.newKeySet();
     private int numConsumers;
+    private final AtomicBoolean shutDown = new AtomicBoolean(false);
 
     public ConsumerPool(int numConsumers) throws Exception {
+        this(numConsumers, null);
+    }
+
+    /**
+     * With a broker, consumes from it in this process instead of from
+     * RabbitMQ; rooms are picked up as the broker creates their queues.
+     */
+    public ConsumerPool(int numConsumers, InMemoryBroker memoryBroker) throws Exception {
         this.numConsumers = numConsumers;
         this.consumers = new ArrayList<>();
         this.metrics = new ConsumerMetrics();
         this.roomManager = new RoomManager(metrics);
+        this.memoryBroker = memoryBroker;
 
-        initializeConnection();
+        if (memoryBroker == null) {
+            initializeConnection();
+        }
         initializeBroadcastServer(); // Add this
+        this.adminServer = new ConsumerAdminServer(ConsumerConfig.ADMIN_PORT, this);
+        if (memoryBroker == null && ConsumerConfig.ROOM_SHARDS <= 0) {
+            this.roomDiscovery = new RoomDiscovery(connection, this::assignRoom);
+        }
         createConsumers();
+        if (memoryBroker != null) {
+            memoryBroker.onRoomCreated(this::assignRoom);
+            if (ConsumerConfig.ROOM_SHARDS > 0) {
+                log.warn("The in-memory broker has a queue per room, ignoring CHATFLOW_ROOM_SHARDS");
+            }
+        }
 
-        System.out.println("ConsumerPool initialized with " + numConsumers + " consumers");
+        log.info("ConsumerPool initialized with {} consumers", numConsumers);
     }
 
     private void initializeConnection() throws IOException, TimeoutException {
@@ -49,74 +99,166 @@ public class ConsumerPool {
         factory.setRequestedHeartbeat(60);
         factory.setConnectionTimeout(30000);
 
+        // The client runs one task per channel at a time, so deliveries stay
+        // ordered and concurrency is bounded by the channel count
+        if (ConsumerConfig.VIRTUAL_THREADS) {
+            this.deliveryExecutor = VirtualThreads.newExecutor("amqp-delivery-");
+        } else {
+            int threads = Math.max(1, ConsumerConfig.DISPATCH_THREADS);
+            this.deliveryExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), namedThreads("amqp-delivery-"));
+        }
+        factory.setSharedExecutor(deliveryExecutor);
+
         this.connection = factory.newConnection();
-        System.out.println("Connected to RabbitMQ at " + RABBITMQ_HOST);
+        log.info("Connected to RabbitMQ at {}", RABBITMQ_HOST);
     }
 
     private void initializeBroadcastServer() {
         this.broadcastServer = new BroadcastServer(BROADCAST_PORT, roomManager);
-        System.out.println("BroadcastServer initialized on port " + BROADCAST_PORT);
+        log.info("BroadcastServer initialized on port {}", BROADCAST_PORT);
     }
 
-    private void createConsumers() throws IOException {
-        // Distribute rooms fairly across consumers
-        List<List<String>> roomAssignments = distributeRooms(20, numConsumers);
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger threadNumber = new AtomicInteger(0);
+        return task -> {
+            Thread thread = new Thread(task, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
 
-        this.executorService = Executors.newFixedThreadPool(numConsumers);
+    private void createConsumers() {
+        // Subscribing is occasional control work, so one thread serves every consumer
+        this.subscriptionExecutor = Executors.newSingleThreadExecutor(namedThreads("consumer-subscribe-"));
 
         for (int i = 0; i < numConsumers; i++) {
             String consumerId = "consumer-" + (i + 1);
-            List<String> assignedRooms = roomAssignments.get(i);
 
             MessageConsumer consumer = new MessageConsumer(
-                    consumerId, assignedRooms, connection, roomManager, metrics
+                    consumerId, new ArrayList<>(), subscriber(consumerId), subscriptionExecutor, roomManager, metrics
             );
 
             consumers.add(consumer);
         }
-    }
-
-    private List<List<String>> distributeRooms(int totalRooms, int numConsumers) {
-        List<List<String>> assignments = new ArrayList<>();
 
-        for (int i = 0; i < numConsumers; i++) {
-            assignments.add(new ArrayList<>());
+        if (ConsumerConfig.ROOM_SHARDS > 0 && memoryBroker == null) {
+            // Every room lives in one of the shard queues, so there is nothing to discover
+            for (int shard = 0; shard < ConsumerConfig.ROOM_SHARDS; shard++) {
+                consumers.get(shard % numConsumers).addShard(shard);
+            }
+            log.info("Consuming {} shard queues", ConsumerConfig.ROOM_SHARDS);
+            return;
         }
 
-        // Round-robin assignment
-        for (int room = 1; room <= totalRooms; room++) {
-            int consumerIndex = (room - 1) % numConsumers;
-            assignments.get(consumerIndex).add(String.valueOf(room));
+        for (int room = 1; room <= ConsumerConfig.BOOTSTRAP_ROOMS; room++) {
+            assignRoom(String.valueOf(room));
         }
+    }
 
+    // AMQP consumers each get channels of their own, the in-memory broker is shared
+    private MessageSubscriber subscriber(String consumerId) {
+        if (memoryBroker != null) {
+            return memoryBroker;
+        }
+        AmqpSubscriber subscriber = new AmqpSubscriber(connection, consumerId, ConsumerConfig.CHANNELS_PER_CONSUMER,
+                ConsumerConfig.ACK_BATCH_SIZE, ConsumerConfig.PREFETCH_ADAPTIVE);
+        amqpSubscribers.add(subscriber);
+        return subscriber;
+    }
 
-        System.out.println("Room assignments:");
-        for (int i = 0; i < assignments.size(); i++) {
-            System.out.println("Consumer-" + (i + 1) + ": rooms " + assignments.get(i));
+    // Rooms arrive from the bootstrap range and from server announcements, often repeatedly
+    private void assignRoom(String roomId) {
+        if (!knownRooms.add(roomId)) {
+            return;
         }
+        int consumerIndex = consumerIndex(roomId);
+        consumers.get(consumerIndex).addRoom(roomId);
+        log.debug("Room {} assigned to consumer-{}", roomId, consumerIndex + 1);
+    }
 
-        return assignments;
+    // Numeric rooms keep the original round-robin layout, others are hashed
+    private int consumerIndex(String roomId) {
+        try {
+            return Math.floorMod(Integer.parseInt(roomId) - 1, numConsumers);
+        } catch (NumberFormatException e) {
+            return Math.floorMod(roomId.hashCode(), numConsumers);
+        }
     }
 
     public void start() {
-        System.out.println("Starting consumer pool...");
+        log.info("Starting consumer pool...");
 
         // Start broadcast server first
         broadcastServer.start();
-        System.out.println("BroadcastServer started on port " + BROADCAST_PORT);
+        log.info("BroadcastServer started on port {}", BROADCAST_PORT);
+
+        adminServer.start();
 
         // Start message consumers
         for (MessageConsumer consumer : consumers) {
-            executorService.submit(consumer);
+            consumer.start();
+        }
+        if (memoryBroker == null) {
+            log.info("{} channels per consumer, {} delivery threads", ConsumerConfig.CHANNELS_PER_CONSUMER,
+                    ConsumerConfig.VIRTUAL_THREADS ? "virtual" : String.valueOf(ConsumerConfig.DISPATCH_THREADS));
+            startChannelTimer();
+        }
+
+        // Follow rooms created after startup
+        if (roomDiscovery != null) {
+            try {
+                roomDiscovery.start();
+            } catch (IOException e) {
+                log.error("Room discovery failed to start, only bootstrap rooms are consumed: {}", e.getMessage());
+            }
         }
 
-        System.out.println("All consumers started successfully");
-        System.out.println("Clients can connect to port " + BROADCAST_PORT + " to receive messages");
+        log.info("All consumers started successfully");
+        log.info("Clients can connect to port {} to receive messages", BROADCAST_PORT);
 
         // Start metrics reporting thread
         startMetricsReporting();
     }
 
+    private void startChannelTimer() {
+        this.channelTimer = Executors.newSingleThreadScheduledExecutor(namedThreads("consumer-channels-"));
+        // Here rather than per /metrics scrape or /ready probe, which only read the counts
+        this.queueDepths = new QueueDepths(connection, ConsumerConfig.DEPTH_PROBES_PER_UPDATE);
+        long depthInterval = Math.max(100, ConsumerConfig.DEPTH_INTERVAL_MS);
+        channelTimer.scheduleWithFixedDelay(() -> queueDepths.refresh(subscribedQueues()),
+                0, depthInterval, TimeUnit.MILLISECONDS);
+        if (ConsumerConfig.ACK_BATCH_SIZE > 1) {
+            long interval = Math.max(1, ConsumerConfig.ACK_INTERVAL_MS);
+            // Checking at half the interval keeps the longest wait under 1.5 intervals
+            long period = Math.max(1, interval / 2);
+            channelTimer.scheduleWithFixedDelay(() -> {
+                for (AmqpSubscriber subscriber : amqpSubscribers) {
+                    subscriber.flushAcks(interval);
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+            log.info("Acking in batches of up to {} every {} ms", ConsumerConfig.ACK_BATCH_SIZE, interval);
+        }
+        if (ConsumerConfig.PREFETCH_ADAPTIVE) {
+            long interval = Math.max(100, ConsumerConfig.PREFETCH_INTERVAL_MS);
+            channelTimer.scheduleWithFixedDelay(() -> {
+                for (AmqpSubscriber subscriber : amqpSubscribers) {
+                    subscriber.adjustPrefetch(queueDepths);
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+            log.info("Adaptive prefetch between {} and {}, target {} ms", ConsumerConfig.PREFETCH_MIN,
+                    ConsumerConfig.PREFETCH_MAX, ConsumerConfig.PREFETCH_TARGET_MS);
+        }
+    }
+
+    private List<String> subscribedQueues() {
+        List<String> queues = new ArrayList<>();
+        for (MessageConsumer consumer : consumers) {
+            queues.addAll(consumer.getSubscribedQueues());
+        }
+        return queues;
+    }
+
     private void startMetricsReporting() {
         Thread metricsThread = new Thread(() -> {
             while (!Thread.currentThread().isInterrupted()) {
@@ -126,6 +268,7 @@ public class ConsumerPool {
                     System.out.println("\n=== Consumer Pool Status ===");
                     metrics.printMetrics();
                     roomManager.printStats();
+                    printDispatchStats();
 
                 } catch (InterruptedException e) {
                     break;
@@ -137,8 +280,69 @@ public class ConsumerPool {
         metricsThread.start();
     }
 
+    // Deliveries per channel since the last report, and how busy the delivery pool is
+    public void printDispatchStats() {
+        if (amqpSubscribers.isEmpty()) {
+            return;
+        }
+        for (AmqpSubscriber subscriber : amqpSubscribers) {
+            subscriber.printMetrics();
+        }
+        if (deliveryExecutor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) deliveryExecutor;
+            System.out.println("\n=== Delivery Threads ===");
+            System.out.println("Active: " + pool.getActiveCount() + " / " + pool.getMaximumPoolSize());
+            System.out.println("Queued Channel Tasks: " + pool.getQueue().size());
+            System.out.println("Completed Channel Tasks: " + pool.getCompletedTaskCount());
+        }
+    }
+
+    /**
+     * Drains, then closes. Rooms stop being picked up, every subscriber stops
+     * taking deliveries and finishes and acks what it already prefetched, and
+     * only then do the broadcast server and the broker connection close.
+     * Deliveries still unacked at the deadline go back to the broker, which
+     * redelivers them to another consumer.
+     */
     public void shutdown() {
-        System.out.println("Shutting down consumer pool...");
+        if (!shutDown.compareAndSet(false, true)) {
+            return; // the quit command and the shutdown hook both land here
+        }
+        log.info("Draining consumer pool...");
+        long start = System.currentTimeMillis();
+        long deadline = start + ConsumerConfig.DRAIN_TIMEOUT_MILLIS;
+
+        if (roomDiscovery != null) {
+            roomDiscovery.close();
+        }
+
+        // Stop all consumers
+        for (MessageConsumer consumer : consumers) {
+            consumer.stop();
+        }
+
+        // Shutdown executor
+        subscriptionExecutor.shutdown();
+
+        int unacked = 0;
+        List<? extends MessageSubscriber> subscribers = memoryBroker != null ? List.of(memoryBroker) : amqpSubscribers;
+        for (MessageSubscriber subscriber : subscribers) {
+            try {
+                unacked += subscriber.drain(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (IOException e) {
+                log.error("Error draining subscriber: {}", e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        if (channelTimer != null) {
+            channelTimer.shutdown(); // draining flushed the held acks
+        }
+        if (queueDepths != null) {
+            queueDepths.close();
+        }
 
         // Stop broadcast server
         try {
@@ -146,27 +350,108 @@ public class ConsumerPool {
                 broadcastServer.stop();
             }
         } catch (Exception e) {
-            System.out.println("Error stopping broadcast server: " + e.getMessage());
+            log.error("Error stopping broadcast server: {}", e.getMessage());
         }
 
-        // Stop all consumers
-        for (MessageConsumer consumer : consumers) {
-            consumer.stop();
+        for (AmqpSubscriber subscriber : amqpSubscribers) {
+            try {
+                subscriber.close();
+            } catch (IOException e) {
+                log.error("Error closing consumer channel: {}", e.getMessage());
+            }
         }
 
-        // Shutdown executor
-        executorService.shutdown();
-
         // Close connection
         try {
             if (connection != null && connection.isOpen()) {
                 connection.close();
             }
         } catch (IOException e) {
-            System.out.println("Error closing RabbitMQ connection: " + e.getMessage());
+            log.error("Error closing RabbitMQ connection: {}", e.getMessage());
+        }
+        if (deliveryExecutor != null) {
+            deliveryExecutor.shutdown();
+        }
+        adminServer.stop();
+
+        System.out.println("\n=== Drain ===");
+        System.out.println("Duration: " + (System.currentTimeMillis() - start) + " ms (deadline "
+                + ConsumerConfig.DRAIN_TIMEOUT_MILLIS + " ms)");
+        System.out.println("Unacked At Deadline (will be redelivered): " + unacked);
+        System.out.println("Redelivered Received: " + metrics.getRedelivered());
+        if (memoryBroker != null) {
+            System.out.println("Left In Memory Queues (lost): " + memoryBroker.getBacklog());
+        }
+        log.info("Consumer pool shutdown complete");
+    }
+
+    /**
+     * Messages waiting in the queues this pool consumes. For RabbitMQ these
+     * are the counts the channel timer last made, see QueueDepths; -1 until
+     * every queue has been counted or when the broker could not be asked.
+     */
+    public long getQueueBacklog() {
+        if (memoryBroker != null) {
+            return memoryBroker.getBacklog();
+        }
+        if (queueDepths == null || connection == null || !connection.isOpen()) {
+            return -1;
+        }
+        return queueDepths.total();
+    }
+
+    // Why this consumer should not be counted on right now; empty when ready
+    public List<String> notReadyReasons(long backlog) {
+        List<String> reasons = new ArrayList<>();
+        if (shutDown.get()) {
+            reasons.add("shutting down");
         }
+        if (memoryBroker != null ? !memoryBroker.isConnected() : connection == null || !connection.isOpen()) {
+            reasons.add("broker disconnected");
+        }
+        if (backlog > ConsumerConfig.READY_MAX_BACKLOG) {
+            reasons.add("backlog " + backlog + " over " + ConsumerConfig.READY_MAX_BACKLOG);
+        }
+        return reasons;
+    }
+
+    public void writeMetrics(PrometheusWriter out) {
+        metrics.writeMetrics(out);
+        roomManager.writeMetrics(out);
+        out.gauge("chatflow_consumer_known_rooms", "Rooms assigned to a consumer", getKnownRoomCount());
+
+        long backlog = getQueueBacklog();
+        if (backlog >= 0) {
+            out.gauge("chatflow_consumer_queue_backlog", "Messages waiting in the consumed queues", backlog);
+        }
+        if (memoryBroker != null) {
+            memoryBroker.writeMetrics(out);
+        } else {
+            int unacked = 0;
+            for (AmqpSubscriber subscriber : amqpSubscribers) {
+                unacked += subscriber.getOutstanding();
+            }
+            out.gauge("chatflow_consumer_unacked", "Deliveries being processed, not yet acked", unacked);
+            AmqpSubscriber.writeMetrics(out, amqpSubscribers);
+            if (deliveryExecutor instanceof ThreadPoolExecutor) {
+                ThreadPoolExecutor pool = (ThreadPoolExecutor) deliveryExecutor;
+                out.gauge("chatflow_consumer_delivery_threads_active", "Delivery threads running a channel's work",
+                        pool.getActiveCount());
+                out.gauge("chatflow_consumer_delivery_threads", "Size of the delivery thread pool",
+                        pool.getMaximumPoolSize());
+                out.gauge("chatflow_consumer_delivery_queued", "Channel work waiting for a delivery thread",
+                        pool.getQueue().size());
+            }
+            out.gauge("chatflow_amqp_connections_open", "Open consuming connections",
+                    connection != null && connection.isOpen() ? 1 : 0);
+        }
+        out.counter("chatflow_log_lines_dropped_total", "Log lines dropped, buffer full or logger shut down",
+                ChatLogger.getDroppedCount());
+        out.jvm();
+    }
 
-        System.out.println("Consumer pool shutdown complete");
+    public int getKnownRoomCount() {
+        return knownRooms.size();
     }
 
     public RoomManager getRoomManager() {
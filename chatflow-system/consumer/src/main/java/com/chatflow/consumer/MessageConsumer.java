@@ -1,128 +1,163 @@
 package com.chatflow.consumer;
 
-import com.rabbitmq.client.*;
+import com.chatflow.common.ChatLogger;
+import com.chatflow.common.Delivery;
+import com.chatflow.common.MessageSubscriber;
+
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeoutException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Handles the deliveries of the queues assigned to it. It has no thread of
+ * its own: messages are processed on whatever thread the subscriber delivers
+ * on (for AMQP, the connection's dispatch pool), and subscribing runs on the
+ * pool's shared subscription executor.
+ */
+public class MessageConsumer {
+    private static final ChatLogger log = ChatLogger.getLogger(MessageConsumer.class);
+    // Per-message events, sampled so they cannot dominate CPU under load
+    private static final ChatLogger perMessageLog = log.sampled();
 
-public class MessageConsumer implements Runnable {
     private String consumerId;
-    private List<String> assignedRooms;
-    private Connection connection;
-    private Channel channel;
+    private Set<String> subscribedQueues = ConcurrentHashMap.newKeySet();
+    // Room or shard queues handed over by the pool, waiting to be subscribed
+    private Queue<String> pendingQueues = new ConcurrentLinkedQueue<>();
+    private Executor subscriptions;
+    private MessageSubscriber subscriber;
     private RoomManager roomManager;
     private ConsumerMetrics metrics;
     private ObjectMapper objectMapper;
+    private volatile boolean started;
     private volatile boolean running = true;
 
     public MessageConsumer(String consumerId, List<String> assignedRooms,
-                           Connection connection, RoomManager roomManager,
-                           ConsumerMetrics metrics) throws IOException {
+                           MessageSubscriber subscriber, Executor subscriptions,
+                           RoomManager roomManager, ConsumerMetrics metrics) {
         this.consumerId = consumerId;
-        this.assignedRooms = assignedRooms;
-        this.connection = connection;
-        this.channel = connection.createChannel();
+        this.subscriptions = subscriptions;
+        for (String roomId : assignedRooms) {
+            addRoom(roomId);
+        }
+        this.subscriber = subscriber;
         this.roomManager = roomManager;
         this.metrics = metrics;
         this.objectMapper = new ObjectMapper();
 
-        // Configure channel for optimal performance
-        this.channel.basicQos(25); // Prefetch 10 messages
+        log.info("Consumer {} created for rooms: {}", consumerId, assignedRooms);
+    }
 
-        System.out.println("Consumer " + consumerId + " created for rooms: " + assignedRooms);
+    // Called from any thread; the subscription happens on the subscription executor
+    public void addRoom(String roomId) {
+        enqueue(MessageSubscriber.roomQueue(roomId));
     }
 
-    @Override
-    public void run() {
-        System.out.println("Consumer " + consumerId + " started");
+    // A shard queue carries many rooms, demultiplexed by the room ID header
+    public void addShard(int shard) {
+        enqueue(MessageSubscriber.shardQueue(shard));
+    }
 
-        try {
-            // Set up consumers for each assigned room
-            for (String room : assignedRooms) {
-                String queueName = "room." + room;
-
-                DefaultConsumer consumer = new DefaultConsumer(channel) {
-                    @Override
-                    public void handleDelivery(String consumerTag, Envelope envelope,
-                                               AMQP.BasicProperties properties, byte[] body) throws IOException {
-                        processMessage(envelope, body);
-                    }
-                };
-
-                // Start consuming from queue
-                channel.basicConsume(queueName, false, consumer); // false = manual ack
-                System.out.println("Consumer " + consumerId + " consuming from " + queueName);
-            }
+    private void enqueue(String queueName) {
+        pendingQueues.offer(queueName);
+        if (started) {
+            subscriptions.execute(this::subscribePending);
+        }
+    }
 
-            // Keep consumer alive
-            while (running) {
-                Thread.sleep(1000);
-            }
+    // Queues assigned before this are subscribed now, later ones as they come
+    public void start() {
+        started = true;
+        subscriptions.execute(this::subscribePending);
+        log.info("Consumer {} started", consumerId);
+    }
 
-        } catch (Exception e) {
-            System.out.println("Consumer " + consumerId + " error: " + e.getMessage());
-            e.printStackTrace();
-        } finally {
-            cleanup();
+    private void subscribePending() {
+        String queueName;
+        while (running && (queueName = pendingQueues.poll()) != null) {
+            if (!subscribedQueues.contains(queueName)) {
+                subscribe(queueName);
+            }
         }
     }
 
-    private void processMessage(Envelope envelope, byte[] body) {
-        long deliveryTag = envelope.getDeliveryTag();
-
+    private void subscribe(String queueName) {
         try {
-            // Parse message
-            String messageJson = new String(body);
-            QueueMessage queueMessage = objectMapper.readValue(messageJson, QueueMessage.class);
-
-            System.out.println("Consumer " + consumerId + " processing message: " + queueMessage.getMessageId());
+            subscriber.subscribe(queueName, this::processMessage);
+            subscribedQueues.add(queueName);
+            log.info("Consumer {} consuming from {}", consumerId, queueName);
+        } catch (IOException | RuntimeException e) {
+            log.error("Consumer {} failed to subscribe to {}: {}", consumerId, queueName, e.getMessage());
+        }
+    }
 
-            // Update metrics
-            metrics.incrementMessagesProcessed();
-            metrics.incrementConsumerMessages(consumerId);
+    private void processMessage(Delivery delivery) {
+        if (delivery.isRedelivered()) {
+            metrics.incrementRedelivered();
+        }
+        try {
+            String roomId = delivery.getRoomId();
+            if (roomId != null && !roomManager.hasSessions(roomId)) {
+                // Nobody here is in the room, so skip parsing it altogether
+                metrics.incrementMessagesProcessed();
+                metrics.incrementConsumerMessages(consumerId);
+                subscriber.ack(delivery);
+                return;
+            }
 
-            // Broadcast to room
-            roomManager.broadcastToRoom(queueMessage);
+            if (delivery.isBatch()) {
+                // One delivery carrying several room messages; a failure part way
+                // requeues the whole batch and dedup filters the ones already sent
+                for (byte[] message : BatchEnvelope.decode(delivery.getBody())) {
+                    handleQueueMessage(objectMapper.readValue(message, QueueMessage.class));
+                }
+            } else {
+                handleQueueMessage(objectMapper.readValue(delivery.getBody(), QueueMessage.class));
+            }
 
             // Acknowledge message after successful broadcast
-            channel.basicAck(deliveryTag, false);
+            subscriber.ack(delivery);
 
         } catch (Exception e) {
-            System.out.println("Error processing message: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error processing message", e);
 
             try {
                 // Negative acknowledgment - requeue the message
-                channel.basicNack(deliveryTag, false, true);
+                subscriber.nack(delivery, true);
                 metrics.incrementMessagesFailed();
             } catch (IOException ackError) {
-                System.out.println("Error sending NACK: " + ackError.getMessage());
+                log.error("Error sending NACK: {}", ackError.getMessage());
             }
         }
     }
 
-    public void stop() {
-        running = false;
-        System.out.println("Consumer " + consumerId + " stopping...");
+    private void handleQueueMessage(QueueMessage queueMessage) {
+        perMessageLog.info("Consumer {} processing message: {}", consumerId, queueMessage.getMessageId());
+
+        // Update metrics
+        metrics.incrementMessagesProcessed();
+        metrics.incrementConsumerMessages(consumerId);
+
+        // Broadcast to room
+        roomManager.broadcastToRoom(queueMessage);
     }
 
-    private void cleanup() {
-        try {
-            if (channel != null && channel.isOpen()) {
-                channel.close();
-            }
-        } catch (IOException | TimeoutException e) {
-            System.out.println("Error closing channel for consumer " + consumerId + ": " + e.getMessage());
-        }
+    public void stop() {
+        running = false;
+        log.info("Consumer {} stopping...", consumerId);
     }
 
     public String getConsumerId() {
         return consumerId;
     }
 
-    public List<String> getAssignedRooms() {
-        return assignedRooms;
+    public List<String> getSubscribedQueues() {
+        return new ArrayList<>(subscribedQueues);
     }
 }
\ No newline at end of file
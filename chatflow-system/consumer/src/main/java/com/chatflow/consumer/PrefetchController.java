@@ -0,0 +1,95 @@
+package com.chatflow.consumer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Picks one channel's prefetch from what the channel did since the last
+ * update, additive increase and multiplicative decrease:
+ *
+ * - decrease: the window holds more work than the target. With the average
+ *   handling time (parse plus fan-out) t, the last of p prefetched messages
+ *   waits about p * t before it is handled; when that passes the target the
+ *   prefetch is halved, so a room with a slow fan-out stops hoarding messages
+ *   another consumer could take.
+ * - increase: the window was full at some point and the queues still have a
+ *   backlog, and one more step keeps the wait within the target. The window
+ *   is what limits throughput, so it grows by a step.
+ * - hold: otherwise, including idle channels, which keep what they have
+ *   rather than shrinking and starting slow when traffic returns.
+ *
+ * Called from one timer thread.
+ */
+final class PrefetchController {
+    enum Decision { INCREASE, DECREASE, HOLD }
+
+    private final int min;
+    private final int max;
+    private final int step;
+    private final long targetNanos;
+
+    private int prefetch;
+    private Decision lastDecision = Decision.HOLD;
+    private long lastDeliveries;
+    private long lastHandleNanos;
+    private long lastAverageNanos;
+
+    private final AtomicLong increases = new AtomicLong(0);
+    private final AtomicLong decreases = new AtomicLong(0);
+    private final AtomicLong holds = new AtomicLong(0);
+
+    PrefetchController(int initial, int min, int max, int step, long targetMillis) {
+        this.min = Math.max(1, min);
+        this.max = Math.max(this.min, max);
+        this.step = Math.max(1, step);
+        this.targetNanos = Math.max(1, targetMillis) * 1_000_000L;
+        this.prefetch = Math.max(this.min, Math.min(this.max, initial));
+    }
+
+    static PrefetchController fromConfig() {
+        return new PrefetchController(ConsumerConfig.CONSUMER_PREFETCH, ConsumerConfig.PREFETCH_MIN,
+                ConsumerConfig.PREFETCH_MAX, ConsumerConfig.PREFETCH_STEP, ConsumerConfig.PREFETCH_TARGET_MS);
+    }
+
+    /**
+     * Takes the channel's running totals of deliveries and handling time, the
+     * most messages unacked at once since the last call, and the backlog of
+     * its queues (-1 when unknown). Returns the prefetch to use from now on.
+     */
+    synchronized int update(long deliveries, long handleNanos, int peakUnacked, long queueDepth) {
+        long windowDeliveries = deliveries - lastDeliveries;
+        long windowNanos = handleNanos - lastHandleNanos;
+        lastDeliveries = deliveries;
+        lastHandleNanos = handleNanos;
+
+        Decision decision = Decision.HOLD;
+        if (windowDeliveries > 0) {
+            long average = windowNanos / windowDeliveries;
+            lastAverageNanos = average;
+            boolean full = peakUnacked >= prefetch;
+            if (average * prefetch > targetNanos && prefetch > min) {
+                prefetch = Math.max(min, prefetch / 2);
+                decision = Decision.DECREASE;
+            } else if (full && queueDepth != 0 && prefetch < max
+                    && average * (prefetch + step) <= targetNanos) {
+                prefetch = Math.min(max, prefetch + step);
+                decision = Decision.INCREASE;
+            }
+        }
+
+        lastDecision = decision;
+        switch (decision) {
+            case INCREASE: increases.incrementAndGet(); break;
+            case DECREASE: decreases.incrementAndGet(); break;
+            default: holds.incrementAndGet(); break;
+        }
+        return prefetch;
+    }
+
+    synchronized int getPrefetch() { return prefetch; }
+    synchronized Decision getLastDecision() { return lastDecision; }
+    // Handling time per delivery over the last update window
+    synchronized long getAverageHandleNanos() { return lastAverageNanos; }
+    long getIncreases() { return increases.get(); }
+    long getDecreases() { return decreases.get(); }
+    long getHolds() { return holds.get(); }
+}
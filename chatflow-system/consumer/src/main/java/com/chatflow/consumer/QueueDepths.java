@@ -0,0 +1,114 @@
+package com.chatflow.consumer;
+
+import com.chatflow.common.ChatLogger;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Messages waiting in each consumed queue, as last counted by the pool's
+ * timer. RabbitMQ only tells with a passive declare per queue, and a failed
+ * one closes its channel, so one probe channel is kept for the pool (and
+ * reopened after that happens) and each refresh counts at most
+ * maxPerRefresh queues, taking them in turn. With more queues than that, a
+ * count can be a few refreshes old.
+ *
+ * Refreshed from one timer thread, read from any.
+ */
+final class QueueDepths {
+    private static final ChatLogger log = ChatLogger.getLogger(QueueDepths.class);
+
+    private final Connection connection;
+    private final int maxPerRefresh;
+    private final Map<String, Long> depths = new ConcurrentHashMap<>();
+    private volatile int queueCount;
+    private Channel probe;
+    private int cursor;
+
+    QueueDepths(Connection connection, int maxPerRefresh) {
+        this.connection = connection;
+        this.maxPerRefresh = Math.max(1, maxPerRefresh);
+    }
+
+    // Counts the next few of the given queues and forgets any no longer in it
+    void refresh(List<String> queues) {
+        depths.keySet().retainAll(new HashSet<>(queues));
+        queueCount = queues.size();
+        if (queues.isEmpty()) {
+            return;
+        }
+        Channel channel = probe();
+        if (channel == null) {
+            depths.clear(); // the broker cannot be asked, so nothing is known
+            return;
+        }
+        int count = Math.min(queues.size(), maxPerRefresh);
+        for (int i = 0; i < count; i++) {
+            cursor = cursor + 1 >= queues.size() ? 0 : cursor + 1;
+            String queueName = queues.get(cursor);
+            try {
+                depths.put(queueName, channel.messageCount(queueName));
+            } catch (IOException | RuntimeException e) {
+                // The probe closed with it; the next refresh opens another and goes on from here
+                depths.remove(queueName);
+                log.debug("Could not count queue {}: {}", queueName, e.getMessage());
+                return;
+            }
+        }
+    }
+
+    // Messages in the given queues that have been counted, -1 if none has been
+    long depth(Collection<String> queues) {
+        long depth = 0;
+        boolean known = false;
+        for (String queueName : queues) {
+            Long count = depths.get(queueName);
+            if (count != null) {
+                depth += count;
+                known = true;
+            }
+        }
+        return known ? depth : -1;
+    }
+
+    // Messages in every queue of the last refresh, -1 until each has been counted
+    long total() {
+        long total = 0;
+        int counted = 0;
+        for (long count : depths.values()) {
+            total += count;
+            counted++;
+        }
+        return counted < queueCount ? -1 : total;
+    }
+
+    void close() {
+        if (probe != null && probe.isOpen()) {
+            try {
+                probe.close();
+            } catch (IOException | TimeoutException | RuntimeException e) {
+                log.debug("Could not close the depth probe: {}", e.getMessage());
+            }
+        }
+    }
+
+    private Channel probe() {
+        if (probe == null || !probe.isOpen()) {
+            try {
+                probe = connection.createChannel(); // null when the connection has no channels left
+            } catch (IOException | RuntimeException e) {
+                log.debug("Could not open a channel for queue depths: {}", e.getMessage());
+                return null;
+            }
+        }
+        return probe;
+    }
+}
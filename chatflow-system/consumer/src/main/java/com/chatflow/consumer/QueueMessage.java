@@ -2,11 +2,10 @@ package com.chatflow.consumer;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-import java.util.UUID;
-
 public class QueueMessage {
+    // Time-ordered 64-bit ID assigned by the server
     @JsonProperty("messageId")
-    private String messageId;
+    private long messageId;
 
     @JsonProperty("roomId")
     private String roomId;
@@ -35,12 +34,16 @@ public class QueueMessage {
     @JsonProperty("trackingId")
     private String trackingId;
 
+    // Per room and serverId, 0 from servers that do not number messages
+    @JsonProperty("sequence")
+    private long sequence;
+
     // Default constructor
     public QueueMessage() {}
 
     // Getters and setters
-    public String getMessageId() { return messageId; }
-    public void setMessageId(String messageId) { this.messageId = messageId; }
+    public long getMessageId() { return messageId; }
+    public void setMessageId(long messageId) { this.messageId = messageId; }
 
     public String getRoomId() { return roomId; }
     public void setRoomId(String roomId) { this.roomId = roomId; }
@@ -68,4 +71,7 @@ public class QueueMessage {
 
     public String getTrackingId() { return trackingId; }
     public void setTrackingId(String trackingId) { this.trackingId = trackingId; }
+
+    public long getSequence() { return sequence; }
+    public void setSequence(long sequence) { this.sequence = sequence; }
 }
\ No newline at end of file
@@ -0,0 +1,73 @@
+package com.chatflow.consumer;
+
+import com.chatflow.common.ChatLogger;
+
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Learns which rooms exist from the servers' announcements on the chat.rooms
+ * fanout exchange instead of assuming a fixed range. On start it publishes a
+ * request to chat.rooms.sync so that every running server announces its
+ * rooms again, which picks up rooms created while this consumer was down.
+ */
+public class RoomDiscovery {
+    private static final ChatLogger log = ChatLogger.getLogger(RoomDiscovery.class);
+
+    static final String EXCHANGE_NAME = "chat.exchange";
+    static final String ROOMS_EXCHANGE = "chat.rooms";
+    static final String ROOMS_SYNC_EXCHANGE = "chat.rooms.sync";
+
+    // Same rule the server applies to room paths
+    private static final Pattern ROOM_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private final Channel channel;
+    private final Consumer<String> roomListener;
+
+    public RoomDiscovery(Connection connection, Consumer<String> roomListener) throws IOException {
+        this.channel = connection.createChannel();
+        this.roomListener = roomListener;
+
+        // Idempotent, so consumers can start before any server has run
+        channel.exchangeDeclare(EXCHANGE_NAME, BuiltinExchangeType.TOPIC, true);
+        channel.exchangeDeclare(ROOMS_EXCHANGE, BuiltinExchangeType.FANOUT, true);
+        channel.exchangeDeclare(ROOMS_SYNC_EXCHANGE, BuiltinExchangeType.FANOUT, true);
+    }
+
+    public void start() throws IOException {
+        String announcements = channel.queueDeclare().getQueue(); // exclusive, auto-delete
+        channel.queueBind(announcements, ROOMS_EXCHANGE, "");
+        channel.basicConsume(announcements, true,
+                (consumerTag, delivery) -> roomAnnounced(new String(delivery.getBody(), StandardCharsets.UTF_8)),
+                consumerTag -> {});
+
+        // Ask running servers for the rooms they already know
+        channel.basicPublish(ROOMS_SYNC_EXCHANGE, "", null, new byte[0]);
+        log.info("Room discovery started");
+    }
+
+    private void roomAnnounced(String roomId) {
+        if (!ROOM_ID.matcher(roomId).matches()) {
+            log.warn("Ignoring invalid room announcement: {}", roomId);
+            return;
+        }
+        roomListener.accept(roomId);
+    }
+
+    public void close() {
+        try {
+            if (channel.isOpen()) {
+                channel.close();
+            }
+        } catch (IOException | TimeoutException e) {
+            log.error("Error closing room discovery channel: {}", e.getMessage());
+        }
+    }
+}
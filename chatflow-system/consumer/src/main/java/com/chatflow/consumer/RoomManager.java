@@ -1,5 +1,12 @@
 package com.chatflow.consumer;
 
+import com.chatflow.common.BinaryCodec;
+import com.chatflow.common.ChatLogger;
+import com.chatflow.common.DedupWindow;
+import com.chatflow.common.PrometheusWriter;
+import com.chatflow.common.SequenceTracker;
+import com.chatflow.common.WebSocketDrafts;
+
 import org.java_websocket.WebSocket;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -7,18 +14,26 @@ import java.util.Set;
 import java.util.HashSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
 
 public class RoomManager {
+    private static final ChatLogger log = ChatLogger.getLogger(RoomManager.class);
+    // Per-message events, sampled so they cannot dominate CPU under load
+    private static final ChatLogger perMessageLog = log.sampled();
     private ConcurrentHashMap<String, Set<WebSocket>> roomSessions;
     private ConcurrentHashMap<String, UserInfo> activeUsers;
-    private ConcurrentHashMap<String, String> processedMessages; // messageId -> timestamp
+    // Fixed-size window per (server, room) stream instead of a map of seen IDs
+    private final SequenceTracker sequences;
+    // Message IDs of the last few seconds, for what sequences cannot answer
+    private final DedupWindow recentIds;
     private ObjectMapper objectMapper;
     private ConsumerMetrics metrics;
 
     public RoomManager(ConsumerMetrics metrics) {
         this.roomSessions = new ConcurrentHashMap<>();
         this.activeUsers = new ConcurrentHashMap<>();
-        this.processedMessages = new ConcurrentHashMap<>();
+        this.sequences = new SequenceTracker();
+        this.recentIds = new DedupWindow(ConsumerConfig.DEDUP_CAPACITY, ConsumerConfig.DEDUP_WINDOW_MS);
         this.objectMapper = new ObjectMapper();
         this.metrics = metrics;
     }
@@ -33,7 +48,7 @@ public class RoomManager {
         UserInfo userInfo = new UserInfo(userId, username, roomId, sessionId);
         activeUsers.put(sessionId, userInfo);
 
-        System.out.println("User " + username + " joined room " + roomId);
+        log.info("User {} joined room {}", username, roomId);
     }
 
     // Remove user session from room
@@ -49,7 +64,7 @@ public class RoomManager {
         String sessionId = session.toString();
         UserInfo userInfo = activeUsers.remove(sessionId);
         if (userInfo != null) {
-            System.out.println("User " + userInfo.getUsername() + " left room " + roomId);
+            log.info("User {} left room {}", userInfo.getUsername(), roomId);
         }
     }
 
@@ -57,38 +72,57 @@ public class RoomManager {
     public void broadcastToRoom(QueueMessage queueMessage) {
         String roomId = queueMessage.getRoomId();
 
-        // Check for duplicate message
-        if (isDuplicateMessage(queueMessage.getMessageId())) {
+        // Redeliveries show up as already-seen sequences
+        if (isDuplicateMessage(queueMessage)) {
             metrics.incrementDuplicatesFiltered();
             return;
         }
 
         Set<WebSocket> sessions = roomSessions.get(roomId);
         if (sessions == null || sessions.isEmpty()) {
-            System.out.println("No active sessions in room " + roomId);
+            perMessageLog.info("No active sessions in room {}", roomId);
             return;
         }
 
-        // Create broadcast message
-        String broadcastMessage = createBroadcastMessage(queueMessage);
+        // Each wire format is encoded at most once, and only if a session uses it
+        String broadcastMessage = null;
+        byte[] binaryBroadcast = null;
 
         // Send to all sessions in room
         int delivered = 0;
         int failed = 0;
 
         for (WebSocket session : sessions) {
+            // Set by BroadcastServer.onOpen
+            ConnectionContext context = session.getAttachment();
             try {
                 if (session.isOpen()) {
-                    session.send(broadcastMessage);
+                    if (context != null ? context.isBinary() : WebSocketDrafts.isBinary(session)) {
+                        if (binaryBroadcast == null) {
+                            binaryBroadcast = createBinaryBroadcast(queueMessage);
+                        }
+                        session.send(binaryBroadcast);
+                    } else {
+                        if (broadcastMessage == null) {
+                            broadcastMessage = createBroadcastMessage(queueMessage);
+                        }
+                        session.send(broadcastMessage);
+                    }
                     delivered++;
+                    if (context != null) {
+                        context.recordSent();
+                    }
                 } else {
                     // Remove dead session
                     removeUserFromRoom(roomId, session);
                     failed++;
                 }
             } catch (Exception e) {
-                System.out.println("Failed to send message to session: " + e.getMessage());
+                perMessageLog.warn("Failed to send message to session: {}", e.getMessage());
                 failed++;
+                if (context != null) {
+                    context.recordSendFailure();
+                }
             }
         }
 
@@ -101,19 +135,22 @@ public class RoomManager {
             metrics.incrementMessagesFailed();
         }
 
-        System.out.println("Broadcasted to room " + roomId + ": " + delivered + " delivered, " + failed + " failed");
+        perMessageLog.info("Broadcasted to room {}: {} delivered, {} failed", roomId, delivered, failed);
     }
 
-    private boolean isDuplicateMessage(String messageId) {
-        String currentTime = Instant.now().toString();
-        String existingTime = processedMessages.putIfAbsent(messageId, currentTime);
-
-        // Clean old messages periodically
-        if (processedMessages.size() > 10000) {
-            processedMessages.clear();
+    // Every message ID goes into the window, so it can also settle sequences too old for the tracker
+    private boolean isDuplicateMessage(QueueMessage queueMessage) {
+        boolean seenId = recentIds.checkAndAdd(queueMessage.getMessageId());
+        if (queueMessage.getSequence() <= 0) {
+            return seenId; // unnumbered, only the ID to go by
         }
-
-        return existingTime != null;
+        SequenceTracker.Result result = sequences.track(
+                queueMessage.getServerId(), queueMessage.getRoomId(), queueMessage.getSequence());
+        if (result == SequenceTracker.Result.GAP) {
+            perMessageLog.warn("Sequence gap in room {} from {} at {}",
+                    queueMessage.getRoomId(), queueMessage.getServerId(), queueMessage.getSequence());
+        }
+        return result == SequenceTracker.Result.DUPLICATE || (result == SequenceTracker.Result.STALE && seenId);
     }
 
     private String createBroadcastMessage(QueueMessage queueMessage) {
@@ -127,16 +164,64 @@ public class RoomManager {
                     queueMessage.getMessage(),
                     queueMessage.getTimestamp(),
                     queueMessage.getMessageType().toString(),
-                    queueMessage.getTrackingId()
+                    queueMessage.getTrackingId(),
+                    queueMessage.getSequence(),
+                    queueMessage.getServerId()
             );
 
             return objectMapper.writeValueAsString(broadcast);
         } catch (Exception e) {
-            System.out.println("Error creating broadcast message: " + e.getMessage());
+            log.error("Error creating broadcast message: {}", e.getMessage());
             return "{}";
         }
     }
 
+    private byte[] createBinaryBroadcast(QueueMessage queueMessage) {
+        return BinaryCodec.encodeBroadcast(
+                parseUserId(queueMessage.getUserId()),
+                BinaryCodec.messageTypeCode(queueMessage.getMessageType().toString()),
+                parseTimestamp(queueMessage.getTimestamp()),
+                queueMessage.getUsername(),
+                queueMessage.getMessage(),
+                queueMessage.getTrackingId(),
+                queueMessage.getMessageId(),
+                queueMessage.getRoomId(),
+                queueMessage.getSequence(),
+                queueMessage.getServerId()
+        );
+    }
+
+    // The server validated these fields; 0 marks a value that could not be converted
+    private static int parseUserId(String userId) {
+        try {
+            return Integer.parseInt(userId);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long parseTimestamp(String timestamp) {
+        try {
+            return Instant.parse(timestamp).toEpochMilli();
+        } catch (DateTimeParseException | NullPointerException e) {
+            return 0;
+        }
+    }
+
+    // Lets consumers of shared shard queues skip rooms nobody here is in
+    public boolean hasSessions(String roomId) {
+        Set<WebSocket> sessions = roomSessions.get(roomId);
+        return sessions != null && !sessions.isEmpty();
+    }
+
+    public SequenceTracker getSequenceTracker() {
+        return sequences;
+    }
+
+    public DedupWindow getDedupWindow() {
+        return recentIds;
+    }
+
     // Get room statistics
     public int getActiveRooms() {
         return roomSessions.size();
@@ -148,6 +233,14 @@ public class RoomManager {
                 .sum();
     }
 
+    public void writeMetrics(PrometheusWriter metrics) {
+        metrics.family("chatflow_broadcast_connections", "gauge", "Open broadcast sessions per room");
+        roomSessions.forEach((room, sessions) ->
+                metrics.sample("chatflow_broadcast_connections", sessions.size(), "room", room));
+        sequences.writeMetrics(metrics);
+        recentIds.writeMetrics(metrics);
+    }
+
     public void printStats() {
         System.out.println("\n=== Room Manager Stats ===");
         System.out.println("Active rooms: " + getActiveRooms());
@@ -156,11 +249,13 @@ public class RoomManager {
 
         roomSessions.forEach((room, sessions) ->
                 System.out.println("Room " + room + ": " + sessions.size() + " users"));
+        sequences.printMetrics();
+        recentIds.printMetrics();
     }
 
     // Inner class for broadcast message format
     private static class BroadcastMessage {
-        public String messageId;
+        public long messageId;
         public String roomId;
         public String userId;
         public String username;
@@ -168,9 +263,12 @@ public class RoomManager {
         public String timestamp;
         public String messageType;
         public String trackingId;
+        public long sequence;
+        public String serverId;
 
-        public BroadcastMessage(String messageId, String roomId, String userId,
-                                String username, String message, String timestamp, String messageType, String trackingId) {
+        public BroadcastMessage(long messageId, String roomId, String userId,
+                                String username, String message, String timestamp, String messageType, String trackingId,
+                                long sequence, String serverId) {
             this.messageId = messageId;
             this.roomId = roomId;
             this.userId = userId;
@@ -179,6 +277,8 @@ public class RoomManager {
             this.timestamp = timestamp;
             this.messageType = messageType;
             this.trackingId = trackingId;
+            this.sequence = sequence;
+            this.serverId = serverId;
         }
     }
 }
\ No newline at end of file
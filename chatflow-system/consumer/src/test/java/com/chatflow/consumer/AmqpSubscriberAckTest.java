@@ -0,0 +1,94 @@
+package com.chatflow.consumer;
+
+import com.chatflow.common.Delivery;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Envelope;
+import junit.framework.TestCase;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Acks in batches of 5 against a channel that records the frames it is
+ * asked to send. Out-of-order acks and nacks go out on their own, and once
+ * the gap below them is settled the following acks batch again.
+ */
+public class AmqpSubscriberAckTest extends TestCase {
+    private static final int DELIVERIES = 30;
+
+    private final List<String> frames = new ArrayList<>();
+    private final List<Delivery> delivered = new ArrayList<>();
+    private com.rabbitmq.client.Consumer consumer;
+    private AmqpSubscriber subscriber;
+
+    @Override
+    protected void setUp() throws Exception {
+        Channel channel = (Channel) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {Channel.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "basicAck":
+                            frames.add("ack " + args[0] + ((Boolean) args[1] ? " multiple" : ""));
+                            return null;
+                        case "basicNack":
+                            frames.add("nack " + args[0]);
+                            return null;
+                        case "basicConsume":
+                            consumer = (com.rabbitmq.client.Consumer) args[args.length - 1];
+                            return "tag";
+                        case "isOpen":
+                            return true;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            return null;
+                    }
+                });
+        Connection connection = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {Connection.class},
+                (proxy, method, args) -> "createChannel".equals(method.getName()) ? channel : null);
+
+        subscriber = new AmqpSubscriber(connection, "consumer-1", 1, 5, false);
+        subscriber.subscribe("room.1", delivered::add);
+        for (long tag = 1; tag <= DELIVERIES; tag++) {
+            consumer.handleDelivery("tag", new Envelope(tag, false, "chat.exchange", "room.1"), null, new byte[0]);
+        }
+    }
+
+    public void testInOrderAcksAreBatched() throws Exception {
+        ack(1, 12);
+        assertEquals(List.of("ack 5 multiple", "ack 10 multiple"), frames);
+        assertEquals(2, subscriber.getPendingAcks());
+
+        subscriber.flushAcks(0);
+        assertEquals("ack 12 multiple", frames.get(2));
+        assertEquals(0, subscriber.getPendingAcks());
+    }
+
+    public void testBatchingResumesAfterOutOfOrderAck() throws Exception {
+        ack(1, 2);
+        ack(4, 4); // 3 is still being handled
+        ack(3, 3);
+        ack(5, 6);
+        ack(7, 11);
+        assertEquals(List.of("ack 4", "ack 6 multiple", "ack 11 multiple"), frames);
+    }
+
+    public void testBatchingResumesAfterNacks() throws Exception {
+        subscriber.nack(delivered.get(1), true); // tag 2 before tag 1
+        ack(1, 1);
+        ack(3, 7);
+        subscriber.nack(delivered.get(7), false); // tag 8, right after the settled ones
+        ack(9, 13);
+        // The nack of 8 first sends the ack held for 7
+        assertEquals(List.of("nack 2", "ack 6 multiple", "ack 7 multiple", "nack 8", "ack 13 multiple"), frames);
+        assertEquals(0, subscriber.getPendingAcks());
+    }
+
+    private void ack(int fromTag, int toTag) throws Exception {
+        for (int tag = fromTag; tag <= toTag; tag++) {
+            subscriber.ack(delivered.get(tag - 1));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.chatflow.consumer;
+
+import com.chatflow.common.BinaryCodec;
+import com.chatflow.common.WebSocketDrafts;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.framing.BinaryFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.TextFrame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * CPU versus egress bytes for permessage-deflate on the broadcast path.
+ * Every subscriber connection owns its compressor, so one broadcast costs one
+ * deflate per subscriber; this replays room broadcasts through per-connection
+ * extension instances exactly as BroadcastServer would. Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass="com.chatflow.consumer.BroadcastCompressionBenchmark"
+ */
+public class BroadcastCompressionBenchmark {
+    private static final int SUBSCRIBERS = 50;
+    private static final int DISTINCT_MESSAGES = 1_000;
+    private static final int WARMUP_BROADCASTS = 20_000;
+    private static final int MEASURED_BROADCASTS = 100_000;
+
+    private static final String[] TEXTS = {
+            "Hello everyone!", "How are you doing?", "Meeting in 5 mins", "Check this out",
+            "Can you help me?", "Working on a project", "Weekend plans?", "Sounds good to me",
+            "I agree with that, let's sync after lunch and go over the remaining items on the list"
+    };
+
+    // Same shape as ChatFlowServerV2.serverId
+    private static final String SERVER_ID = "server-" + System.currentTimeMillis();
+
+    // Sink so the JIT cannot drop the work
+    private static long blackhole;
+
+    public static void main(String[] args) throws Exception {
+        byte[][] json = new byte[DISTINCT_MESSAGES][];
+        byte[][] binary = new byte[DISTINCT_MESSAGES][];
+        buildMessages(json, binary);
+
+        // Label -> extension template; null means compression off
+        Map<String, IExtension> configs = new LinkedHashMap<>();
+        configs.put("off", null);
+        configs.put("deflate, threshold 0, takeover", WebSocketDrafts.deflate(0, true));
+        configs.put("deflate, threshold 0, no takeover", WebSocketDrafts.deflate(0, false));
+        configs.put("deflate, threshold 256, takeover", WebSocketDrafts.deflate(256, true));
+        configs.put("deflate, threshold 1024, takeover", WebSocketDrafts.deflate(1024, true));
+
+        System.out.println("=== Broadcast Compression Benchmark ===");
+        System.out.println(SUBSCRIBERS + " subscribers per room, " + MEASURED_BROADCASTS + " broadcasts");
+        System.out.printf("%-8s %-36s %14s %14s %10s%n", "Format", "Compression", "ns/delivery", "bytes/delivery", "ratio");
+
+        for (boolean useBinary : new boolean[]{false, true}) {
+            byte[][] payloads = useBinary ? binary : json;
+            double rawBytes = averageLength(payloads);
+
+            for (Map.Entry<String, IExtension> config : configs.entrySet()) {
+                run(payloads, config.getValue(), useBinary, WARMUP_BROADCASTS);
+                long[] result = run(payloads, config.getValue(), useBinary, MEASURED_BROADCASTS);
+
+                long deliveries = (long) MEASURED_BROADCASTS * SUBSCRIBERS;
+                double nsPerDelivery = (double) result[0] / deliveries;
+                double bytesPerDelivery = (double) result[1] / deliveries;
+                System.out.printf("%-8s %-36s %14.1f %14.1f %10.2f%n",
+                        useBinary ? "binary" : "json", config.getKey(),
+                        nsPerDelivery, bytesPerDelivery, bytesPerDelivery / rawBytes);
+            }
+        }
+        System.out.println("(blackhole " + blackhole + ")");
+    }
+
+    // Returns {elapsed nanos, payload bytes written}
+    private static long[] run(byte[][] payloads, IExtension template, boolean useBinary, int broadcasts) {
+        IExtension[] connections = new IExtension[SUBSCRIBERS];
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            connections[i] = template == null ? null : template.copyInstance();
+        }
+
+        long bytes = 0;
+        long start = System.nanoTime();
+        for (int b = 0; b < broadcasts; b++) {
+            byte[] payload = payloads[b % payloads.length];
+            for (IExtension connection : connections) {
+                DataFrame frame = useBinary ? new BinaryFrame() : new TextFrame();
+                frame.setPayload(ByteBuffer.wrap(payload));
+                frame.setFin(true);
+                if (connection != null) {
+                    connection.encodeFrame(frame);
+                }
+                bytes += frame.getPayloadData().remaining();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        blackhole += bytes;
+        return new long[]{elapsed, bytes};
+    }
+
+    // Same field set as RoomManager's broadcast JSON and binary BROADCAST frames
+    private static void buildMessages(byte[][] json, byte[][] binary) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Random random = new Random(42);
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < json.length; i++) {
+            int userId = random.nextInt(100000) + 1;
+            String roomId = String.valueOf(random.nextInt(20) + 1);
+            // Same shape as the server's MessageIdGenerator output
+            long messageId = ((now + i - 1704067200000L) << 22) | random.nextInt(1 << 22);
+            String trackingId = UUID.randomUUID().toString();
+            String text = TEXTS[random.nextInt(TEXTS.length)];
+            long timestamp = now + i;
+
+            Map<String, Object> broadcast = new LinkedHashMap<>();
+            broadcast.put("messageId", messageId);
+            broadcast.put("roomId", roomId);
+            broadcast.put("userId", String.valueOf(userId));
+            broadcast.put("username", "user" + userId);
+            broadcast.put("message", text);
+            broadcast.put("timestamp", Instant.ofEpochMilli(timestamp).toString());
+            broadcast.put("messageType", "TEXT");
+            broadcast.put("trackingId", trackingId);
+            broadcast.put("sequence", (long) i + 1);
+            broadcast.put("serverId", SERVER_ID);
+            json[i] = objectMapper.writeValueAsString(broadcast).getBytes(StandardCharsets.UTF_8);
+
+            binary[i] = BinaryCodec.encodeBroadcast(userId, BinaryCodec.messageTypeCode("TEXT"), timestamp,
+                    "user" + userId, text, trackingId, messageId, roomId, i + 1, SERVER_ID);
+        }
+    }
+
+    private static double averageLength(byte[][] payloads) {
+        long total = 0;
+        for (byte[] payload : payloads) {
+            total += payload.length;
+        }
+        return (double) total / payloads.length;
+    }
+}
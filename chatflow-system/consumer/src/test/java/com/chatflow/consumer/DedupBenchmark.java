@@ -0,0 +1,174 @@
+package com.chatflow.consumer;
+
+import com.chatflow.common.DedupWindow;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memory per remembered message and time per lookup for the dedup window
+ * against the maps it replaces: ID strings mapped to Instant.now().toString()
+ * (the original), and boxed longs mapped to epoch millis. One in ten lookups
+ * repeats a recent ID, like a redelivery. The maps are measured unbounded for
+ * memory; for time they clear at 10,000 entries, as the original did. Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass="com.chatflow.consumer.DedupBenchmark"
+ */
+public class DedupBenchmark {
+    private static final int MEMORY_ENTRIES = 200_000;
+    private static final int WARMUP_LOOKUPS = 2_000_000;
+    private static final int MEASURED_LOOKUPS = 10_000_000;
+    private static final int REPEAT_EVERY = 10;
+    // Redeliveries come back within this many messages
+    private static final int REPEAT_DISTANCE = 5_000;
+    private static final int ORIGINAL_CLEAR_AT = 10_000;
+
+    // Sink so the JIT cannot drop the work
+    private static long blackhole;
+
+    public static void main(String[] args) throws Exception {
+        int capacity = ConsumerConfig.DEDUP_CAPACITY;
+        long window = ConsumerConfig.DEDUP_WINDOW_MS;
+
+        System.out.println("=== Dedup Benchmark ===");
+        System.out.println("Window " + window + " ms, capacity " + capacity + "; " + MEMORY_ENTRIES
+                + " entries for memory, " + MEASURED_LOOKUPS + " lookups, 1 in " + REPEAT_EVERY + " repeated");
+        System.out.printf("%-28s %14s %12s %12s%n", "Store", "bytes/message", "ns/lookup", "duplicates");
+
+        long[] ids = ids(MEASURED_LOOKUPS + WARMUP_LOOKUPS);
+
+        // Memory
+        long original = measureMemory(() -> {
+            Map<String, String> map = new ConcurrentHashMap<>();
+            for (int i = 0; i < MEMORY_ENTRIES; i++) {
+                map.putIfAbsent(Long.toString(ids[i]), Instant.now().toString());
+            }
+            return map;
+        });
+        long boxed = measureMemory(() -> {
+            Map<Long, Long> map = new ConcurrentHashMap<>();
+            for (int i = 0; i < MEMORY_ENTRIES; i++) {
+                map.putIfAbsent(ids[i], System.currentTimeMillis());
+            }
+            return map;
+        });
+        long windowed = measureMemory(() -> {
+            DedupWindow dedup = new DedupWindow(MEMORY_ENTRIES, window);
+            for (int i = 0; i < MEMORY_ENTRIES; i++) {
+                dedup.checkAndAdd(ids[i]);
+            }
+            return dedup;
+        });
+
+        // Time
+        print("String map (original)", original, time(ids, new OriginalMap()));
+        print("Long map", boxed, time(ids, new BoxedMap()));
+        DedupWindow dedup = new DedupWindow(capacity, window);
+        print("DedupWindow", windowed, time(ids, dedup::checkAndAdd));
+        System.out.println("DedupWindow preallocates " + dedup.getMemoryBytes() / 1024 + " KB for " + capacity
+                + " IDs, evicted before the window ended: " + dedup.getEvictedEarly());
+        System.out.println("(blackhole " + blackhole + ")");
+    }
+
+    private static void print(String store, long bytes, Result result) {
+        System.out.printf("%-28s %14.1f %12.1f %12d%n", store, (double) bytes / MEMORY_ENTRIES,
+                (double) result.elapsedNanos / MEASURED_LOOKUPS, result.duplicates);
+    }
+
+    // Time-ordered like the servers' IDs: millis in the high bits, a counter below
+    private static long[] ids(int count) {
+        Random random = new Random(7);
+        long[] ids = new long[count];
+        long millis = System.currentTimeMillis();
+        int counter = 0;
+        for (int i = 0; i < count; i++) {
+            if (i % REPEAT_EVERY == REPEAT_EVERY - 1 && i > REPEAT_DISTANCE) {
+                ids[i] = ids[i - 1 - random.nextInt(REPEAT_DISTANCE)];
+                continue;
+            }
+            if (++counter == 1 << 12) {
+                counter = 0;
+                millis++;
+            }
+            ids[i] = (millis << 22) | ((long) random.nextInt(1 << 10) << 12) | counter;
+        }
+        return ids;
+    }
+
+    private interface Store {
+        boolean checkAndAdd(long id);
+    }
+
+    private static Result time(long[] ids, Store store) {
+        for (int i = 0; i < WARMUP_LOOKUPS; i++) {
+            blackhole += store.checkAndAdd(ids[i]) ? 1 : 0;
+        }
+        long duplicates = 0;
+        long start = System.nanoTime();
+        for (int i = WARMUP_LOOKUPS; i < ids.length; i++) {
+            if (store.checkAndAdd(ids[i])) {
+                duplicates++;
+            }
+        }
+        return new Result(System.nanoTime() - start, duplicates);
+    }
+
+    private interface Filler {
+        Object fill();
+    }
+
+    // Heap retained by whatever the filler builds
+    private static long measureMemory(Filler filler) throws InterruptedException {
+        long before = usedAfterGc();
+        Object store = filler.fill();
+        long after = usedAfterGc();
+        blackhole += store.hashCode() & 1;
+        return after - before;
+    }
+
+    private static long usedAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static final class Result {
+        final long elapsedNanos;
+        final long duplicates;
+
+        Result(long elapsedNanos, long duplicates) {
+            this.elapsedNanos = elapsedNanos;
+            this.duplicates = duplicates;
+        }
+    }
+
+    private static final class OriginalMap implements Store {
+        private final Map<String, String> seen = new ConcurrentHashMap<>();
+
+        @Override
+        public boolean checkAndAdd(long id) {
+            String existing = seen.putIfAbsent(Long.toString(id), Instant.now().toString());
+            if (seen.size() > ORIGINAL_CLEAR_AT) {
+                seen.clear();
+            }
+            return existing != null;
+        }
+    }
+
+    private static final class BoxedMap implements Store {
+        private final Map<Long, Long> seen = new ConcurrentHashMap<>();
+
+        @Override
+        public boolean checkAndAdd(long id) {
+            Long existing = seen.putIfAbsent(id, System.currentTimeMillis());
+            if (seen.size() > ORIGINAL_CLEAR_AT) {
+                seen.clear();
+            }
+            return existing != null;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.chatflow.server;
+
+import org.java_websocket.WebSocket;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-connection limit on in-flight publishes, i.e. messages accepted from a
+ * client whose ACK or ERROR has not been sent yet. A connection that reaches
+ * the high watermark is throttled, and its messages are answered with
+ * THROTTLE instead of being published, until it drains to the low watermark.
+ * One fast client therefore backs off on its own instead of filling the
+ * shared channel pool and ring buffers for everyone.
+ *
+ * Server-wide figures are summed over the open connections when asked for,
+ * so publishes completing after their connection closed need no bookkeeping.
+ */
+public class BackpressureMonitor {
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final Map<WebSocket, ConnectionState> connections = new ConcurrentHashMap<>();
+
+    private final AtomicLong throttleEvents = new AtomicLong(0);
+    private final AtomicLong throttledMessages = new AtomicLong(0);
+
+    // A high watermark of 0 or less disables throttling, in-flight is still tracked
+    public BackpressureMonitor(int highWatermark, int lowWatermark) {
+        this.highWatermark = highWatermark;
+        this.lowWatermark = Math.max(0, Math.min(lowWatermark, highWatermark));
+    }
+
+    public ConnectionState register(WebSocket conn) {
+        ConnectionState state = new ConnectionState();
+        connections.put(conn, state);
+        return state;
+    }
+
+    public void unregister(WebSocket conn) {
+        connections.remove(conn);
+    }
+
+    // Null once the connection has closed
+    public ConnectionState get(WebSocket conn) {
+        return connections.get(conn);
+    }
+
+    /**
+     * Reserves an in-flight slot, or returns false if the connection is
+     * throttled. Each successful call must be matched by one release.
+     */
+    public boolean tryAcquire(ConnectionState state) {
+        if (highWatermark <= 0) {
+            state.inFlight.incrementAndGet();
+            return true;
+        }
+
+        if (state.throttled) {
+            if (state.inFlight.get() > lowWatermark) {
+                throttledMessages.incrementAndGet();
+                return false;
+            }
+            state.throttled = false;
+        }
+
+        if (state.inFlight.incrementAndGet() > highWatermark) {
+            state.inFlight.decrementAndGet();
+            if (!state.throttled) {
+                state.throttled = true;
+                throttleEvents.incrementAndGet();
+            }
+            throttledMessages.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public void release(ConnectionState state) {
+        if (state != null) {
+            state.inFlight.decrementAndGet();
+        }
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    public long getTotalInFlight() {
+        long total = 0;
+        for (ConnectionState state : connections.values()) {
+            total += state.inFlight.get();
+        }
+        return total;
+    }
+
+    public int getThrottledConnections() {
+        int throttled = 0;
+        for (ConnectionState state : connections.values()) {
+            if (state.throttled) {
+                throttled++;
+            }
+        }
+        return throttled;
+    }
+
+    public long getThrottleEvents() { return throttleEvents.get(); }
+    public long getThrottledMessages() { return throttledMessages.get(); }
+    public int getHighWatermark() { return highWatermark; }
+    public int getLowWatermark() { return lowWatermark; }
+
+    public void printMetrics() {
+        System.out.println("\n=== Backpressure ===");
+        System.out.println("Watermarks: high=" + highWatermark + ", low=" + lowWatermark);
+        System.out.println("In-Flight: " + getTotalInFlight() + " across " + getConnectionCount() + " connections");
+        System.out.println("Throttled Connections: " + getThrottledConnections());
+        System.out.println("Throttle Events: " + getThrottleEvents() + ", Throttled Messages: " + getThrottledMessages());
+    }
+
+    // Messages on one connection are handled by one worker thread at a time,
+    // so only the in-flight count, which publisher threads release, is atomic
+    public static class ConnectionState {
+        private final AtomicInteger inFlight = new AtomicInteger(0);
+        private volatile boolean throttled;
+
+        public int getInFlight() { return inFlight.get(); }
+        public boolean isThrottled() { return throttled; }
+    }
+}
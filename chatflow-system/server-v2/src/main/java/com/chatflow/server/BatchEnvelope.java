@@ -0,0 +1,45 @@
+package com.chatflow.server;
+
+import com.rabbitmq.client.AMQP;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wire format for a batch of queue messages sent as one AMQP message:
+ * a 4-byte message count followed by each message as a 4-byte length and
+ * its JSON bytes. Consumers recognise it by content type.
+ */
+public final class BatchEnvelope {
+    public static final String CONTENT_TYPE = "application/vnd.chatflow.batch";
+    public static final String BATCH_SIZE_HEADER = "x-batch-size";
+
+    private BatchEnvelope() {}
+
+    public static byte[] encode(List<byte[]> messages) {
+        int size = 4;
+        for (byte[] message : messages) {
+            size += 4 + message.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(messages.size());
+        for (byte[] message : messages) {
+            buffer.putInt(message.length);
+            buffer.put(message);
+        }
+        return buffer.array();
+    }
+
+    public static AMQP.BasicProperties properties(int messageCount) {
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(BATCH_SIZE_HEADER, messageCount);
+        return new AMQP.BasicProperties.Builder()
+                .contentType(CONTENT_TYPE)
+                .deliveryMode(2) // persistent
+                .headers(headers)
+                .build();
+    }
+}
@@ -0,0 +1,24 @@
+package com.chatflow.server;
+
+import com.chatflow.common.ChatLogger;
+
+/**
+ * How {@link BatchingPublisher} flushes a room batch.
+ */
+public enum BatchMode {
+    // One basicPublish per message (no batching)
+    OFF,
+    // One AMQP message carrying a length-prefixed batch
+    ENVELOPE,
+    // One basicPublish per message, back to back on a single channel
+    BURST;
+
+    public static BatchMode fromString(String value) {
+        try {
+            return BatchMode.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            ChatLogger.getLogger(BatchMode.class).warn("Unknown batch mode {}, batching disabled", value);
+            return OFF;
+        }
+    }
+}
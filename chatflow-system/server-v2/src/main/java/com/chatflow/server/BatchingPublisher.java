@@ -0,0 +1,305 @@
+package com.chatflow.server;
+
+import com.chatflow.common.ChatLogger;
+
+import com.rabbitmq.client.AMQP;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects messages per routing key (a room, or a shard shared by many rooms)
+ * and publishes them together, either as a single envelope message or as a
+ * burst on one channel. Burst messages keep their room's properties; an
+ * envelope carries its room IDs in the message bodies. A batch is
+ * flushed by the thread that fills it, or by the linger timer once its oldest
+ * message has waited long enough. Each caller gets a future that completes
+ * when its batch has been published (and confirmed, in confirm mode).
+ *
+ * Flushes of one routing key take turns and go out on the key's ordered
+ * channel, so its batches reach the broker in the order they were filled.
+ * The timer only sees batches that hold messages, oldest first, and a key
+ * that has sent nothing for IDLE_NANOS gives up its batch.
+ */
+public class BatchingPublisher {
+    private static final ChatLogger log = ChatLogger.getLogger(BatchingPublisher.class);
+    // Lazily declared rooms come and go; an idle room's empty batch is dropped after this
+    private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final RabbitMQManager rabbitMQManager;
+    private final BatchMode mode;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final Map<String, RoomBatch> batches = new ConcurrentHashMap<>();
+    // Batches that went from empty to holding messages, in that order; the timer flushes them when due
+    private final Queue<Deadline> lingering = new ConcurrentLinkedQueue<>();
+    // Batches flushed empty, checked for eviction once they may have gone idle
+    private final Queue<Deadline> idleChecks = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService lingerTimer;
+
+    private final AtomicLong batchesFlushed = new AtomicLong(0);
+    private final AtomicLong messagesBatched = new AtomicLong(0);
+    private final AtomicLong sizeFlushes = new AtomicLong(0);
+    private final AtomicLong lingerFlushes = new AtomicLong(0);
+    private final AtomicLong closeFlushes = new AtomicLong(0);
+    private final AtomicLong batchesEvicted = new AtomicLong(0);
+
+    public BatchingPublisher(RabbitMQManager rabbitMQManager, BatchMode mode,
+                             int batchSize, long lingerMicros) {
+        this.rabbitMQManager = rabbitMQManager;
+        this.mode = mode;
+        this.batchSize = Math.max(1, batchSize);
+        this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(lingerMicros);
+
+        this.lingerTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "batch-linger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long tickMicros = Math.max(100, lingerMicros / 2);
+        lingerTimer.scheduleAtFixedRate(this::flushExpired, tickMicros, tickMicros, TimeUnit.MICROSECONDS);
+
+        log.info("Batching publisher enabled: mode={}, size={}, linger={}us", mode, this.batchSize, lingerMicros);
+    }
+
+    public CompletableFuture<Void> add(RoomRoute route, byte[] body) {
+        CompletableFuture<Void> published = new CompletableFuture<>();
+        while (true) {
+            RoomBatch batch = batches.computeIfAbsent(route.getRoutingKey(), RoomBatch::new);
+            Deadline due = null;
+            boolean full;
+            synchronized (batch) {
+                if (batch.retired) {
+                    continue; // evicted meanwhile, its replacement is in the map
+                }
+                long now = System.nanoTime();
+                if (batch.size() == 0) {
+                    due = new Deadline(batch, batch.epoch, now + lingerNanos);
+                }
+                batch.append(route.getProperties(), body, published, now);
+                full = batch.size() >= batchSize;
+            }
+            if (due != null) {
+                lingering.add(due);
+            }
+            if (full) {
+                flushBatch(batch, -1, sizeFlushes);
+            }
+            return published;
+        }
+    }
+
+    // Flushes everything regardless of age, used on shutdown
+    public void close() {
+        lingerTimer.shutdown();
+        for (RoomBatch batch : batches.values()) {
+            flushBatch(batch, -1, closeFlushes);
+        }
+    }
+
+    // Only looks at batches that are due, so idle rooms cost the timer nothing
+    private void flushExpired() {
+        long now = System.nanoTime();
+        Deadline due;
+        while ((due = lingering.peek()) != null && now - due.dueNanos >= 0) {
+            lingering.poll();
+            flushBatch(due.batch, due.epoch, lingerFlushes);
+        }
+        while ((due = idleChecks.peek()) != null && now - due.dueNanos >= 0) {
+            idleChecks.poll();
+            evictIfIdle(due.batch, now);
+        }
+    }
+
+    /**
+     * Drains and publishes the batch, unless epoch is given and the batch
+     * has been drained since (its deadline is stale). Flushes of one key hold
+     * its flush lock from drain to publish, so they go out in drain order.
+     */
+    private void flushBatch(RoomBatch batch, long epoch, AtomicLong trigger) {
+        synchronized (batch.flushLock) {
+            PendingBatch ready;
+            Deadline idleCheck = null;
+            synchronized (batch) {
+                if (epoch >= 0 && batch.epoch != epoch) {
+                    return;
+                }
+                ready = batch.drain();
+                if (ready != null && !batch.idleCheckQueued) {
+                    batch.idleCheckQueued = true;
+                    idleCheck = new Deadline(batch, 0, batch.lastAddNanos + IDLE_NANOS);
+                }
+            }
+            if (idleCheck != null) {
+                idleChecks.add(idleCheck);
+            }
+            if (ready != null) {
+                trigger.incrementAndGet();
+                flush(ready);
+            }
+        }
+    }
+
+    private void evictIfIdle(RoomBatch batch, long now) {
+        Deadline next;
+        synchronized (batch) {
+            batch.idleCheckQueued = false;
+            if (batch.size() > 0) {
+                return; // its next flush queues another check
+            }
+            if (now - batch.lastAddNanos >= IDLE_NANOS) {
+                batch.retired = true;
+                batches.remove(batch.routingKey, batch);
+                batchesEvicted.incrementAndGet();
+                return;
+            }
+            batch.idleCheckQueued = true;
+            next = new Deadline(batch, 0, batch.lastAddNanos + IDLE_NANOS);
+        }
+        idleChecks.add(next);
+    }
+
+    // Publishes on the key's ordered channel; a caller's future fails only if its message was not sent
+    private void flush(PendingBatch batch) {
+        int size = batch.bodies.size();
+        int sent = 0;
+        try {
+            if (mode == BatchMode.ENVELOPE) {
+                CompletableFuture<Void> confirmed = rabbitMQManager.publishOrdered(batch.routingKey,
+                        BatchEnvelope.properties(size), BatchEnvelope.encode(batch.bodies));
+                sent = size;
+                confirmed.whenComplete((ignored, error) -> batch.completeFrom(0, error));
+            } else {
+                for (; sent < size; sent++) {
+                    CompletableFuture<Void> target = batch.futures.get(sent);
+                    rabbitMQManager.publishOrdered(batch.routingKey,
+                            batch.properties.get(sent), batch.bodies.get(sent))
+                            .whenComplete((ignored, error) -> complete(target, error));
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error flushing batch for {}: {}", batch.routingKey, e.getMessage());
+            // Those already sent are on the wire and complete on their own confirms
+            batch.completeFrom(sent, e);
+        }
+        if (sent > 0) {
+            batchesFlushed.incrementAndGet();
+            messagesBatched.addAndGet(sent);
+            rabbitMQManager.getMetrics().addMessagesPublished(sent);
+        }
+    }
+
+    private static void complete(CompletableFuture<Void> future, Throwable error) {
+        if (error == null) {
+            future.complete(null);
+        } else {
+            future.completeExceptionally(error);
+        }
+    }
+
+    public long getBatchesFlushed() { return batchesFlushed.get(); }
+    public long getMessagesBatched() { return messagesBatched.get(); }
+    public long getSizeFlushes() { return sizeFlushes.get(); }
+    public long getLingerFlushes() { return lingerFlushes.get(); }
+    public long getBatchesEvicted() { return batchesEvicted.get(); }
+    public int getBatchCount() { return batches.size(); }
+
+    public void printMetrics() {
+        long flushed = getBatchesFlushed();
+        System.out.println("\n=== Batching Publisher (" + mode + ") ===");
+        System.out.println("Batches Flushed: " + flushed);
+        System.out.println("Messages Batched: " + getMessagesBatched());
+        System.out.println("Average Batch Size: " +
+                String.format("%.2f", flushed == 0 ? 0.0 : (double) getMessagesBatched() / flushed));
+        System.out.println("Size Triggered: " + getSizeFlushes() + ", Linger Triggered: " + getLingerFlushes());
+        System.out.println("Open Batches: " + getBatchCount() + " (evicted when idle: " + getBatchesEvicted() + ")");
+    }
+
+    // Open batch for one routing key, guarded by its own monitor
+    private static class RoomBatch {
+        final String routingKey;
+        // Held from drain to publish, see flushBatch
+        final Object flushLock = new Object();
+        List<AMQP.BasicProperties> properties = new ArrayList<>();
+        List<byte[]> bodies = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        // Counts drains, so a deadline can tell it is for contents already flushed
+        long epoch;
+        long lastAddNanos;
+        boolean idleCheckQueued;
+        // Evicted from the map, appends go to its replacement
+        boolean retired;
+
+        RoomBatch(String routingKey) {
+            this.routingKey = routingKey;
+        }
+
+        int size() {
+            return bodies.size();
+        }
+
+        void append(AMQP.BasicProperties messageProperties, byte[] body,
+                    CompletableFuture<Void> future, long now) {
+            properties.add(messageProperties);
+            bodies.add(body);
+            futures.add(future);
+            lastAddNanos = now;
+        }
+
+        PendingBatch drain() {
+            if (bodies.isEmpty()) {
+                return null;
+            }
+            epoch++;
+            PendingBatch ready = new PendingBatch(routingKey, properties, bodies, futures);
+            properties = new ArrayList<>(ready.bodies.size());
+            bodies = new ArrayList<>(ready.bodies.size());
+            futures = new ArrayList<>(ready.bodies.size());
+            return ready;
+        }
+    }
+
+    // Batch taken out of its RoomBatch, owned by the flushing thread
+    private static class PendingBatch {
+        final String routingKey;
+        final List<AMQP.BasicProperties> properties;
+        final List<byte[]> bodies;
+        final List<CompletableFuture<Void>> futures;
+
+        PendingBatch(String routingKey, List<AMQP.BasicProperties> properties,
+                     List<byte[]> bodies, List<CompletableFuture<Void>> futures) {
+            this.routingKey = routingKey;
+            this.properties = properties;
+            this.bodies = bodies;
+            this.futures = futures;
+        }
+
+        void completeFrom(int first, Throwable error) {
+            for (int i = first; i < futures.size(); i++) {
+                complete(futures.get(i), error);
+            }
+        }
+    }
+
+    // When a batch is due to be flushed or checked for eviction
+    private static final class Deadline {
+        final RoomBatch batch;
+        final long epoch;
+        final long dueNanos;
+
+        Deadline(RoomBatch batch, long epoch, long dueNanos) {
+            this.batch = batch;
+            this.epoch = epoch;
+            this.dueNanos = dueNanos;
+        }
+    }
+}
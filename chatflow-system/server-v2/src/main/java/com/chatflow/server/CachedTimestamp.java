@@ -0,0 +1,36 @@
+package com.chatflow.server;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * ISO-8601 server timestamp cached at millisecond granularity. Under load
+ * many responses go out within the same millisecond; they all reuse one
+ * encoded byte array instead of formatting an Instant each time.
+ */
+public final class CachedTimestamp {
+    private static volatile Snapshot current = new Snapshot(0L);
+
+    private CachedTimestamp() {}
+
+    public static byte[] currentBytes() {
+        long now = System.currentTimeMillis();
+        Snapshot snapshot = current;
+        if (snapshot.millis != now) {
+            // Racing threads may each format the same millisecond, which is harmless
+            snapshot = new Snapshot(now);
+            current = snapshot;
+        }
+        return snapshot.bytes;
+    }
+
+    private static final class Snapshot {
+        final long millis;
+        final byte[] bytes;
+
+        Snapshot(long millis) {
+            this.millis = millis;
+            this.bytes = Instant.ofEpochMilli(millis).toString().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+}
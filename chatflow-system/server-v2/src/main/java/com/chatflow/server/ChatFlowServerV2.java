@@ -1,203 +1,608 @@
 package com.chatflow.server;
 
+import com.chatflow.common.BinaryCodec;
+import com.chatflow.common.BoundedExecutor;
+import com.chatflow.common.ChatLogger;
+import com.chatflow.common.InMemoryBroker;
+import com.chatflow.common.MessagePublisher;
+import com.chatflow.common.MessageSubscriber;
+import com.chatflow.common.PrometheusWriter;
+import com.chatflow.common.VirtualThreads;
+import com.chatflow.common.WebSocketDrafts;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.java_websocket.WebSocket;
+import org.java_websocket.framing.CloseFrame;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.net.InetSocketAddress;
-import java.time.Instant;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
 
 public class ChatFlowServerV2 extends WebSocketServer {
-    private ObjectMapper objectMapper;
-    private Map<WebSocket, String> connectionRooms = new ConcurrentHashMap<>();
-    private RabbitMQManager rabbitMQManager;
+    private static final ChatLogger log = ChatLogger.getLogger(ChatFlowServerV2.class);
+    // Per-message events, sampled so they cannot dominate CPU under load
+    private static final ChatLogger perMessageLog = log.sampled();
+
+    // Room IDs become queue names and routing keys, so no dots or topic wildcards
+    private static final Pattern ROOM_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final String THROTTLE_MESSAGE = "Too many messages in flight, slow down";
+    private static final String DRAIN_MESSAGE = "Server restarting, reconnect elsewhere";
+    private static final long LOG_FLUSH_TIMEOUT_MILLIS = 2000;
+
+    private StreamingMessageValidator validator;
+    private ResponseEncoder responseEncoder;
+    private MessagePublisher broker;
+    private ObjectMapper objectMapper = new ObjectMapper();
+    private RoomSequences roomSequences = new RoomSequences();
+    private PublishStage publishStage;
+    // True when each room has one publisher thread with a channel of its own, so numbering needs no lock
+    private boolean publishOrderedByRoom;
+    private BackpressureMonitor backpressure;
+    private RateLimiter rateLimiter; // null when no limit is configured
+    private MessageIdGenerator messageIds;
+    // Null when messages are handled on the decoder threads
+    private BoundedExecutor messageTasks;
     private String serverId;
+    private volatile boolean draining;
+    private final AtomicLong drainRejected = new AtomicLong(0);
+
+    // Server-wide figures for /metrics, per-connection ones are in ConnectionContext
+    private final LongAdder received = new LongAdder();
+    private final LongAdder acked = new LongAdder();
+    private final LongAdder publishErrors = new LongAdder();
+    // Keyed by ValidationResult reason, a fixed set
+    private final Map<String, LongAdder> validationRejects = new ConcurrentHashMap<>();
+    // From handing a message to the broker until it can be ACKed
+    private final LatencyHistogram publishLatency = new LatencyHistogram();
 
     public ChatFlowServerV2(int port) throws Exception {
-        super(new InetSocketAddress(port));
-        this.objectMapper = new ObjectMapper();
+        this(port, createBroker());
+    }
+
+    public ChatFlowServerV2(int port, MessagePublisher broker) throws Exception {
+        super(new InetSocketAddress(port), ServerConfig.DECODER_THREADS,
+                WebSocketDrafts.serverDrafts(ServerConfig.WS_COMPRESSION,
+                        ServerConfig.WS_COMPRESSION_THRESHOLD, ServerConfig.WS_CONTEXT_TAKEOVER));
+        this.validator = new StreamingMessageValidator();
+        this.responseEncoder = new ResponseEncoder();
         this.serverId = "server-" + System.currentTimeMillis();
-        this.rabbitMQManager = new RabbitMQManager(10); // Pool of 10 channels
-        System.out.println("ChatFlow Server V2 created on port " + port);
-        System.out.println("Server ID: " + serverId);
+        this.messageIds = new MessageIdGenerator(MessageIdGenerator.resolveNodeId(ServerConfig.NODE_ID));
+        this.broker = broker;
+        this.backpressure = new BackpressureMonitor(
+                ServerConfig.INFLIGHT_HIGH_WATERMARK, ServerConfig.INFLIGHT_LOW_WATERMARK);
+        RateLimiter limiter = new RateLimiter(
+                RateLimit.parse(ServerConfig.USER_RATE_LIMIT),
+                RateLimit.parseRoomLimits(ServerConfig.ROOM_RATE_LIMITS),
+                RateLimit.parse(ServerConfig.CONNECTION_RATE_LIMIT));
+        this.rateLimiter = limiter.isEnabled() ? limiter : null;
+        if (ServerConfig.VIRTUAL_THREADS) {
+            this.messageTasks = new BoundedExecutor("Message",
+                    VirtualThreads.newExecutor("message-"), ServerConfig.VIRTUAL_MAX_CONCURRENCY);
+            log.info("Messages handled on virtual threads, at most {} at once", ServerConfig.VIRTUAL_MAX_CONCURRENCY);
+        }
+
+        if (ServerConfig.PUBLISH_STAGE) {
+            boolean roomOrdered = "room".equalsIgnoreCase(ServerConfig.PUBLISH_ORDERING);
+            if (!roomOrdered && messageTasks != null) {
+                // Connection ordering gives each producing thread a ring, and virtual threads come and go
+                log.warn("Connection publish ordering needs platform threads, using room ordering");
+                roomOrdered = true;
+            }
+            this.publishStage = new PublishStage(
+                    ServerConfig.DECODER_THREADS,
+                    ServerConfig.RING_SIZE,
+                    ServerConfig.PUBLISHER_THREADS,
+                    WaitStrategy.fromName(ServerConfig.WAIT_STRATEGY),
+                    QueueFullPolicy.fromString(ServerConfig.QUEUE_FULL_POLICY),
+                    roomOrdered,
+                    event -> publishAndAck(event.getConnection(), event.getQueueMessage())
+            );
+            // Without affinity the thread's channel changes per message, so rooms take the locked path
+            this.publishOrderedByRoom = roomOrdered && ServerConfig.CHANNEL_AFFINITY;
+        } else {
+            log.info("Publish stage disabled, rooms publish in order under per-room locks");
+        }
+        log.info("ChatFlow Server V2 created on port {}", port);
+        if (ServerConfig.WS_COMPRESSION) {
+            log.info("permessage-deflate enabled: threshold={} bytes, contextTakeover={}",
+                    ServerConfig.WS_COMPRESSION_THRESHOLD, ServerConfig.WS_CONTEXT_TAKEOVER);
+        }
+        log.info("Server ID: {}, message ID node: {}", serverId, messageIds.getNodeId());
+    }
+
+    // The configured broker; an in-memory one gets a subscriber that acks and
+    // discards everything, so only ingress is measured
+    private static MessagePublisher createBroker() throws Exception {
+        if (!"memory".equalsIgnoreCase(ServerConfig.BROKER)) {
+            return new RabbitMQManager(ServerConfig.CHANNEL_POOL_SIZE);
+        }
+        InMemoryBroker memoryBroker = new InMemoryBroker(ServerConfig.MEMORY_QUEUE_CAPACITY,
+                ServerConfig.MEMORY_DISPATCH_THREADS);
+        memoryBroker.onRoomCreated(roomId -> {
+            try {
+                memoryBroker.subscribe(MessageSubscriber.roomQueue(roomId), memoryBroker::ack);
+            } catch (Exception e) {
+                log.error("Could not drain in-memory room {}: {}", roomId, e.getMessage());
+            }
+        });
+        log.info("Using the in-memory broker, published messages are discarded");
+        return memoryBroker;
     }
 
     @Override
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        if (draining) {
+            conn.close(CloseFrame.TRY_AGAIN_LATER, DRAIN_MESSAGE);
+            return;
+        }
         String uri = handshake.getResourceDescriptor();
         String roomId = extractRoomId(uri);
 
         if (roomId != null) {
-            connectionRooms.put(conn, roomId);
-            System.out.println("Client connected to room: " + roomId + " from " + conn.getRemoteSocketAddress());
+            // A serial lane keeps each connection's messages in order on the virtual threads
+            ConnectionContext context = new ConnectionContext(roomId,
+                    conn.getRemoteSocketAddress().getAddress().getHostAddress(),
+                    WebSocketDrafts.isBinary(conn),
+                    roomSequences.counter(roomId),
+                    backpressure.register(conn),
+                    messageTasks == null ? null : messageTasks.serial());
+            conn.setAttachment(context);
+            log.info("Client connected to room: {} from {} ({})", roomId, context.getClientIp(),
+                    context.isBinary() ? BinaryCodec.PROTOCOL : "json");
         } else {
-            System.out.println("Client connected without valid room");
+            log.warn("Client connected without valid room");
             conn.close(1008, "Invalid room path");
         }
     }
 
     @Override
     public void onMessage(WebSocket conn, String message) {
-        System.out.println("Received message: " + message);
+        perMessageLog.info("Received message: {}", message);
+        ConnectionContext context = conn.getAttachment();
+        dispatch(conn, context, () -> handleText(conn, context, message));
+    }
 
+    private void handleText(WebSocket conn, ConnectionContext context, String message) {
         try {
-            // Parse the incoming message
-            ChatMessage chatMessage = objectMapper.readValue(message, ChatMessage.class);
-            String roomId = connectionRooms.get(conn);
-
-            // Validate the message
-            String validationError = validateMessage(chatMessage);
-
-            if (validationError != null) {
-                sendErrorResponse(conn, validationError);
-            } else {
-                // Create queue message
-                String clientIp = conn.getRemoteSocketAddress().getAddress().getHostAddress();
-                QueueMessage queueMessage = new QueueMessage(chatMessage, roomId, serverId, clientIp);
+            // Parse and validate in one pass, rejected frames never build a ChatMessage
+            handleValidated(conn, context, validator.parse(message));
+        } catch (Exception e) {
+            log.error("Error processing message", e);
+            sendErrorResponse(conn, "Failed to process message");
+        }
+    }
 
-                // Publish to RabbitMQ instead of echoing
-                rabbitMQManager.publishMessage(queueMessage);
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        perMessageLog.info("Received binary message: {} bytes", message.remaining());
+        // The frame owns its payload buffer, so it can be parsed after this returns
+        ConnectionContext context = conn.getAttachment();
+        dispatch(conn, context, () -> handleBinary(conn, context, message));
+    }
 
-                // Send acknowledgment to client
-                sendAckResponse(conn, queueMessage);
+    private void handleBinary(WebSocket conn, ConnectionContext context, ByteBuffer message) {
+        try {
+            if (context != null && !context.isBinary()) {
+                sendErrorResponse(conn, "Binary frames require the " + BinaryCodec.PROTOCOL + " subprotocol");
+                return;
             }
-
+            handleValidated(conn, context, validator.parse(message));
         } catch (Exception e) {
-            System.out.println("Error processing message: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error processing binary message", e);
             sendErrorResponse(conn, "Failed to process message");
         }
     }
 
-    @Override
-    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-        String roomId = connectionRooms.remove(conn);
-        System.out.println("Client disconnected from room: " + roomId + ": " + conn.getRemoteSocketAddress());
+    // Inline on the decoder thread, or queued behind the connection's earlier messages
+    private void dispatch(WebSocket conn, ConnectionContext context, Runnable work) {
+        Executor tasks = context == null ? null : context.getTasks();
+        if (tasks == null) {
+            work.run();
+            return;
+        }
+        try {
+            tasks.execute(work);
+        } catch (RejectedExecutionException e) {
+            work.run(); // shut down by drain, which only answers THROTTLE now
+        }
     }
 
-    @Override
-    public void onError(WebSocket conn, Exception ex) {
-        System.out.println("Error occurred: " + ex.getMessage());
-        ex.printStackTrace();
-    }
+    private void handleValidated(WebSocket conn, ConnectionContext context, ValidationResult result) {
+        if (context == null || !conn.isOpen()) {
+            return; // refused in onOpen, or closed while the frame was being decoded
+        }
+        context.recordReceived();
+        received.increment();
+        if (!result.isValid()) {
+            validationRejects.computeIfAbsent(result.getReason(), k -> new LongAdder()).increment();
+            sendErrorResponse(conn, result.getError());
+            return;
+        }
 
-    @Override
-    public void onStart() {
-        System.out.println("ChatFlow Server V2 started successfully!");
+        BackpressureMonitor.ConnectionState pressure = context.getPressure();
+        if (draining) {
+            // Not published; the client resends it after reconnecting
+            drainRejected.incrementAndGet();
+            sendThrottleResponse(conn, DRAIN_MESSAGE);
+            closeIfIdle(conn, pressure);
+            return;
+        }
+
+        ChatMessage chatMessage = result.getMessage();
+        String roomId = context.getRoomId();
+
+        if (rateLimiter != null) {
+            RateLimiter.Reason limited = rateLimiter.check(conn, roomId, chatMessage.getUserId());
+            if (limited != null) {
+                sendThrottleResponse(conn, limited.getMessage());
+                return;
+            }
+        }
+        if (!backpressure.tryAcquire(pressure)) {
+            sendThrottleResponse(conn, THROTTLE_MESSAGE);
+            return;
+        }
+
+        QueueMessage queueMessage = new QueueMessage(chatMessage, messageIds.nextId(), roomId, serverId,
+                context.getClientIp());
+
+        if (publishStage == null) {
+            publishAndAck(conn, queueMessage);
+        } else if (!publishStage.submit(conn, queueMessage)) {
+            backpressure.release(pressure);
+            sendErrorResponse(conn, "Server busy, message rejected");
+        }
     }
 
-    private String extractRoomId(String uri) {
-        if (uri != null && uri.startsWith("/chat/")) {
-            String roomId = uri.substring(6);
-            return roomId.isEmpty() ? null : roomId;
+    // Runs on a publisher thread, or on the worker (or virtual thread) when the stage is disabled
+    private void publishAndAck(WebSocket conn, QueueMessage queueMessage) {
+        ConnectionContext context = conn.getAttachment();
+        // Released even if the connection closed meanwhile; its count is gone with it
+        BackpressureMonitor.ConnectionState pressure = context.getPressure();
+        try {
+            // The ACK goes out once the broker has it (confirm mode) without
+            // blocking the calling thread
+            long publishStart = System.nanoTime();
+            CompletableFuture<Void> published;
+            if (publishOrderedByRoom) {
+                // This thread and its channel carry all of the room, so its sequences reach the broker in order
+                queueMessage.setSequence(context.nextSequence());
+                published = broker.publish(queueMessage.getRoomId(), objectMapper.writeValueAsBytes(queueMessage));
+            } else {
+                // Other threads publish to this room too: number and hand over in one step, on
+                // the room's ordered channel. Nothing under the lock waits for a pooled channel
+                synchronized (context.getRoomLock()) {
+                    queueMessage.setSequence(context.nextSequence());
+                    published = broker.publishOrdered(queueMessage.getRoomId(),
+                            objectMapper.writeValueAsBytes(queueMessage));
+                }
+            }
+            published.whenComplete((ignored, error) -> {
+                publishLatency.recordNanos(System.nanoTime() - publishStart);
+                backpressure.release(pressure);
+                if (error == null) {
+                    sendAckResponse(conn, queueMessage);
+                } else {
+                    publishErrors.increment();
+                    log.warn("Publish not confirmed for {}: {}", queueMessage.getMessageId(), error.getMessage());
+                    sendErrorResponse(conn, "Message not confirmed by broker");
+                }
+                if (draining) {
+                    closeIfIdle(conn, pressure);
+                }
+            });
+        } catch (Exception e) {
+            backpressure.release(pressure);
+            log.error("Error publishing message: {}", e.getMessage());
+            sendErrorResponse(conn, "Failed to process message");
         }
-        return null;
     }
 
-    private String validateMessage(ChatMessage msg) {
-        // Same validation logic as original server
-        if (msg.getUserId() == null) {
-            return "userId is required";
+    /**
+     * Drains the server for a restart: new connections are turned away, new
+     * messages are answered with THROTTLE, and each connection is closed with
+     * 1012 (service restart) as soon as its last in-flight message is ACKed,
+     * which includes broker confirms. (A client still writing when the close
+     * arrives may only see the socket reset, 1006; its THROTTLE replies
+     * already said to reconnect.) Whatever is still open at the deadline
+     * is closed anyway; those in-flight messages are reported as abandoned,
+     * their clients never got an ACK and will resend them.
+     */
+    public void drain(long timeoutMillis) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long deadline = start + timeoutMillis;
+        draining = true;
+        log.info("Draining {} connections with {} messages in flight",
+                backpressure.getConnectionCount(), backpressure.getTotalInFlight());
+
+        for (WebSocket conn : getConnections()) {
+            ConnectionContext context = conn.getAttachment();
+            closeIfIdle(conn, context == null ? null : context.getPressure());
+        }
+        while (backpressure.getConnectionCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        int remaining = backpressure.getConnectionCount();
+        long abandoned = backpressure.getTotalInFlight();
+        if (messageTasks != null) {
+            messageTasks.shutdown(Math.max(1, deadline - System.currentTimeMillis()));
+        }
+        if (publishStage != null) {
+            publishStage.stop(Math.max(1, deadline - System.currentTimeMillis()));
         }
         try {
-            int userId = Integer.parseInt(msg.getUserId());
-            if (userId < 1 || userId > 100000) {
-                return "userId must be between 1 and 100000";
-            }
-        } catch (NumberFormatException e) {
-            return "userId must be a valid number";
+            // Flushes lingering batches before the channels close
+            broker.close();
+        } catch (Exception e) {
+            log.error("Error closing broker: {}", e.getMessage());
         }
+        stop(1000);
 
-        if (msg.getUsername() == null) {
-            return "username is required";
+        System.out.println("\n=== Drain ===");
+        System.out.println("Duration: " + (System.currentTimeMillis() - start) + " ms (deadline " + timeoutMillis + " ms)");
+        System.out.println("Rejected While Draining: " + drainRejected.get());
+        System.out.println("Connections Closed At Deadline: " + remaining);
+        System.out.println("In-Flight Abandoned: " + abandoned);
+    }
+
+    private void closeIfIdle(WebSocket conn, BackpressureMonitor.ConnectionState pressure) {
+        if (pressure == null || pressure.getInFlight() == 0) {
+            conn.close(CloseFrame.SERVICE_RESTART, DRAIN_MESSAGE);
         }
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    public BackpressureMonitor getBackpressure() {
+        return backpressure;
+    }
 
-        if (msg.getUsername().length() < 3 || msg.getUsername().length() > 20) {
-            return "username must be between 3 and 20 characters";
+    // Why new clients should go elsewhere right now; empty when ready
+    public List<String> notReadyReasons() {
+        List<String> reasons = new ArrayList<>();
+        if (draining) {
+            reasons.add("draining");
+        }
+        if (!broker.isConnected()) {
+            reasons.add("broker disconnected");
         }
+        long backlog = backpressure.getTotalInFlight();
+        if (backlog > ServerConfig.READY_MAX_BACKLOG) {
+            reasons.add("backlog " + backlog + " over " + ServerConfig.READY_MAX_BACKLOG);
+        }
+        return reasons;
+    }
 
-        if (!msg.getUsername().matches("^[a-zA-Z0-9]+$")) {
-            return "username must be alphanumeric only";
+    public void writeMetrics(PrometheusWriter metrics) {
+        metrics.counter("chatflow_messages_received_total", "Frames received from clients", received.sum());
+        metrics.counter("chatflow_messages_acked_total", "Messages ACKed once the broker had them", acked.sum());
+        metrics.counter("chatflow_publish_errors_total", "Publishes the broker refused or lost", publishErrors.sum());
+
+        metrics.family("chatflow_validation_rejects_total", "counter", "Frames failing validation, by reason");
+        validationRejects.forEach((reason, count) ->
+                metrics.sample("chatflow_validation_rejects_total", count.sum(), "reason", reason));
+
+        metrics.family("chatflow_throttled_total", "counter", "Valid messages not published, by reason");
+        metrics.sample("chatflow_throttled_total", backpressure.getThrottledMessages(), "reason", "in_flight");
+        if (rateLimiter != null) {
+            for (RateLimiter.Reason reason : RateLimiter.Reason.values()) {
+                metrics.sample("chatflow_throttled_total", rateLimiter.getRejections(reason),
+                        "reason", reason.name().toLowerCase());
+            }
+        }
+        metrics.sample("chatflow_throttled_total", drainRejected.get(), "reason", "draining");
+        if (publishStage != null) {
+            metrics.sample("chatflow_throttled_total", publishStage.getRejected(), "reason", "publish_stage_full");
         }
 
-        if (msg.getMessage() == null) {
-            return "message is required";
+        publishLatency.writeMetrics(metrics, "chatflow_publish_latency_seconds",
+                "From handing a message to the broker until it can be ACKed");
+        metrics.gauge("chatflow_in_flight", "Messages accepted and not yet answered", backpressure.getTotalInFlight());
+        metrics.gauge("chatflow_throttled_connections", "Connections over the in-flight high watermark",
+                backpressure.getThrottledConnections());
+
+        Map<String, Integer> rooms = new TreeMap<>();
+        for (WebSocket conn : getConnections()) {
+            ConnectionContext context = conn.getAttachment();
+            if (context != null) {
+                rooms.merge(context.getRoomId(), 1, Integer::sum);
+            }
         }
+        metrics.family("chatflow_connections", "gauge", "Open client connections per room");
+        rooms.forEach((room, count) -> metrics.sample("chatflow_connections", count, "room", room));
 
-        if (msg.getMessage().length() < 1 || msg.getMessage().length() > 500) {
-            return "message must be 1-500 characters";
+        if (publishStage != null) {
+            metrics.gauge("chatflow_publish_stage_queued", "Messages waiting in the publish rings",
+                    publishStage.getQueuedCount());
+        }
+        if (messageTasks != null) {
+            metrics.gauge("chatflow_message_tasks_active", "Messages being handled on virtual threads",
+                    messageTasks.getActive());
+            metrics.counter("chatflow_message_tasks_blocked_total", "Reads that waited for a virtual thread slot",
+                    messageTasks.getCallerWaits());
         }
+        broker.writeMetrics(metrics);
+        metrics.counter("chatflow_log_lines_dropped_total", "Log lines dropped, buffer full or logger shut down",
+                ChatLogger.getDroppedCount());
+        metrics.jvm();
+    }
 
-        if (msg.getMessageType() == null) {
-            return "messageType is required";
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        ConnectionContext context = conn.getAttachment();
+        if (context == null) {
+            return; // refused in onOpen
+        }
+        backpressure.unregister(conn);
+        if (rateLimiter != null) {
+            rateLimiter.connectionClosed(conn);
         }
+        log.info("Client disconnected, {}", context);
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+        log.error("Error occurred: " + ex.getMessage(), ex);
+    }
 
-        if (msg.getTimestamp() == null) {
-            return "timestamp is required";
+    @Override
+    public void onStart() {
+        if (publishStage != null) {
+            publishStage.start();
         }
+        log.info("ChatFlow Server V2 started successfully!");
+    }
 
+    private String extractRoomId(String uri) {
+        if (uri != null && uri.startsWith("/chat/")) {
+            String roomId = uri.substring(6);
+            return ROOM_ID.matcher(roomId).matches() ? roomId : null;
+        }
         return null;
     }
 
     private void sendErrorResponse(WebSocket conn, String errorMessage) {
+        ConnectionContext context = conn.getAttachment();
+        if (context != null) {
+            context.recordRejected();
+        }
         try {
-            String errorJson = String.format(
-                    "{\"status\":\"ERROR\",\"message\":\"%s\",\"serverTimestamp\":\"%s\"}",
-                    errorMessage,
-                    Instant.now().toString()
-            );
-            conn.send(errorJson);
-            System.out.println("Sent error response: " + errorMessage);
+            if (isBinary(conn, context)) {
+                conn.send(BinaryCodec.encodeError(errorMessage, System.currentTimeMillis()));
+            } else {
+                responseEncoder.sendError(conn, errorMessage);
+            }
+            perMessageLog.info("Sent error response: {}", errorMessage);
         } catch (Exception e) {
-            System.out.println("Error sending error response: " + e.getMessage());
+            log.error("Error sending error response: {}", e.getMessage());
         }
     }
 
-    private void sendAckResponse(WebSocket conn, QueueMessage queueMessage) {
+    private void sendThrottleResponse(WebSocket conn, String message) {
+        ConnectionContext context = conn.getAttachment();
+        if (context != null) {
+            context.recordRejected();
+        }
         try {
-            String ackJson = String.format(
-                    "{\"status\":\"SUCCESS\",\"message\":\"Message published\",\"messageId\":\"%s\",\"serverTimestamp\":\"%s\"}",
-                    queueMessage.getMessageId(),
-                    Instant.now().toString()
-            );
-            conn.send(ackJson);
-            System.out.println("Message published with ID: " + queueMessage.getMessageId());
+            if (isBinary(conn, context)) {
+                conn.send(BinaryCodec.encodeThrottle(message, System.currentTimeMillis()));
+            } else {
+                responseEncoder.sendThrottle(conn, message);
+            }
+            perMessageLog.info("Throttled {}: {}", conn.getRemoteSocketAddress(), message);
         } catch (Exception e) {
-            System.out.println("Error sending ack response: " + e.getMessage());
+            log.error("Error sending throttle response: {}", e.getMessage());
         }
     }
 
-    public static void main(String[] args) {
-        int port = 8080;
-        int healthPort = 8081;
-
+    private void sendAckResponse(WebSocket conn, QueueMessage queueMessage) {
+        ConnectionContext context = conn.getAttachment();
+        acked.increment();
+        if (context != null) {
+            context.recordAcked();
+        }
         try {
-            ChatFlowServerV2 wsServer = new ChatFlowServerV2(port);
-            wsServer.start();
-            System.out.println("WebSocket server running on port " + port);
-
-            HealthCheckServer healthServer = new HealthCheckServer(healthPort);
-            healthServer.start();
-            System.out.println("Health server running on port " + healthPort);
+            if (isBinary(conn, context)) {
+                conn.send(BinaryCodec.encodeAck(queueMessage.getMessageId(), System.currentTimeMillis()));
+            } else {
+                responseEncoder.sendAck(conn, queueMessage.getMessageId());
+            }
+            perMessageLog.info("Message published with ID: {}", queueMessage.getMessageId());
+        } catch (Exception e) {
+            log.error("Error sending ack response: {}", e.getMessage());
+        }
+    }
 
-            System.out.println("Press Ctrl+C to stop");
+    private static boolean isBinary(WebSocket conn, ConnectionContext context) {
+        return context != null ? context.isBinary() : WebSocketDrafts.isBinary(conn);
+    }
 
-            // Graceful shutdown
-            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+    private void startMetricsReporting() {
+        Thread metricsThread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
                 try {
-                    wsServer.rabbitMQManager.close();
-                    System.out.println("Server shutdown complete");
-                } catch (Exception e) {
-                    System.out.println("Error during shutdown: " + e.getMessage());
+                    Thread.sleep(30000); // Report every 30 seconds
+
+                    System.out.println("\n=== Server " + serverId + " Status ===");
+                    broker.printMetrics();
+                    backpressure.printMetrics();
+                    if (messageTasks != null) {
+                        messageTasks.printMetrics();
+                    }
+                    if (rateLimiter != null) {
+                        rateLimiter.printMetrics();
+                    }
+                    if (publishStage != null) {
+                        publishStage.printMetrics();
+                    }
+
+                } catch (InterruptedException e) {
+                    break;
                 }
-            }));
+            }
+        });
+
+        metricsThread.setDaemon(true);
+        metricsThread.start();
+    }
 
+    public static void main(String[] args) {
+        try {
+            start(new ChatFlowServerV2(8080), 8081);
         } catch (Exception e) {
-            System.out.println("Failed to start servers: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Failed to start servers: " + e.getMessage(), e);
         }
     }
-}
\ No newline at end of file
+
+    // Starts the WebSocket and health servers, metrics and the shutdown hook
+    public static void start(ChatFlowServerV2 wsServer, int healthPort) throws Exception {
+        start(wsServer, healthPort, () -> {});
+    }
+
+    /**
+     * As above; the shutdown hook runs afterDrain once the server has drained
+     * (the standalone build shuts its consumers down there), and flushes the
+     * log last so nothing logged while draining is lost.
+     */
+    public static void start(ChatFlowServerV2 wsServer, int healthPort, Runnable afterDrain) throws Exception {
+        wsServer.start();
+        log.info("WebSocket server running on port {}", wsServer.getPort());
+
+        HealthCheckServer healthServer = new HealthCheckServer(healthPort, wsServer);
+        healthServer.start();
+        log.info("Health server running on port {}", healthPort);
+
+        log.info("Press Ctrl+C to stop");
+
+        wsServer.startMetricsReporting();
+
+        // Graceful shutdown
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                wsServer.drain(ServerConfig.DRAIN_TIMEOUT_MILLIS);
+                healthServer.stop();
+                log.info("Server shutdown complete");
+                afterDrain.run();
+            } catch (Exception e) {
+                log.error("Error during shutdown: {}", e.getMessage());
+            } finally {
+                ChatLogger.shutdown(LOG_FLUSH_TIMEOUT_MILLIS);
+            }
+        }));
+    }
+}
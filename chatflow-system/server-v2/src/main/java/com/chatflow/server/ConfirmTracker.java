@@ -0,0 +1,105 @@
+package com.chatflow.server;
+
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.ShutdownSignalException;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Tracks outstanding publisher confirms for one channel in confirm mode.
+ * Delivery tags are kept in a sorted map so a batch ack (multiple=true)
+ * completes every tag up to and including the acked one in one sweep.
+ * The listener runs on the amqp-client connection thread, never on a
+ * WebSocket worker.
+ */
+public class ConfirmTracker implements ConfirmListener {
+    private final ConcurrentNavigableMap<Long, PendingConfirm> outstanding = new ConcurrentSkipListMap<>();
+    private final PublishMetrics metrics;
+
+    public ConfirmTracker(PublishMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Must be called with the sequence number from getNextPublishSeqNo() before basicPublish
+    public CompletableFuture<Void> track(long deliveryTag) {
+        PendingConfirm pending = new PendingConfirm(System.nanoTime());
+        outstanding.put(deliveryTag, pending);
+        metrics.confirmTracked();
+        return pending.future;
+    }
+
+    // The publish itself failed, so no confirm will ever arrive for this tag
+    public void fail(long deliveryTag, Throwable cause) {
+        PendingConfirm pending = outstanding.remove(deliveryTag);
+        if (pending != null) {
+            metrics.confirmLost();
+            pending.future.completeExceptionally(cause);
+        }
+    }
+
+    @Override
+    public void handleAck(long deliveryTag, boolean multiple) {
+        complete(deliveryTag, multiple, true);
+    }
+
+    @Override
+    public void handleNack(long deliveryTag, boolean multiple) {
+        complete(deliveryTag, multiple, false);
+    }
+
+    // Channel went away: nothing outstanding on it can be confirmed any more
+    public void failAll(ShutdownSignalException cause) {
+        for (Map.Entry<Long, PendingConfirm> entry : outstanding.entrySet()) {
+            if (outstanding.remove(entry.getKey()) != null) {
+                metrics.confirmLost();
+                entry.getValue().future.completeExceptionally(
+                        new IOException("Channel closed before confirm", cause));
+            }
+        }
+    }
+
+    public int getOutstandingCount() {
+        return outstanding.size();
+    }
+
+    private void complete(long deliveryTag, boolean multiple, boolean acked) {
+        long now = System.nanoTime();
+        if (multiple) {
+            ConcurrentNavigableMap<Long, PendingConfirm> confirmed = outstanding.headMap(deliveryTag, true);
+            for (Map.Entry<Long, PendingConfirm> entry : confirmed.entrySet()) {
+                if (confirmed.remove(entry.getKey()) != null) {
+                    finish(entry.getValue(), now, acked);
+                }
+            }
+        } else {
+            PendingConfirm pending = outstanding.remove(deliveryTag);
+            if (pending != null) {
+                finish(pending, now, acked);
+            }
+        }
+    }
+
+    private void finish(PendingConfirm pending, long now, boolean acked) {
+        long latency = now - pending.publishNanos;
+        if (acked) {
+            metrics.confirmAcked(latency);
+            pending.future.complete(null);
+        } else {
+            metrics.confirmNacked(latency);
+            pending.future.completeExceptionally(new IOException("Message nacked by broker"));
+        }
+    }
+
+    private static class PendingConfirm {
+        final long publishNanos;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingConfirm(long publishNanos) {
+            this.publishNanos = publishNanos;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.chatflow.server;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Everything the server needs about a connection on each message, worked out
+ * once in onOpen and kept as the WebSocket's attachment: no map lookups, no
+ * address formatting and no subprotocol check per message. The room's
+ * sequence counter is shared with every other connection in the room.
+ *
+ * The counters are written by the thread reading the connection and by the
+ * threads completing its publishes, so they are atomic.
+ */
+public final class ConnectionContext {
+    private final String roomId;
+    private final String clientIp;
+    private final boolean binary;
+    private final AtomicLong roomSequence;
+    private final BackpressureMonitor.ConnectionState pressure;
+    private final Executor tasks; // null when messages are handled on the decoder thread
+
+    private final AtomicLong received = new AtomicLong(0);
+    private final AtomicLong acked = new AtomicLong(0);
+    private final AtomicLong rejected = new AtomicLong(0);
+
+    ConnectionContext(String roomId, String clientIp, boolean binary, AtomicLong roomSequence,
+                      BackpressureMonitor.ConnectionState pressure, Executor tasks) {
+        this.roomId = roomId;
+        this.clientIp = clientIp;
+        this.binary = binary;
+        this.roomSequence = roomSequence;
+        this.pressure = pressure;
+        this.tasks = tasks;
+    }
+
+    public String getRoomId() { return roomId; }
+    public String getClientIp() { return clientIp; }
+    public boolean isBinary() { return binary; }
+    public BackpressureMonitor.ConnectionState getPressure() { return pressure; }
+    public Executor getTasks() { return tasks; }
+
+    // Call on the room's only publishing thread, or while holding getRoomLock()
+    public long nextSequence() {
+        return roomSequence.incrementAndGet();
+    }
+
+    // Shared by every connection in the room: number and publishOrdered under it
+    public Object getRoomLock() {
+        return roomSequence;
+    }
+
+    void recordReceived() { received.incrementAndGet(); }
+    void recordAcked() { acked.incrementAndGet(); }
+    // Answered with ERROR or THROTTLE instead of an ACK
+    void recordRejected() { rejected.incrementAndGet(); }
+
+    public long getReceived() { return received.get(); }
+    public long getAcked() { return acked.get(); }
+    public long getRejected() { return rejected.get(); }
+
+    @Override
+    public String toString() {
+        return "room " + roomId + " from " + clientIp + ": received=" + getReceived()
+                + ", acked=" + getAcked() + ", rejected=" + getRejected();
+    }
+}
@@ -0,0 +1,78 @@
+package com.chatflow.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps room IDs onto a fixed number of shards with consistent hashing. Each
+ * shard owns many points (virtual nodes) on a 64-bit ring and a room belongs
+ * to the first point at or after its own hash, so going from N to N+1 shards
+ * only moves the rooms that now land on the new shard's points, about
+ * 1/(N+1) of them. The hash depends only on the room ID's UTF-8 bytes, so
+ * every server instance agrees on the mapping.
+ */
+public class ConsistentHashRing {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int shardCount;
+    // Sorted ring points and the shard owning each one
+    private final long[] points;
+    private final int[] owners;
+
+    public ConsistentHashRing(int shardCount, int virtualNodes) {
+        if (shardCount < 1 || virtualNodes < 1) {
+            throw new IllegalArgumentException("Shard and virtual node counts must be positive");
+        }
+        this.shardCount = shardCount;
+
+        TreeMap<Long, Integer> ring = new TreeMap<>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            for (int vnode = 0; vnode < virtualNodes; vnode++) {
+                ring.putIfAbsent(hash("shard-" + shard + "-vnode-" + vnode), shard);
+            }
+        }
+
+        this.points = new long[ring.size()];
+        this.owners = new int[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, Integer> point : ring.entrySet()) {
+            points[i] = point.getKey();
+            owners[i] = point.getValue();
+            i++;
+        }
+    }
+
+    public int shardFor(String key) {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1; // insertion point, the next point clockwise
+        }
+        if (index == points.length) {
+            index = 0; // wrap around the ring
+        }
+        return owners[index];
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    // FNV-1a over UTF-8, finished with the MurmurHash3 mixer so short, similar
+    // keys such as "17" and "18" still spread across the ring
+    static long hash(String key) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -1,38 +1,70 @@
 package com.chatflow.server;
 
-import com.sun.net.httpserver.HttpExchange;
-import com.sun.net.httpserver.HttpHandler;
-import com.sun.net.httpserver.HttpServer;
+import com.chatflow.common.AdminHttpServer;
+import com.chatflow.common.ChatLogger;
+import com.chatflow.common.PrometheusWriter;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.InetSocketAddress;
+import java.util.List;
 
+/**
+ * /health answers whether the process works (503 only while draining),
+ * /ready whether it should get new clients right now, /metrics gives the
+ * Prometheus view of the server and /loglevel switches log levels at
+ * runtime. Served from AdminHttpServer's own threads.
+ */
 public class HealthCheckServer {
-    private HttpServer server;
-    public HealthCheckServer(int port) throws IOException {
-        server = HttpServer.create(new InetSocketAddress(port), 0);
-        server.createContext("/health", new HealthHandler());
-        server.setExecutor(null);
+    private static final ChatLogger log = ChatLogger.getLogger(HealthCheckServer.class);
+
+    private final AdminHttpServer server;
+
+    public HealthCheckServer(int port, ChatFlowServerV2 wsServer) throws IOException {
+        server = new AdminHttpServer(port, "health");
+        server.route("/health", () -> health(wsServer));
+        server.route("/ready", () -> ready(wsServer));
+        server.route("/metrics", () -> {
+            PrometheusWriter metrics = new PrometheusWriter();
+            wsServer.writeMetrics(metrics);
+            return AdminHttpServer.Response.metrics(metrics);
+        });
+        server.routeLogLevels();
     }
 
     public void start() {
         server.start();
-        System.out.println("Health check server start on port " + server.getAddress().getPort());
+        log.info("Health check server start on port {}", server.getPort());
     }
 
-    static class HealthHandler implements HttpHandler {
-        @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            String response = "{\"status\":\"OK\",\"service\":\"ChatFlow\"}";
+    public void stop() {
+        server.stop();
+    }
 
-            exchange.getResponseHeaders().add("Content-Type", "application/json");
-            exchange.sendResponseHeaders(200, response.length());
+    // 503 while draining so load balancers stop sending new clients here
+    private static AdminHttpServer.Response health(ChatFlowServerV2 wsServer) {
+        boolean draining = wsServer.isDraining();
+        String response = "{\"status\":\"" + (draining ? "DRAINING" : "OK") + "\",\"service\":\"ChatFlow\""
+                + pressure(wsServer.getBackpressure()) + "}";
+        return AdminHttpServer.Response.json(draining ? 503 : 200, response);
+    }
 
-            OutputStream os = exchange.getResponseBody();
-            os.write(response.getBytes());
-            os.close();
-        }
+    // Still 200 under pressure: the server works, it is just pushing back on clients
+    private static String pressure(BackpressureMonitor backpressure) {
+        int throttled = backpressure.getThrottledConnections();
+        return ",\"pressure\":\"" + (throttled > 0 ? "THROTTLING" : "NORMAL") + "\""
+                + ",\"connections\":" + backpressure.getConnectionCount()
+                + ",\"inFlight\":" + backpressure.getTotalInFlight()
+                + ",\"throttledConnections\":" + throttled
+                + ",\"throttledMessages\":" + backpressure.getThrottledMessages();
     }
 
+    private static AdminHttpServer.Response ready(ChatFlowServerV2 wsServer) {
+        List<String> reasons = wsServer.notReadyReasons();
+        StringBuilder response = new StringBuilder("{\"ready\":").append(reasons.isEmpty()).append(",\"reasons\":[");
+        for (int i = 0; i < reasons.size(); i++) {
+            response.append(i == 0 ? "\"" : ",\"").append(reasons.get(i)).append('"');
+        }
+        response.append("],\"inFlight\":").append(wsServer.getBackpressure().getTotalInFlight())
+                .append(",\"maxBacklog\":").append(ServerConfig.READY_MAX_BACKLOG).append('}');
+        return AdminHttpServer.Response.json(reasons.isEmpty() ? 200 : 503, response.toString());
+    }
 }
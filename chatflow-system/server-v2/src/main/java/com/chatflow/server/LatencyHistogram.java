@@ -0,0 +1,101 @@
+package com.chatflow.server;
+
+import com.chatflow.common.PrometheusWriter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-bucket latency histogram. Recording is a bucket scan plus two
+ * LongAdder increments, so it is safe to call from any publishing or
+ * confirm thread without locking.
+ */
+public class LatencyHistogram {
+    // Upper bounds in microseconds, the last bucket catches everything above
+    private static final long[] BUCKET_BOUNDS_MICROS = {
+            50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000,
+            25_000, 50_000, 100_000, 250_000, 500_000, 1_000_000
+    };
+
+    private final LongAdder[] buckets;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong(0);
+
+    public LatencyHistogram() {
+        this.buckets = new LongAdder[BUCKET_BOUNDS_MICROS.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void recordNanos(long nanos) {
+        long micros = nanos / 1_000;
+        int index = 0;
+        while (index < BUCKET_BOUNDS_MICROS.length && micros > BUCKET_BOUNDS_MICROS[index]) {
+            index++;
+        }
+        buckets[index].increment();
+        count.increment();
+        sumMicros.add(micros);
+
+        long currentMax = maxMicros.get();
+        while (micros > currentMax && !maxMicros.compareAndSet(currentMax, micros)) {
+            currentMax = maxMicros.get();
+        }
+    }
+
+    public long getCount() { return count.sum(); }
+    public long getSumMicros() { return sumMicros.sum(); }
+    public long getMaxMicros() { return maxMicros.get(); }
+
+    public double getMeanMicros() {
+        long n = count.sum();
+        return n == 0 ? 0.0 : (double) sumMicros.sum() / n;
+    }
+
+    // Upper bound of the bucket holding the given percentile (0-100)
+    public long getPercentileMicros(double percentile) {
+        long total = count.sum();
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i].sum();
+            if (seen >= target) {
+                return i < BUCKET_BOUNDS_MICROS.length ? BUCKET_BOUNDS_MICROS[i] : maxMicros.get();
+            }
+        }
+        return maxMicros.get();
+    }
+
+    public static long[] getBucketBoundsMicros() {
+        return BUCKET_BOUNDS_MICROS.clone();
+    }
+
+    // Per-bucket (non-cumulative) counts, same length as bounds + 1
+    public long[] getBucketCounts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    // As a Prometheus histogram in seconds
+    public void writeMetrics(PrometheusWriter metrics, String name, String help) {
+        double[] bounds = new double[BUCKET_BOUNDS_MICROS.length];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = BUCKET_BOUNDS_MICROS[i] / 1e6;
+        }
+        metrics.histogram(name, help, bounds, getBucketCounts(), getSumMicros() / 1e6);
+    }
+
+    public String summary() {
+        return String.format("count=%d mean=%.1fus p50<=%dus p99<=%dus max=%dus",
+                getCount(), getMeanMicros(), getPercentileMicros(50),
+                getPercentileMicros(99), getMaxMicros());
+    }
+}
@@ -0,0 +1,108 @@
+package com.chatflow.server;
+
+import com.chatflow.common.ChatLogger;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Snowflake-style 64-bit message IDs, sortable by creation time:
+ *
+ *   41 bits  milliseconds since 2024-01-01 (good until 2093)
+ *   10 bits  node ID, one per server
+ *    5 bits  stripe, picked per thread
+ *    7 bits  sequence within the millisecond
+ *
+ * Each thread draws from its own stripe, so IDs are built without locks and
+ * without threads contending unless more than 32 share the stripes. A
+ * stripe that runs out of sequence numbers, or sees the clock step back,
+ * carries on from the next millisecond after its last ID, so IDs from one
+ * thread always ascend and never repeat.
+ */
+public final class MessageIdGenerator {
+    private static final ChatLogger log = ChatLogger.getLogger(MessageIdGenerator.class);
+
+    static final long EPOCH_MILLIS = 1704067200000L; // 2024-01-01T00:00:00Z
+
+    private static final int SEQUENCE_BITS = 7;
+    private static final int STRIPE_BITS = 5;
+    private static final int NODE_BITS = 10;
+    private static final int STRIPE_SHIFT = SEQUENCE_BITS;
+    private static final int NODE_SHIFT = SEQUENCE_BITS + STRIPE_BITS;
+    private static final int TIMESTAMP_SHIFT = SEQUENCE_BITS + STRIPE_BITS + NODE_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+    private final int nodeId;
+    // Last ID handed out by each stripe, on separate cache lines
+    private final Sequence[] stripes = new Sequence[1 << STRIPE_BITS];
+    private final AtomicInteger nextStripe = new AtomicInteger(0);
+    private final ThreadLocal<Integer> threadStripe =
+            ThreadLocal.withInitial(() -> nextStripe.getAndIncrement() & (stripes.length - 1));
+
+    public MessageIdGenerator(int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node ID must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        this.nodeId = nodeId;
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Sequence(0);
+        }
+    }
+
+    public long nextId() {
+        int stripe = threadStripe.get();
+        Sequence last = stripes[stripe];
+        long base = ((long) nodeId << NODE_SHIFT) | ((long) stripe << STRIPE_SHIFT);
+        long now = System.currentTimeMillis() - EPOCH_MILLIS;
+
+        while (true) {
+            long previous = last.get();
+            long previousMillis = previous >>> TIMESTAMP_SHIFT;
+            long next;
+            if (now > previousMillis) {
+                next = (now << TIMESTAMP_SHIFT) | base;
+            } else if ((previous & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                next = previous + 1;
+            } else {
+                next = ((previousMillis + 1) << TIMESTAMP_SHIFT) | base;
+            }
+            if (last.compareAndSet(previous, next)) {
+                return next;
+            }
+        }
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    public static long timestampMillis(long id) {
+        return (id >>> TIMESTAMP_SHIFT) + EPOCH_MILLIS;
+    }
+
+    public static int nodeId(long id) {
+        return (int) ((id >>> NODE_SHIFT) & MAX_NODE_ID);
+    }
+
+    /**
+     * The configured node ID, or one derived from the host name and process
+     * ID. Servers sharing a node ID can issue the same IDs, so multi-server
+     * deployments should set CHATFLOW_NODE_ID explicitly.
+     */
+    public static int resolveNodeId(int configured) {
+        if (configured >= 0 && configured <= MAX_NODE_ID) {
+            return configured;
+        }
+        String identity;
+        try {
+            identity = InetAddress.getLocalHost().getHostName() + "/" + ManagementFactory.getRuntimeMXBean().getName();
+        } catch (Exception e) {
+            identity = ManagementFactory.getRuntimeMXBean().getName();
+        }
+        int derived = Math.floorMod(identity.hashCode(), MAX_NODE_ID + 1);
+        log.warn("CHATFLOW_NODE_ID not set (or out of range), using node ID {} derived from {}", derived, identity);
+        return derived;
+    }
+}
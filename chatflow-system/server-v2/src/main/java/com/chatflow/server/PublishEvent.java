@@ -0,0 +1,26 @@
+package com.chatflow.server;
+
+import org.java_websocket.WebSocket;
+
+/**
+ * Preallocated ring buffer slot. Producers overwrite the fields in place so
+ * the handoff itself allocates nothing.
+ */
+public class PublishEvent {
+    private WebSocket connection;
+    private QueueMessage queueMessage;
+
+    void set(WebSocket connection, QueueMessage queueMessage) {
+        this.connection = connection;
+        this.queueMessage = queueMessage;
+    }
+
+    // Drop references once handled so the slot does not pin old messages
+    void clear() {
+        this.connection = null;
+        this.queueMessage = null;
+    }
+
+    public WebSocket getConnection() { return connection; }
+    public QueueMessage getQueueMessage() { return queueMessage; }
+}
@@ -0,0 +1,92 @@
+package com.chatflow.server;
+
+import com.chatflow.common.PrometheusWriter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PublishMetrics {
+    private AtomicLong messagesPublished = new AtomicLong(0);
+    private AtomicLong publishFailures = new AtomicLong(0);
+    private AtomicLong confirmsAcked = new AtomicLong(0);
+    private AtomicLong confirmsNacked = new AtomicLong(0);
+    private AtomicLong confirmsLost = new AtomicLong(0);
+    private AtomicLong outstandingConfirms = new AtomicLong(0);
+
+    private LatencyHistogram confirmLatency = new LatencyHistogram();
+    // Time spent getting a channel to publish on
+    private LatencyHistogram channelWait = new LatencyHistogram();
+
+    public void incrementMessagesPublished() {
+        messagesPublished.incrementAndGet();
+    }
+
+    public void addMessagesPublished(int count) {
+        messagesPublished.addAndGet(count);
+    }
+
+    public void incrementPublishFailures() {
+        publishFailures.incrementAndGet();
+    }
+
+    public void confirmTracked() {
+        outstandingConfirms.incrementAndGet();
+    }
+
+    public void confirmAcked(long latencyNanos) {
+        outstandingConfirms.decrementAndGet();
+        confirmsAcked.incrementAndGet();
+        confirmLatency.recordNanos(latencyNanos);
+    }
+
+    public void confirmNacked(long latencyNanos) {
+        outstandingConfirms.decrementAndGet();
+        confirmsNacked.incrementAndGet();
+        confirmLatency.recordNanos(latencyNanos);
+    }
+
+    public void recordChannelWait(long nanos) {
+        channelWait.recordNanos(nanos);
+    }
+
+    // Channel closed or publish threw before the broker answered
+    public void confirmLost() {
+        outstandingConfirms.decrementAndGet();
+        confirmsLost.incrementAndGet();
+    }
+
+    // Getters
+    public long getMessagesPublished() { return messagesPublished.get(); }
+    public long getPublishFailures() { return publishFailures.get(); }
+    public long getConfirmsAcked() { return confirmsAcked.get(); }
+    public long getConfirmsNacked() { return confirmsNacked.get(); }
+    public long getConfirmsLost() { return confirmsLost.get(); }
+    public long getOutstandingConfirms() { return outstandingConfirms.get(); }
+    public LatencyHistogram getConfirmLatency() { return confirmLatency; }
+    public LatencyHistogram getChannelWait() { return channelWait; }
+
+    public void writeMetrics(PrometheusWriter metrics) {
+        metrics.counter("chatflow_amqp_published_total", "Messages published to RabbitMQ", getMessagesPublished());
+        metrics.counter("chatflow_amqp_publish_failures_total", "basicPublish calls that threw", getPublishFailures());
+        metrics.family("chatflow_amqp_confirms_total", "counter", "Publisher confirms by outcome");
+        metrics.sample("chatflow_amqp_confirms_total", getConfirmsAcked(), "outcome", "acked");
+        metrics.sample("chatflow_amqp_confirms_total", getConfirmsNacked(), "outcome", "nacked");
+        metrics.sample("chatflow_amqp_confirms_total", getConfirmsLost(), "outcome", "lost");
+        metrics.gauge("chatflow_amqp_outstanding_confirms", "Publishes waiting for a confirm", getOutstandingConfirms());
+        confirmLatency.writeMetrics(metrics, "chatflow_amqp_confirm_latency_seconds",
+                "From basicPublish to the broker's confirm");
+        channelWait.writeMetrics(metrics, "chatflow_amqp_channel_wait_seconds",
+                "Time spent getting a channel to publish on");
+    }
+
+    public void printMetrics() {
+        System.out.println("\n=== Publish Metrics ===");
+        System.out.println("Messages Published: " + getMessagesPublished());
+        System.out.println("Publish Failures: " + getPublishFailures());
+        System.out.println("Confirms Acked: " + getConfirmsAcked());
+        System.out.println("Confirms Nacked: " + getConfirmsNacked());
+        System.out.println("Confirms Lost: " + getConfirmsLost());
+        System.out.println("Outstanding Confirms: " + getOutstandingConfirms());
+        System.out.println("Confirm Latency: " + confirmLatency.summary());
+        System.out.println("Channel Wait: " + channelWait.summary());
+    }
+}
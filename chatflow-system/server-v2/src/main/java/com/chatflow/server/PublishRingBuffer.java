@@ -0,0 +1,163 @@
+package com.chatflow.server;
+
+import org.java_websocket.WebSocket;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Bounded ring of preallocated {@link PublishEvent} slots with a single
+ * consumer. By default it also has a single producer: one WebSocket worker
+ * thread writes, one publisher thread reads, and the two only share the
+ * padded cursors. A {@link #multiProducer} ring lets any thread write:
+ * producers claim slots with a CAS on the cursor and flag each slot once it
+ * is filled, and the consumer stops at the first slot not yet flagged, so
+ * events are handled in claim order.
+ */
+public class PublishRingBuffer {
+    private static final VarHandle FLAGS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    public interface EventHandler {
+        void onEvent(PublishEvent event);
+    }
+
+    private final PublishEvent[] entries;
+    private final int mask;
+    private final int capacity;
+
+    // Last slot made visible to the consumer
+    private final Sequence cursor = new Sequence(-1);
+    // Last slot the consumer has finished with
+    private final Sequence consumed = new Sequence(-1);
+
+    // Producer-local state, only touched by the owning writer thread
+    private long nextSequence = -1;
+    private long cachedConsumed = -1;
+
+    // Multi-producer only: the lap (sequence / capacity) each slot was last filled on
+    private final int[] publishedLaps;
+    private final int lapShift;
+
+    public PublishRingBuffer(int capacity) {
+        this(capacity, false);
+    }
+
+    private PublishRingBuffer(int capacity, boolean multiProducer) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a power of two: " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.entries = new PublishEvent[capacity];
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = new PublishEvent();
+        }
+
+        this.lapShift = Integer.numberOfTrailingZeros(capacity);
+        if (multiProducer) {
+            this.publishedLaps = new int[capacity];
+            for (int i = 0; i < capacity; i++) {
+                FLAGS.setRelease(publishedLaps, i, -1);
+            }
+        } else {
+            this.publishedLaps = null;
+        }
+    }
+
+    public static PublishRingBuffer multiProducer(int capacity) {
+        return new PublishRingBuffer(capacity, true);
+    }
+
+    public boolean isMultiProducer() {
+        return publishedLaps != null;
+    }
+
+    /**
+     * Producer side. Returns false without blocking when the ring is full.
+     */
+    public boolean tryPublish(WebSocket connection, QueueMessage queueMessage) {
+        if (publishedLaps != null) {
+            return tryPublishShared(connection, queueMessage);
+        }
+
+        long next = nextSequence + 1;
+        long wrapPoint = next - capacity;
+        if (wrapPoint > cachedConsumed) {
+            cachedConsumed = consumed.get();
+            if (wrapPoint > cachedConsumed) {
+                return false;
+            }
+        }
+
+        entries[(int) (next & mask)].set(connection, queueMessage);
+        nextSequence = next;
+        cursor.set(next);
+        return true;
+    }
+
+    private boolean tryPublishShared(WebSocket connection, QueueMessage queueMessage) {
+        long next;
+        while (true) {
+            long current = cursor.get();
+            next = current + 1;
+            if (next - capacity > consumed.get()) {
+                return false;
+            }
+            if (cursor.compareAndSet(current, next)) {
+                break;
+            }
+        }
+
+        int index = (int) (next & mask);
+        entries[index].set(connection, queueMessage);
+        FLAGS.setRelease(publishedLaps, index, (int) (next >>> lapShift));
+        return true;
+    }
+
+    private boolean isPublished(long sequence) {
+        return (int) FLAGS.getAcquire(publishedLaps, (int) (sequence & mask)) == (int) (sequence >>> lapShift);
+    }
+
+    /**
+     * Consumer side. Handles up to maxBatch published events and returns how
+     * many were processed.
+     */
+    public int drain(EventHandler handler, int maxBatch) {
+        long current = consumed.get();
+        long available = cursor.get();
+        if (available <= current) {
+            return 0;
+        }
+
+        long end = Math.min(available, current + maxBatch);
+        if (publishedLaps != null) {
+            // Claimed is not filled; stop before the first slot still being written
+            long filled = current;
+            while (filled < end && isPublished(filled + 1)) {
+                filled++;
+            }
+            end = filled;
+            if (end == current) {
+                return 0;
+            }
+        }
+        for (long sequence = current + 1; sequence <= end; sequence++) {
+            PublishEvent event = entries[(int) (sequence & mask)];
+            try {
+                handler.onEvent(event);
+            } finally {
+                event.clear();
+            }
+        }
+        consumed.set(end);
+        return (int) (end - current);
+    }
+
+    public int size() {
+        return (int) (cursor.get() - consumed.get());
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,243 @@
+package com.chatflow.server;
+
+import com.chatflow.common.ChatLogger;
+
+import org.java_websocket.WebSocket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands validated messages from the WebSocket worker threads to dedicated
+ * publisher threads, so a slow broker (or an exhausted channel pool) never
+ * stalls frame reads.
+ *
+ * Room-striped (the default): each publisher thread drains one
+ * multi-producer ring, and a room's messages always go to the ring picked by
+ * the room's hash. A room is then published by one thread, on that thread's
+ * own channel, in the order the workers enqueued it, while different rooms
+ * still publish in parallel.
+ *
+ * Per connection: each worker thread claims its own single-producer ring on
+ * first use and publisher threads each drain a fixed subset of the rings.
+ * Order holds per connection only, since two workers serving the same room
+ * feed different publisher threads.
+ */
+public class PublishStage {
+    private static final ChatLogger log = ChatLogger.getLogger(PublishStage.class);
+
+    private static final int MAX_DRAIN_BATCH = 256;
+    private static final long BACKPRESSURE_PARK_NANOS = 50_000;
+
+    private final PublishRingBuffer[] rings;
+    // Used only if more threads publish than rings were sized for
+    private final PublishRingBuffer sharedRing;
+    private final AtomicInteger nextRing = new AtomicInteger(0);
+    private final ThreadLocal<PublishRingBuffer> ownedRing;
+
+    private final boolean roomStriped;
+    private final PublishRingBuffer.EventHandler handler;
+    private final WaitStrategy waitStrategy;
+    private final QueueFullPolicy fullPolicy;
+    private final List<Thread> publisherThreads = new ArrayList<>();
+    private volatile boolean running = true;
+    // Set once stop has seen every publisher thread exit; guarded by itself
+    private final Object finalDrain = new Object();
+    private boolean publishersExited;
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder backpressureWaits = new LongAdder();
+
+    public PublishStage(int producerCount, int ringSize, int publisherCount,
+                        WaitStrategy waitStrategy, QueueFullPolicy fullPolicy,
+                        boolean roomStriped, PublishRingBuffer.EventHandler handler) {
+        this.roomStriped = roomStriped;
+        int threads = roomStriped
+                ? Math.max(1, publisherCount)
+                : Math.max(1, Math.min(publisherCount, producerCount));
+
+        int ringCount = roomStriped ? threads : producerCount;
+        this.rings = new PublishRingBuffer[ringCount];
+        for (int i = 0; i < ringCount; i++) {
+            rings[i] = roomStriped ? PublishRingBuffer.multiProducer(ringSize) : new PublishRingBuffer(ringSize);
+        }
+        this.sharedRing = new PublishRingBuffer(ringSize);
+        this.ownedRing = ThreadLocal.withInitial(this::claimRing);
+        this.waitStrategy = waitStrategy;
+        this.fullPolicy = fullPolicy;
+        this.handler = handler;
+
+        for (int i = 0; i < threads; i++) {
+            int threadNumber = i + 1;
+            List<PublishRingBuffer> assigned = new ArrayList<>();
+            for (int r = i; r < rings.length; r += threads) {
+                assigned.add(rings[r]);
+            }
+            if (i == 0) {
+                assigned.add(sharedRing);
+            }
+            Thread thread = new Thread(() -> runPublisher(assigned), "publisher-" + threadNumber);
+            thread.setDaemon(true);
+            publisherThreads.add(thread);
+        }
+
+        log.info("PublishStage created: {} rings x {} slots, {} publisher threads", ringCount, ringSize, threads);
+        log.info("Publish order is kept per {}, {} when full", roomStriped ? "room" : "connection", fullPolicy);
+    }
+
+    public void start() {
+        for (Thread thread : publisherThreads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Called from a WebSocket worker thread. Returns false when the message
+     * was rejected because the ring is full (REJECT policy) or the stage is
+     * stopping; the caller owns the error response.
+     */
+    public boolean submit(WebSocket connection, QueueMessage queueMessage) {
+        if (!running) {
+            rejected.increment();
+            return false;
+        }
+
+        PublishRingBuffer ring = roomStriped ? rings[stripe(queueMessage.getRoomId())] : ownedRing.get();
+        boolean published = tryPublish(ring, connection, queueMessage);
+
+        if (!published && fullPolicy == QueueFullPolicy.BACKPRESSURE) {
+            backpressureWaits.increment();
+            while (!published && running) {
+                LockSupport.parkNanos(BACKPRESSURE_PARK_NANOS);
+                published = tryPublish(ring, connection, queueMessage);
+            }
+        }
+
+        if (!published) {
+            rejected.increment();
+            return false;
+        }
+        enqueued.increment();
+        waitStrategy.signal();
+        if (!running) {
+            // Passed the check above just as stop began; its ring's thread may already be gone
+            drainAfterStop();
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting new messages and waits for the publisher threads to
+     * drain what is already in the rings. A message submitted while they
+     * exit is published by stop, or by its submitter if stop has returned.
+     */
+    public void stop(long timeoutMillis) throws InterruptedException {
+        running = false;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        boolean exited = true;
+        for (Thread thread : publisherThreads) {
+            thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            exited &= !thread.isAlive();
+        }
+        if (exited) {
+            synchronized (finalDrain) {
+                publishersExited = true;
+            }
+            drainAfterStop();
+        }
+    }
+
+    public long getEnqueued() { return enqueued.sum(); }
+    public long getRejected() { return rejected.sum(); }
+    public long getBackpressureWaits() { return backpressureWaits.sum(); }
+
+    public int getQueuedCount() {
+        int total = sharedRing.size();
+        for (PublishRingBuffer ring : rings) {
+            total += ring.size();
+        }
+        return total;
+    }
+
+    public void printMetrics() {
+        System.out.println("\n=== Publish Stage ===");
+        System.out.println("Enqueued: " + getEnqueued());
+        System.out.println("Rejected: " + getRejected());
+        System.out.println("Backpressure Waits: " + getBackpressureWaits());
+        System.out.println("Currently Queued: " + getQueuedCount());
+    }
+
+    private PublishRingBuffer claimRing() {
+        int index = nextRing.getAndIncrement();
+        if (index < rings.length) {
+            return rings[index];
+        }
+        log.warn("More publishing threads than rings, {} uses the shared ring", Thread.currentThread().getName());
+        return sharedRing;
+    }
+
+    private int stripe(String roomId) {
+        int hash = roomId.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), rings.length);
+    }
+
+    private boolean tryPublish(PublishRingBuffer ring, WebSocket connection, QueueMessage queueMessage) {
+        if (ring != sharedRing) {
+            return ring.tryPublish(connection, queueMessage);
+        }
+        synchronized (sharedRing) {
+            return sharedRing.tryPublish(connection, queueMessage);
+        }
+    }
+
+    // Drains the rings on the calling thread, which is their only consumer once the publishers exited
+    private void drainAfterStop() {
+        synchronized (finalDrain) {
+            if (!publishersExited) {
+                return; // stop has not got that far, and will drain them itself
+            }
+            int processed;
+            do {
+                processed = sharedRing.drain(this::handle, MAX_DRAIN_BATCH);
+                for (PublishRingBuffer ring : rings) {
+                    processed += ring.drain(this::handle, MAX_DRAIN_BATCH);
+                }
+            } while (processed > 0);
+        }
+    }
+
+    private void handle(PublishEvent event) {
+        try {
+            handler.onEvent(event);
+        } catch (Exception e) {
+            log.error("Publisher thread error: {}", e.getMessage());
+        }
+    }
+
+    private void runPublisher(List<PublishRingBuffer> assigned) {
+        PublishRingBuffer.EventHandler safeHandler = this::handle;
+        int idleCount = 0;
+        try {
+            while (true) {
+                int processed = 0;
+                for (PublishRingBuffer ring : assigned) {
+                    processed += ring.drain(safeHandler, MAX_DRAIN_BATCH);
+                }
+
+                if (processed > 0) {
+                    idleCount = 0;
+                } else if (!running) {
+                    break; // Stopped and fully drained
+                } else {
+                    idleCount = waitStrategy.idle(idleCount);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
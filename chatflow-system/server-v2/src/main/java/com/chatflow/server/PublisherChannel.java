@@ -0,0 +1,49 @@
+package com.chatflow.server;
+
+import com.rabbitmq.client.Channel;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A publishing channel together with its confirm tracker and the index of
+ * the connection it lives on. The tracker is null when publisher confirms
+ * are disabled.
+ */
+public class PublisherChannel {
+    private final Channel channel;
+    private final ConfirmTracker confirmTracker;
+    private final int connectionIndex;
+    // Only one thread publishes on a channel at a time, so this is uncontended
+    private final AtomicLong publishes = new AtomicLong(0);
+
+    public PublisherChannel(Channel channel, ConfirmTracker confirmTracker, int connectionIndex) {
+        this.channel = channel;
+        this.confirmTracker = confirmTracker;
+        this.connectionIndex = connectionIndex;
+    }
+
+    public Channel getChannel() { return channel; }
+    public ConfirmTracker getConfirmTracker() { return confirmTracker; }
+    public int getConnectionIndex() { return connectionIndex; }
+    public long getPublishes() { return publishes.get(); }
+
+    void recordPublish() {
+        publishes.incrementAndGet();
+    }
+
+    public boolean isConfirmMode() {
+        return confirmTracker != null;
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    public void close() throws IOException, TimeoutException {
+        if (channel.isOpen()) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.chatflow.server;
+
+import com.chatflow.common.ChatLogger;
+
+/**
+ * What an I/O thread does when its publish ring is full.
+ */
+public enum QueueFullPolicy {
+    // Answer the client with an ERROR frame and drop the message
+    REJECT,
+    // Wait for space; the worker stops reading frames until the broker catches up
+    BACKPRESSURE;
+
+    public static QueueFullPolicy fromString(String value) {
+        try {
+            return QueueFullPolicy.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            ChatLogger.getLogger(QueueFullPolicy.class).warn("Unknown queue full policy {}, using REJECT", value);
+            return REJECT;
+        }
+    }
+}
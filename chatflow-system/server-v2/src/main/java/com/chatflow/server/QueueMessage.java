@@ -1,11 +1,11 @@
 package com.chatflow.server;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import java.util.UUID;
 
 public class QueueMessage {
+    // Time-ordered, see MessageIdGenerator
     @JsonProperty("messageId")
-    private String messageId;
+    private long messageId;
 
     @JsonProperty("roomId")
     private String roomId;
@@ -34,12 +34,16 @@ public class QueueMessage {
     @JsonProperty("trackingId")
     private String trackingId;
 
+    // Per room and serverId, assigned at publish time; see RoomSequences
+    @JsonProperty("sequence")
+    private long sequence;
+
     // Default constructor
     public QueueMessage() {}
 
     // Constructor from ChatMessage
-    public QueueMessage(ChatMessage chatMessage, String roomId, String serverId, String clientIp) {
-        this.messageId = UUID.randomUUID().toString();
+    public QueueMessage(ChatMessage chatMessage, long messageId, String roomId, String serverId, String clientIp) {
+        this.messageId = messageId;
         this.roomId = roomId;
         this.userId = chatMessage.getUserId();
         this.username = chatMessage.getUsername();
@@ -52,8 +56,8 @@ public class QueueMessage {
     }
 
     // Getters and setters
-    public String getMessageId() { return messageId; }
-    public void setMessageId(String messageId) { this.messageId = messageId; }
+    public long getMessageId() { return messageId; }
+    public void setMessageId(long messageId) { this.messageId = messageId; }
 
     public String getRoomId() { return roomId; }
     public void setRoomId(String roomId) { this.roomId = roomId; }
@@ -81,4 +85,7 @@ public class QueueMessage {
 
     public String getTrackingId() { return trackingId; }
     public void setTrackingId(String trackingId) { this.trackingId = trackingId; }
+
+    public long getSequence() { return sequence; }
+    public void setSequence(long sequence) { this.sequence = sequence; }
 }
\ No newline at end of file
@@ -0,0 +1,199 @@
+package com.chatflow.server;
+
+import com.chatflow.common.ChatLogger;
+
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Declares room queues on demand instead of a fixed set at startup. The first
+ * publish to a room declares and binds its queue; concurrent first publishers
+ * wait on the same declaration instead of repeating it. Declared rooms are
+ * cached for the life of the connection, so later publishes cost one map
+ * lookup.
+ *
+ * Every newly declared room is announced on the chat.rooms fanout exchange so
+ * consumers can start consuming it. A consumer that (re)starts publishes to
+ * chat.rooms.sync, and each server answers by announcing all its rooms again.
+ *
+ * With shards configured, rooms instead share a fixed set of shard queues
+ * declared at startup, chosen per room on a consistent hash ring. Nothing is
+ * declared or announced per room then; consumers simply consume every shard.
+ */
+public class QueueTopology {
+    private static final ChatLogger log = ChatLogger.getLogger(QueueTopology.class);
+
+    static final String EXCHANGE_NAME = "chat.exchange";
+    static final String ROOMS_EXCHANGE = "chat.rooms";
+    static final String ROOMS_SYNC_EXCHANGE = "chat.rooms.sync";
+
+    private final Connection connection;
+    // Null when every room has its own queue
+    private final ConsistentHashRing ring;
+    // Completed normally once the room's queue is declared and bound
+    private final Map<String, CompletableFuture<RoomRoute>> declared = new ConcurrentHashMap<>();
+    private Channel channel; // guarded by this, reopened after a failed declare
+
+    private final AtomicLong roomsDeclared = new AtomicLong(0);
+    private final AtomicLong declareFailures = new AtomicLong(0);
+    private final AtomicLong coalescedWaits = new AtomicLong(0);
+    private final AtomicLong syncRequests = new AtomicLong(0);
+
+    public QueueTopology(Connection connection) throws IOException {
+        this(connection, 0, 0);
+    }
+
+    public QueueTopology(Connection connection, int shardCount, int virtualNodes) throws IOException {
+        this.connection = connection;
+        this.ring = shardCount > 0 ? new ConsistentHashRing(shardCount, virtualNodes) : null;
+        synchronized (this) {
+            Channel setup = openChannel();
+            setup.exchangeDeclare(EXCHANGE_NAME, BuiltinExchangeType.TOPIC, true);
+            setup.exchangeDeclare(ROOMS_EXCHANGE, BuiltinExchangeType.FANOUT, true);
+            setup.exchangeDeclare(ROOMS_SYNC_EXCHANGE, BuiltinExchangeType.FANOUT, true);
+
+            for (int shard = 0; shard < shardCount; shard++) {
+                String queueName = shardQueueName(shard);
+                setup.queueDeclare(queueName, true, false, false, null);
+                setup.queueBind(queueName, EXCHANGE_NAME, queueName);
+            }
+        }
+
+        if (ring == null) {
+            listenForSyncRequests();
+        } else {
+            log.info("Routing rooms to {} shard queues ({} virtual nodes each)", shardCount, virtualNodes);
+        }
+    }
+
+    static String queueName(String roomId) {
+        return "room." + roomId;
+    }
+
+    static String shardQueueName(int shard) {
+        return "shard." + shard;
+    }
+
+    /**
+     * Returns the room's route once its queue exists. Only the first caller
+     * for a room talks to the broker; a failed declaration is evicted so the
+     * next publish retries it. Shard queues already exist, so a new room in
+     * sharded mode only costs a ring lookup.
+     */
+    public RoomRoute route(String roomId) throws IOException {
+        CompletableFuture<RoomRoute> ready = declared.get(roomId);
+        if (ready == null) {
+            if (ring != null) {
+                RoomRoute route = new RoomRoute(shardQueueName(ring.shardFor(roomId)), roomId);
+                ready = declared.putIfAbsent(roomId, CompletableFuture.completedFuture(route));
+                return ready == null ? route : ready.join();
+            }
+
+            CompletableFuture<RoomRoute> claim = new CompletableFuture<>();
+            ready = declared.putIfAbsent(roomId, claim);
+            if (ready == null) {
+                return declareRoom(roomId, claim);
+            }
+        }
+        if (ready.isDone() && !ready.isCompletedExceptionally()) {
+            return ready.join();
+        }
+
+        coalescedWaits.incrementAndGet();
+        try {
+            return ready.join();
+        } catch (CompletionException e) {
+            throw new IOException("Queue for room " + roomId + " could not be declared", e.getCause());
+        }
+    }
+
+    private RoomRoute declareRoom(String roomId, CompletableFuture<RoomRoute> claim) throws IOException {
+        String queueName = queueName(roomId);
+        try {
+            synchronized (this) {
+                Channel declareChannel = openChannel();
+                declareChannel.queueDeclare(queueName, true, false, false, null);
+                declareChannel.queueBind(queueName, EXCHANGE_NAME, queueName);
+                announce(declareChannel, roomId);
+            }
+            roomsDeclared.incrementAndGet();
+            RoomRoute route = new RoomRoute(queueName, roomId);
+            claim.complete(route);
+            log.info("Declared and bound queue: {}", queueName);
+            return route;
+        } catch (IOException | RuntimeException e) {
+            declared.remove(roomId, claim);
+            declareFailures.incrementAndGet();
+            claim.completeExceptionally(e);
+            log.error("Failed to declare queue {}: {}", queueName, e.getMessage());
+            throw e;
+        }
+    }
+
+    // Answers consumer sync requests on a channel of its own
+    private void listenForSyncRequests() throws IOException {
+        Channel syncChannel = connection.createChannel();
+        String syncQueue = syncChannel.queueDeclare().getQueue(); // exclusive, auto-delete
+        syncChannel.queueBind(syncQueue, ROOMS_SYNC_EXCHANGE, "");
+        syncChannel.basicConsume(syncQueue, true,
+                (consumerTag, delivery) -> announceAll(),
+                consumerTag -> {});
+    }
+
+    private void announceAll() {
+        syncRequests.incrementAndGet();
+        int announced = 0;
+        try {
+            synchronized (this) {
+                Channel announceChannel = openChannel();
+                for (Map.Entry<String, CompletableFuture<RoomRoute>> room : declared.entrySet()) {
+                    CompletableFuture<RoomRoute> ready = room.getValue();
+                    if (ready.isDone() && !ready.isCompletedExceptionally()) {
+                        announce(announceChannel, room.getKey());
+                        announced++;
+                    }
+                }
+            }
+            log.info("Re-announced {} rooms after a sync request", announced);
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to re-announce rooms: {}", e.getMessage());
+        }
+    }
+
+    private static void announce(Channel channel, String roomId) throws IOException {
+        channel.basicPublish(ROOMS_EXCHANGE, "", null, roomId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Caller holds the monitor; a failed declare closes the channel, so reopen it
+    private Channel openChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = connection.createChannel();
+        }
+        return channel;
+    }
+
+    public int getDeclaredRoomCount() { return declared.size(); }
+    public int getShardCount() { return ring == null ? 0 : ring.getShardCount(); }
+    public long getRoomsDeclared() { return roomsDeclared.get(); }
+    public long getDeclareFailures() { return declareFailures.get(); }
+    public long getCoalescedWaits() { return coalescedWaits.get(); }
+    public long getSyncRequests() { return syncRequests.get(); }
+
+    public void printMetrics() {
+        System.out.println("\n=== Queue Topology ===");
+        System.out.println("Known Rooms: " + getDeclaredRoomCount() + ", Shards: " + getShardCount());
+        System.out.println("Rooms Declared: " + getRoomsDeclared());
+        System.out.println("Declare Failures: " + getDeclareFailures());
+        System.out.println("Coalesced Waits: " + getCoalescedWaits());
+        System.out.println("Sync Requests: " + getSyncRequests());
+    }
+}
@@ -1,111 +1,375 @@
 package com.chatflow.server;
 
+import com.chatflow.common.ChatLogger;
+import com.chatflow.common.MessagePublisher;
+import com.chatflow.common.PrometheusWriter;
+
 import com.rabbitmq.client.*;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Publishes over one or more AMQP connections. With channel affinity each
+ * publishing thread owns a channel, opened on first use on the next
+ * connection in turn, so publishing never waits on a shared pool; without
+ * it channels are borrowed from a blocking pool spread over the connections.
+ *
+ * The broker only keeps the order of messages sent on one channel, so
+ * publishOrdered sends each routing key's messages on one of a fixed set of
+ * ordered channels, picked by the key's hash and opened on first use.
+ */
+public class RabbitMQManager implements MessagePublisher {
+    private static final ChatLogger log = ChatLogger.getLogger(RabbitMQManager.class);
+    // Per-message events, sampled so they cannot dominate CPU under load
+    private static final ChatLogger perMessageLog = log.sampled();
 
-public class RabbitMQManager {
     private static final String RABBITMQ_HOST = System.getenv("RABBITMQ_HOST");
     private static final int RABBITMQ_PORT = 5672;
     private static final String USERNAME = System.getenv("RABBITMQ_USER");
     private static final String PASSWORD = System.getenv("RABBITMQ_PASSWORD");
-    private static final String EXCHANGE_NAME = "chat.exchange";
+    private static final String EXCHANGE_NAME = QueueTopology.EXCHANGE_NAME;
 
-    private Connection connection;
-    private BlockingQueue<Channel> channelPool;
-    private ObjectMapper objectMapper;
+    private List<Connection> connections = new ArrayList<>();
+    private QueueTopology topology;
+    private BlockingQueue<PublisherChannel> channelPool;
+    private boolean channelAffinity;
+    private ThreadLocal<PublisherChannel> threadChannels = new ThreadLocal<>();
+    private AtomicInteger nextConnection = new AtomicInteger(0);
+    // Every channel opened so far, for per-connection metrics and shutdown
+    private List<PublisherChannel> allChannels = new CopyOnWriteArrayList<>();
+    // Each carries a fixed share of the routing keys, see publishOrdered
+    private AtomicReferenceArray<PublisherChannel> orderedChannels;
+    private long[] lastPublishes;
+    private long lastReportNanos = System.nanoTime();
+    private PublishMetrics metrics;
+    private boolean confirmsEnabled;
+    private BatchingPublisher batchingPublisher;
 
     public RabbitMQManager(int poolSize) throws IOException, TimeoutException {
-        this.objectMapper = new ObjectMapper();
+        this(poolSize, ServerConfig.PUBLISHER_CONFIRMS);
+    }
+
+    public RabbitMQManager(int poolSize, boolean confirmsEnabled) throws IOException, TimeoutException {
+        this.metrics = new PublishMetrics();
+        this.confirmsEnabled = confirmsEnabled;
+        this.channelAffinity = ServerConfig.CHANNEL_AFFINITY;
+        if (channelAffinity && ServerConfig.VIRTUAL_THREADS && !ServerConfig.PUBLISH_STAGE) {
+            // Every virtual thread would open a channel of its own
+            log.warn("Virtual threads publish directly without the publish stage, using the channel pool");
+            this.channelAffinity = false;
+        }
         this.channelPool = new ArrayBlockingQueue<>(poolSize);
-        initializeConnection();
-        initializeExchangeAndQueues();
-        createChannelPool(poolSize);
+        this.orderedChannels = new AtomicReferenceArray<>(Math.max(1, poolSize));
+        initializeConnections(Math.max(1, ServerConfig.RABBITMQ_CONNECTIONS));
+        // Room queues are declared lazily, on the first publish to each room,
+        // unless rooms are sharded over a fixed set of queues
+        this.topology = new QueueTopology(connections.get(0), ServerConfig.ROOM_SHARDS, ServerConfig.SHARD_VNODES);
+        if (channelAffinity) {
+            log.info("Channel affinity enabled, each publishing thread opens its own channel{}",
+                    confirmsEnabled ? " (publisher confirms enabled)" : "");
+        } else {
+            createChannelPool(poolSize);
+        }
+
+        BatchMode batchMode = BatchMode.fromString(ServerConfig.BATCH_MODE);
+        if (batchMode != BatchMode.OFF) {
+            this.batchingPublisher = new BatchingPublisher(this, batchMode,
+                    ServerConfig.BATCH_SIZE, ServerConfig.BATCH_LINGER_MICROS);
+        }
     }
 
-    private void initializeConnection() throws IOException, TimeoutException {
+    private void initializeConnections(int count) throws IOException, TimeoutException {
         ConnectionFactory factory = new ConnectionFactory();
         factory.setHost(RABBITMQ_HOST);
         factory.setPort(RABBITMQ_PORT);
         factory.setUsername(USERNAME);
         factory.setPassword(PASSWORD);
 
-        this.connection = factory.newConnection();
-        System.out.println("Connected to RabbitMQ at " + RABBITMQ_HOST);
+        for (int i = 0; i < count; i++) {
+            connections.add(factory.newConnection("chatflow-publisher-" + i));
+        }
+        this.lastPublishes = new long[count];
+        log.info("Connected to RabbitMQ at {} with {} connection(s)", RABBITMQ_HOST, count);
     }
 
-    private void initializeExchangeAndQueues() throws IOException, TimeoutException {
-        try (Channel channel = connection.createChannel()) {
-            // Declare topic exchange
-            channel.exchangeDeclare(EXCHANGE_NAME, BuiltinExchangeType.TOPIC, true);
+    private void createChannelPool(int poolSize) throws IOException {
+        for (int i = 0; i < poolSize; i++) {
+            channelPool.offer(createPublisherChannel(i % connections.size()));
+        }
+        log.info("Created channel pool with {} channels{}", poolSize,
+                confirmsEnabled ? " (publisher confirms enabled)" : "");
+    }
 
-            // Create queues for rooms 1-20
-            for (int i = 1; i <= 20; i++) {
-                String queueName = "room." + i;
-                String routingKey = "room." + i;
+    private PublisherChannel createPublisherChannel(int connectionIndex) throws IOException {
+        Channel channel = connections.get(connectionIndex).createChannel();
+        PublisherChannel publisherChannel;
+        if (!confirmsEnabled) {
+            publisherChannel = new PublisherChannel(channel, null, connectionIndex);
+        } else {
+            // Confirms are handled asynchronously, nobody calls waitForConfirms
+            channel.confirmSelect();
+            ConfirmTracker tracker = new ConfirmTracker(metrics);
+            channel.addConfirmListener(tracker);
+            channel.addShutdownListener(tracker::failAll);
+            publisherChannel = new PublisherChannel(channel, tracker, connectionIndex);
+        }
+        allChannels.add(publisherChannel);
+        return publisherChannel;
+    }
 
-                channel.queueDeclare(queueName, true, false, false, null);
-                channel.queueBind(queueName, EXCHANGE_NAME, routingKey);
+    public PublisherChannel borrowChannel() throws InterruptedException {
+        long start = System.nanoTime();
+        PublisherChannel channel = channelAffinity ? threadChannel() : channelPool.take();
+        metrics.recordChannelWait(System.nanoTime() - start);
+        return channel;
+    }
 
-                System.out.println("Created and bound queue: " + queueName);
-            }
+    public void returnChannel(PublisherChannel channel) {
+        if (!channelAffinity && channel.isOpen()) {
+            channelPool.offer(channel);
         }
     }
 
-    private void createChannelPool(int poolSize) throws IOException {
-        for (int i = 0; i < poolSize; i++) {
-            Channel channel = connection.createChannel();
-            channelPool.offer(channel);
+    // The calling thread's own channel, reopened if the broker closed it
+    private PublisherChannel threadChannel() {
+        PublisherChannel channel = threadChannels.get();
+        if (channel != null && channel.isOpen()) {
+            return channel;
         }
-        System.out.println("Created channel pool with " + poolSize + " channels");
+        if (channel != null) {
+            allChannels.remove(channel);
+        }
+
+        int connectionIndex = Math.floorMod(nextConnection.getAndIncrement(), connections.size());
+        try {
+            channel = createPublisherChannel(connectionIndex);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open a publishing channel", e);
+        }
+        threadChannels.set(channel);
+        log.info("Opened channel for {} on connection {}", Thread.currentThread().getName(), connectionIndex);
+        return channel;
     }
 
-    public Channel borrowChannel() throws InterruptedException {
-        return channelPool.take();
+    /**
+     * Publishes the message and returns a future that completes once it is
+     * safe to ACK the client: right after basicPublish without confirms, or
+     * when the broker confirms the delivery tag in confirm mode. A nack or a
+     * closed channel completes the future exceptionally. In batching mode the
+     * future completes when the batch holding the message is flushed.
+     */
+    @Override
+    public CompletableFuture<Void> publish(String roomId, byte[] body) throws IOException {
+        RoomRoute route = topology.route(roomId);
+        String routingKey = route.getRoutingKey();
+
+        if (batchingPublisher != null) {
+            return batchingPublisher.add(route, body);
+        }
+
+        PublisherChannel publisherChannel;
+        try {
+            publisherChannel = borrowChannel();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a channel");
+        }
+        try {
+            CompletableFuture<Void> confirmed = publish(publisherChannel, routingKey,
+                    route.getProperties(), body);
+            metrics.incrementMessagesPublished();
+
+            perMessageLog.info("Published message to {}", routingKey);
+            return confirmed;
+        } finally {
+            returnChannel(publisherChannel);
+        }
     }
 
-    public void returnChannel(Channel channel) {
-        if (channel.isOpen()) {
-            channelPool.offer(channel);
+    /**
+     * Publishes on the routing key's ordered channel, so messages handed over
+     * one after another for a room reach the broker in that order whichever
+     * thread hands them over. In batching mode the batch keeps the order.
+     */
+    @Override
+    public CompletableFuture<Void> publishOrdered(String roomId, byte[] body) throws IOException {
+        RoomRoute route = topology.route(roomId);
+        if (batchingPublisher != null) {
+            return batchingPublisher.add(route, body);
+        }
+        CompletableFuture<Void> confirmed = publishOrdered(route.getRoutingKey(), route.getProperties(), body);
+        metrics.incrementMessagesPublished();
+        return confirmed;
+    }
+
+    CompletableFuture<Void> publishOrdered(String routingKey, AMQP.BasicProperties properties, byte[] body)
+            throws IOException {
+        PublisherChannel channel = orderedChannel(routingKey);
+        // Held from taking the delivery tag to the publish, other keys share the channel
+        synchronized (channel) {
+            return publish(channel, routingKey, properties, body);
         }
     }
 
-    public void publishMessage(QueueMessage queueMessage) throws Exception {
-        Channel channel = borrowChannel();
+    // The routing key's ordered channel, reopened if the broker closed it
+    private PublisherChannel orderedChannel(String routingKey) throws IOException {
+        int index = Math.floorMod(routingKey.hashCode(), orderedChannels.length());
+        PublisherChannel channel = orderedChannels.get(index);
+        if (channel != null && channel.isOpen()) {
+            return channel;
+        }
+        synchronized (orderedChannels) {
+            channel = orderedChannels.get(index);
+            if (channel == null || !channel.isOpen()) {
+                if (channel != null) {
+                    allChannels.remove(channel);
+                }
+                channel = createPublisherChannel(index % connections.size());
+                orderedChannels.set(index, channel);
+            }
+            return channel;
+        }
+    }
+
+    // Single basicPublish on a borrowed channel, with confirm tracking in confirm mode
+    CompletableFuture<Void> publish(PublisherChannel publisherChannel, String routingKey,
+                                    AMQP.BasicProperties properties, byte[] body) throws IOException {
+        Channel channel = publisherChannel.getChannel();
+        if (!publisherChannel.isConfirmMode()) {
+            try {
+                channel.basicPublish(EXCHANGE_NAME, routingKey, properties, body);
+            } catch (IOException | RuntimeException e) {
+                metrics.incrementPublishFailures();
+                throw e;
+            }
+            publisherChannel.recordPublish();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        ConfirmTracker tracker = publisherChannel.getConfirmTracker();
+        long deliveryTag = channel.getNextPublishSeqNo();
+        CompletableFuture<Void> confirmed = tracker.track(deliveryTag);
         try {
-            String routingKey = "room." + queueMessage.getRoomId();
-            String messageJson = objectMapper.writeValueAsString(queueMessage);
+            channel.basicPublish(EXCHANGE_NAME, routingKey, properties, body);
+        } catch (IOException | RuntimeException e) {
+            tracker.fail(deliveryTag, e);
+            metrics.incrementPublishFailures();
+            throw e;
+        }
+        publisherChannel.recordPublish();
+        return confirmed;
+    }
 
-            channel.basicPublish(
-                    EXCHANGE_NAME,
-                    routingKey,
-                    MessageProperties.PERSISTENT_TEXT_PLAIN,
-                    messageJson.getBytes()
-            );
+    // AMQP publishes (a batch envelope counts once) per connection, and the rate since the last report
+    public synchronized void printConnectionMetrics() {
+        long[] publishes = new long[connections.size()];
+        int[] channels = new int[connections.size()];
+        for (PublisherChannel channel : allChannels) {
+            publishes[channel.getConnectionIndex()] += channel.getPublishes();
+            channels[channel.getConnectionIndex()]++;
+        }
 
-            System.out.println("Published message to " + routingKey);
-        } finally {
-            returnChannel(channel);
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - lastReportNanos) / 1e9);
+        System.out.println("\n=== RabbitMQ Connections (" + (channelAffinity ? "thread-affine" : "pooled") + " channels) ===");
+        for (int i = 0; i < publishes.length; i++) {
+            System.out.println("Connection " + i + ": " + channels[i] + " channels, " + publishes[i] + " publishes, "
+                    + String.format("%.1f", (publishes[i] - lastPublishes[i]) / seconds) + " publishes/sec");
+        }
+        lastPublishes = publishes;
+        lastReportNanos = now;
+    }
+
+    public boolean isConfirmsEnabled() {
+        return confirmsEnabled;
+    }
+
+    public PublishMetrics getMetrics() {
+        return metrics;
+    }
+
+    public QueueTopology getTopology() {
+        return topology;
+    }
+
+    public BatchingPublisher getBatchingPublisher() {
+        return batchingPublisher;
+    }
+
+    @Override
+    public boolean isConnected() {
+        for (Connection connection : connections) {
+            if (!connection.isOpen()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void writeMetrics(PrometheusWriter out) {
+        metrics.writeMetrics(out);
+        int open = 0;
+        for (Connection connection : connections) {
+            open += connection.isOpen() ? 1 : 0;
+        }
+        out.gauge("chatflow_amqp_connections_open", "Open publishing connections", open);
+        out.gauge("chatflow_amqp_channels", "Publishing channels, pooled or owned by a thread", allChannels.size());
+        out.gauge("chatflow_rooms_declared", "Rooms with a declared route", topology.getDeclaredRoomCount());
+        if (batchingPublisher != null) {
+            out.counter("chatflow_batches_flushed_total", "Batches flushed", batchingPublisher.getBatchesFlushed());
+            out.counter("chatflow_messages_batched_total", "Messages sent in batches",
+                    batchingPublisher.getMessagesBatched());
+            out.gauge("chatflow_batches_open", "Routing keys with a batch", batchingPublisher.getBatchCount());
+            out.counter("chatflow_batches_evicted_total", "Idle batches dropped",
+                    batchingPublisher.getBatchesEvicted());
         }
     }
 
-    public void close() throws IOException, TimeoutException {
-        // Close all channels in pool
-        while (!channelPool.isEmpty()) {
-            Channel channel = channelPool.poll();
-            if (channel != null && channel.isOpen()) {
+    @Override
+    public void printMetrics() {
+        metrics.printMetrics();
+        printConnectionMetrics();
+        topology.printMetrics();
+        if (batchingPublisher != null) {
+            batchingPublisher.printMetrics();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Push out anything still lingering before the channels go away
+        if (batchingPublisher != null) {
+            batchingPublisher.close();
+        }
+
+        // Close every channel, pooled or owned by a thread; one that times out
+        // does not keep the rest open, and closing the connection ends it anyway
+        channelPool.clear();
+        for (PublisherChannel channel : allChannels) {
+            try {
                 channel.close();
+            } catch (TimeoutException e) {
+                log.warn("Timed out closing a publishing channel: {}", e.getMessage());
             }
         }
 
-        if (connection != null && connection.isOpen()) {
-            connection.close();
+        for (Connection connection : connections) {
+            if (connection.isOpen()) {
+                connection.close();
+            }
         }
 
-        System.out.println("RabbitMQ connection closed");
+        log.info("RabbitMQ connection closed");
     }
 }
\ No newline at end of file
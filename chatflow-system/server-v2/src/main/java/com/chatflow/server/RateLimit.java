@@ -0,0 +1,74 @@
+package com.chatflow.server;
+
+import com.chatflow.common.ChatLogger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A sustained rate and a burst, in the form GCRA uses them: one message is
+ * due every emission interval, and a key may run up to burst - 1 intervals
+ * ahead of schedule. Written as "rate:burst", e.g. "20:40" for 20 messages
+ * per second with bursts of up to 40.
+ */
+public final class RateLimit {
+    private static final ChatLogger log = ChatLogger.getLogger(RateLimit.class);
+
+    private final double perSecond;
+    private final int burst;
+    final long emissionIntervalNanos;
+    // How far ahead of now a key's next due time may be, including this message
+    final long limitNanos;
+
+    public RateLimit(double perSecond, int burst) {
+        if (perSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        this.perSecond = perSecond;
+        this.burst = burst;
+        this.emissionIntervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond));
+        this.limitNanos = emissionIntervalNanos * burst;
+    }
+
+    // Null for blank or malformed values, which leaves that limit off
+    public static RateLimit parse(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            String[] parts = value.trim().split(":");
+            double perSecond = Double.parseDouble(parts[0].trim());
+            int burst = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : (int) Math.ceil(perSecond);
+            return new RateLimit(perSecond, burst);
+        } catch (RuntimeException e) {
+            log.warn("Invalid rate limit '{}', expected rate:burst; limit disabled", value);
+            return null;
+        }
+    }
+
+    // "lobby=5:10,3=50:100" -> room ID to limit; malformed entries are skipped
+    public static Map<String, RateLimit> parseRoomLimits(String value) {
+        Map<String, RateLimit> limits = new HashMap<>();
+        if (value == null || value.isBlank()) {
+            return limits;
+        }
+        for (String entry : value.split(",")) {
+            int separator = entry.indexOf('=');
+            if (separator <= 0) {
+                log.warn("Invalid room rate limit '{}', expected room=rate:burst", entry);
+                continue;
+            }
+            RateLimit limit = parse(entry.substring(separator + 1));
+            if (limit != null) {
+                limits.put(entry.substring(0, separator).trim(), limit);
+            }
+        }
+        return limits;
+    }
+
+    @Override
+    public String toString() {
+        return perSecond + "/s burst " + burst;
+    }
+}
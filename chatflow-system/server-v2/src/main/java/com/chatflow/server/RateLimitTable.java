@@ -0,0 +1,93 @@
+package com.chatflow.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets keyed by K, stored as GCRA state: each key holds one long,
+ * the time its next message is due. A check is a map lookup and a CAS, with
+ * no locks and no clock thread. Keys are spread over stripes, and each stripe
+ * sweeps out its idle keys (next due time in the past, which is the same as
+ * a full bucket) at most once per sweep interval, on whichever thread
+ * happens to notice that the interval has passed.
+ */
+public class RateLimitTable<K> {
+    private static final long SWEEP_INTERVAL_NANOS = 1_000_000_000L;
+    // A due time no real key can have, any timestamp is later
+    private static final long NEVER = Long.MIN_VALUE;
+
+    private final Stripe<K>[] stripes;
+    private final int mask;
+
+    @SuppressWarnings("unchecked")
+    public RateLimitTable(int stripeCount) {
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1) << 1);
+        this.stripes = (Stripe<K>[]) new Stripe<?>[size];
+        this.mask = size - 1;
+        long now = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe<>(now);
+        }
+    }
+
+    public boolean tryAcquire(K key, RateLimit limit, long nowNanos) {
+        Stripe<K> stripe = stripes[spread(key.hashCode()) & mask];
+        stripe.sweepIfDue(nowNanos);
+
+        AtomicLong dueAt = stripe.cells.get(key);
+        if (dueAt == null) {
+            AtomicLong created = new AtomicLong(NEVER);
+            dueAt = stripe.cells.putIfAbsent(key, created);
+            if (dueAt == null) {
+                dueAt = created;
+            }
+        }
+
+        while (true) {
+            long current = dueAt.get();
+            long next = Math.max(current, nowNanos) + limit.emissionIntervalNanos;
+            if (next - nowNanos > limit.limitNanos) {
+                return false;
+            }
+            if (dueAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    public void remove(K key) {
+        stripes[spread(key.hashCode()) & mask].cells.remove(key);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe<K> stripe : stripes) {
+            size += stripe.cells.size();
+        }
+        return size;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static class Stripe<K> {
+        final Map<K, AtomicLong> cells = new ConcurrentHashMap<>();
+        final AtomicLong nextSweepNanos;
+
+        Stripe(long nowNanos) {
+            this.nextSweepNanos = new AtomicLong(nowNanos + SWEEP_INTERVAL_NANOS);
+        }
+
+        void sweepIfDue(long nowNanos) {
+            long due = nextSweepNanos.get();
+            if (nowNanos - due < 0 || !nextSweepNanos.compareAndSet(due, nowNanos + SWEEP_INTERVAL_NANOS)) {
+                return;
+            }
+            // A key charged while it is being removed loses that one charge,
+            // which only matters for keys that were idle a moment ago
+            cells.values().removeIf(dueAt -> dueAt.get() <= nowNanos);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.chatflow.server;
+
+import org.java_websocket.WebSocket;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ingress send-rate limits, checked after validation and before publishing.
+ * Each userId has one bucket shared by the rooms on the default limit, and
+ * one of its own in each room with an override, so the rooms' limits never
+ * draw on each other. Each connection has its own bucket on top. Either
+ * limit can be left unset to turn it off.
+ */
+public class RateLimiter {
+    public enum Reason {
+        USER_RATE("User rate limit exceeded"),
+        CONNECTION_RATE("Connection rate limit exceeded");
+
+        private final String message;
+
+        Reason(String message) {
+            this.message = message;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    private static final int STRIPES = 64;
+
+    private final RateLimit defaultUserLimit;
+    private final Map<String, RateLimit> roomUserLimits;
+    private final RateLimit connectionLimit;
+    private final RateLimitTable<String> users = new RateLimitTable<>(STRIPES);
+    // Users' buckets in each room with an override
+    private final Map<String, RateLimitTable<String>> roomUsers = new HashMap<>();
+    private final RateLimitTable<WebSocket> connections = new RateLimitTable<>(STRIPES);
+
+    private final AtomicLongArray rejections = new AtomicLongArray(Reason.values().length);
+
+    public RateLimiter(RateLimit defaultUserLimit, Map<String, RateLimit> roomUserLimits,
+                       RateLimit connectionLimit) {
+        this.defaultUserLimit = defaultUserLimit;
+        this.roomUserLimits = Map.copyOf(roomUserLimits);
+        this.connectionLimit = connectionLimit;
+        for (String roomId : this.roomUserLimits.keySet()) {
+            roomUsers.put(roomId, new RateLimitTable<>(STRIPES));
+        }
+    }
+
+    public boolean isEnabled() {
+        return defaultUserLimit != null || !roomUserLimits.isEmpty() || connectionLimit != null;
+    }
+
+    /**
+     * Returns null if the message may be published, otherwise why not. A
+     * message rejected by the connection limit is not charged to the user.
+     */
+    public Reason check(WebSocket conn, String roomId, String userId) {
+        long now = System.nanoTime();
+
+        if (connectionLimit != null && !connections.tryAcquire(conn, connectionLimit, now)) {
+            return reject(Reason.CONNECTION_RATE);
+        }
+
+        RateLimit userLimit = roomUserLimits.get(roomId);
+        RateLimitTable<String> buckets = roomUsers.get(roomId);
+        if (userLimit == null) {
+            userLimit = defaultUserLimit;
+            buckets = users;
+        }
+        if (userLimit != null && !buckets.tryAcquire(userId, userLimit, now)) {
+            return reject(Reason.USER_RATE);
+        }
+        return null;
+    }
+
+    // Connection buckets go with the connection; user buckets age out on their own
+    public void connectionClosed(WebSocket conn) {
+        if (connectionLimit != null) {
+            connections.remove(conn);
+        }
+    }
+
+    private Reason reject(Reason reason) {
+        rejections.incrementAndGet(reason.ordinal());
+        return reason;
+    }
+
+    public long getRejections(Reason reason) {
+        return rejections.get(reason.ordinal());
+    }
+
+    public void printMetrics() {
+        System.out.println("\n=== Rate Limiting ===");
+        System.out.println("User Limit: " + defaultUserLimit + ", Room Overrides: " + roomUserLimits.size()
+                + ", Connection Limit: " + connectionLimit);
+        int trackedUsers = users.size();
+        for (RateLimitTable<String> buckets : roomUsers.values()) {
+            trackedUsers += buckets.size();
+        }
+        System.out.println("Tracked User Buckets: " + trackedUsers + ", Tracked Connections: " + connections.size());
+        for (Reason reason : Reason.values()) {
+            System.out.println("Rejected (" + reason + "): " + getRejections(reason));
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.chatflow.server;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.framing.TextFrame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds ACK, ERROR and THROTTLE frames from pre-encoded JSON templates into a
+ * per-thread reusable buffer. Only the messageId digits and the cached
+ * timestamp are written per response. Frames keep the text opcode so existing clients
+ * are unaffected; Java-WebSocket copies the payload while framing, so the
+ * buffer can be reused as soon as sendFrame returns.
+ */
+public class ResponseEncoder {
+    private static final int INITIAL_BUFFER_SIZE = 512;
+    private static final int MAX_CACHED_ERRORS = 256;
+
+    private static final byte[] ACK_PREFIX = ascii("{\"status\":\"SUCCESS\",\"message\":\"Message published\",\"messageId\":");
+    private static final byte[] ACK_TIMESTAMP_FIELD = ascii(",\"serverTimestamp\":\"");
+    private static final byte[] ERROR_PREFIX = ascii("{\"status\":\"ERROR\",\"message\":\"");
+    private static final byte[] THROTTLE_PREFIX = ascii("{\"status\":\"THROTTLE\",\"message\":\"");
+    private static final byte[] TIMESTAMP_FIELD = ascii("\",\"serverTimestamp\":\"");
+    private static final byte[] SUFFIX = ascii("\"}");
+    private static final byte[] HEX = ascii("0123456789abcdef");
+
+    // Error texts are nearly always the same few constants, encode each once
+    private final Map<String, byte[]> encodedErrors = new ConcurrentHashMap<>();
+    private final ThreadLocal<ByteBuffer> buffers =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_BUFFER_SIZE));
+
+    public void sendAck(WebSocket conn, long messageId) {
+        ByteBuffer buffer = buffers.get();
+        buffer.clear();
+        buffer = put(buffer, ACK_PREFIX);
+        buffer = putDecimal(buffer, messageId);
+        buffer = put(buffer, ACK_TIMESTAMP_FIELD);
+        buffer = put(buffer, CachedTimestamp.currentBytes());
+        buffer = put(buffer, SUFFIX);
+        send(conn, buffer);
+    }
+
+    public void sendError(WebSocket conn, String errorMessage) {
+        sendStatus(conn, ERROR_PREFIX, errorMessage);
+    }
+
+    public void sendThrottle(WebSocket conn, String message) {
+        sendStatus(conn, THROTTLE_PREFIX, message);
+    }
+
+    private void sendStatus(WebSocket conn, byte[] prefix, String message) {
+        ByteBuffer buffer = buffers.get();
+        buffer.clear();
+        buffer = put(buffer, prefix);
+        buffer = put(buffer, encodedError(message));
+        buffer = put(buffer, TIMESTAMP_FIELD);
+        buffer = put(buffer, CachedTimestamp.currentBytes());
+        buffer = put(buffer, SUFFIX);
+        send(conn, buffer);
+    }
+
+    private void send(WebSocket conn, ByteBuffer buffer) {
+        buffer.flip();
+        TextFrame frame = new TextFrame();
+        frame.setPayload(buffer);
+        frame.setFin(true);
+        conn.sendFrame(frame);
+    }
+
+    private byte[] encodedError(String errorMessage) {
+        byte[] encoded = encodedErrors.get(errorMessage);
+        if (encoded != null) {
+            return encoded;
+        }
+
+        ByteBuffer scratch = putEscaped(ByteBuffer.allocate(errorMessage.length() * 2 + 16), errorMessage);
+        scratch.flip();
+        encoded = new byte[scratch.remaining()];
+        scratch.get(encoded);
+
+        // Keep the cache bounded in case callers ever pass dynamic text
+        if (encodedErrors.size() < MAX_CACHED_ERRORS) {
+            encodedErrors.putIfAbsent(errorMessage, encoded);
+        }
+        return encoded;
+    }
+
+    // JSON string escaping with UTF-8 output, ASCII is the fast path
+    private ByteBuffer putEscaped(ByteBuffer buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                buffer = ensureCapacity(buffer, 1);
+                buffer.put((byte) c);
+            } else if (c == '"' || c == '\\') {
+                buffer = ensureCapacity(buffer, 2);
+                buffer.put((byte) '\\').put((byte) c);
+            } else if (c < 0x20) {
+                buffer = ensureCapacity(buffer, 6);
+                buffer.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0')
+                        .put(HEX[c >> 4]).put(HEX[c & 0xF]);
+            } else {
+                int end = i + 1;
+                if (Character.isHighSurrogate(c) && end < value.length()) {
+                    end++;
+                }
+                buffer = put(buffer, value.substring(i, end).getBytes(StandardCharsets.UTF_8));
+                i = end - 1;
+            }
+        }
+        return buffer;
+    }
+
+    // Digits written straight into the buffer, no Long.toString garbage
+    private ByteBuffer putDecimal(ByteBuffer buffer, long value) {
+        if (value < 0) {
+            return put(buffer, ascii(Long.toString(value))); // IDs are never negative
+        }
+        buffer = ensureCapacity(buffer, 19);
+        int start = buffer.position();
+        do {
+            buffer.put((byte) ('0' + (value % 10)));
+            value /= 10;
+        } while (value > 0);
+        for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+            byte swap = buffer.get(i);
+            buffer.put(i, buffer.get(j));
+            buffer.put(j, swap);
+        }
+        return buffer;
+    }
+
+    private ByteBuffer put(ByteBuffer buffer, byte[] bytes) {
+        buffer = ensureCapacity(buffer, bytes.length);
+        buffer.put(bytes);
+        return buffer;
+    }
+
+    // Grows (and re-pools) the thread's buffer for unusually long responses
+    private ByteBuffer ensureCapacity(ByteBuffer buffer, int needed) {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        buffer.flip();
+        larger.put(buffer);
+        if (buffer == buffers.get()) {
+            buffers.set(larger);
+        }
+        return larger;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
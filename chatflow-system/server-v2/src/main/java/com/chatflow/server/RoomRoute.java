@@ -0,0 +1,35 @@
+package com.chatflow.server;
+
+import com.rabbitmq.client.AMQP;
+
+import java.util.Map;
+
+/**
+ * Where a room's messages are published: its routing key (the room's own
+ * queue or its shard queue) and the message properties, built once per room,
+ * that carry the room ID so consumers can demultiplex shared shard queues.
+ */
+public final class RoomRoute {
+    public static final String ROOM_ID_HEADER = "x-room-id";
+
+    private final String routingKey;
+    private final AMQP.BasicProperties properties;
+
+    RoomRoute(String routingKey, String roomId) {
+        this.routingKey = routingKey;
+        this.properties = new AMQP.BasicProperties.Builder()
+                .contentType("text/plain")
+                .deliveryMode(2) // persistent
+                .priority(0)
+                .headers(Map.of(ROOM_ID_HEADER, roomId))
+                .build();
+    }
+
+    public String getRoutingKey() {
+        return routingKey;
+    }
+
+    public AMQP.BasicProperties getProperties() {
+        return properties;
+    }
+}
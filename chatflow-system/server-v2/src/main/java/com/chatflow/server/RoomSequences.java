@@ -0,0 +1,30 @@
+package com.chatflow.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Numbers each room's messages 1, 2, 3... for the life of this server
+ * instance, so (serverId, roomId, sequence) lets consumers and clients spot
+ * loss and reordering. Independent of the broker; a publish that fails after
+ * taking a number leaves a gap.
+ *
+ * The broker keeps order per channel only, so numbers reach it in order
+ * when each room's messages are numbered and sent in one step on one
+ * channel: with room ordering and channel affinity the room's publisher
+ * thread and its channel do that; otherwise the server numbers under the
+ * room's lock and sends on the room's ordered channel (publishOrdered).
+ */
+public class RoomSequences {
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    // The room's counter, kept by each of its connections, see ConnectionContext
+    public AtomicLong counter(String roomId) {
+        AtomicLong counter = counters.get(roomId);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(roomId, k -> new AtomicLong(0));
+        }
+        return counter;
+    }
+}
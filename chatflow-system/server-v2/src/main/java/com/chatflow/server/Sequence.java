@@ -0,0 +1,50 @@
+package com.chatflow.server;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Cache-line padded sequence counter for the publish ring buffers. The
+ * producer and consumer cursors are written by different threads, so each
+ * one sits on its own cache line to avoid false sharing.
+ */
+class SequenceLeftPadding {
+    protected long p1, p2, p3, p4, p5, p6, p7;
+}
+
+class SequenceValue extends SequenceLeftPadding {
+    protected volatile long value;
+}
+
+class SequenceRightPadding extends SequenceValue {
+    protected long p9, p10, p11, p12, p13, p14, p15;
+}
+
+public class Sequence extends SequenceRightPadding {
+    private static final VarHandle VALUE;
+
+    static {
+        try {
+            VALUE = MethodHandles.lookup().findVarHandle(SequenceValue.class, "value", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public Sequence(long initialValue) {
+        VALUE.setRelease(this, initialValue);
+    }
+
+    public long get() {
+        return (long) VALUE.getAcquire(this);
+    }
+
+    // Ordered store, enough for a single writer publishing to readers
+    public void set(long newValue) {
+        VALUE.setRelease(this, newValue);
+    }
+
+    public boolean compareAndSet(long expected, long newValue) {
+        return VALUE.compareAndSet(this, expected, newValue);
+    }
+}
@@ -0,0 +1,157 @@
+package com.chatflow.server;
+
+import com.chatflow.common.ChatLogger;
+import com.chatflow.common.VirtualThreads;
+
+/**
+ * Runtime switches for server-v2. Every value comes from an environment
+ * variable (same as the RabbitMQ settings). Most defaults leave their feature
+ * off, but these change what an unconfigured server does:
+ *
+ * - PUBLISH_STAGE: messages are published by publisher threads through ring
+ *   buffers instead of on the WebSocket worker that read them
+ * - PUBLISH_ORDERING: those publisher threads are striped by room
+ * - CHANNEL_AFFINITY: each publishing thread keeps a channel of its own
+ *   instead of borrowing one from the pool per message
+ * - INFLIGHT_HIGH_WATERMARK: a connection with 1000 publishes in flight is
+ *   answered with THROTTLE until it is down to 500
+ *
+ * CHATFLOW_PUBLISH_STAGE=false, CHATFLOW_CHANNEL_AFFINITY=false and
+ * CHATFLOW_INFLIGHT_HIGH_WATERMARK=0 give the original publishing path.
+ */
+public final class ServerConfig {
+    private static final ChatLogger log = ChatLogger.getLogger(ServerConfig.class);
+
+    // rabbitmq | memory (in-JVM queues, messages are discarded unless a
+    // consumer runs in the same process, see StandaloneChatFlow)
+    public static final String BROKER = envString("CHATFLOW_BROKER", "rabbitmq");
+    // Bound of each room queue in the in-memory broker
+    public static final int MEMORY_QUEUE_CAPACITY = envInt("CHATFLOW_MEMORY_QUEUE_CAPACITY", 10000);
+    // Threads delivering from all room queues of the in-memory broker
+    public static final int MEMORY_DISPATCH_THREADS = envInt("CHATFLOW_MEMORY_DISPATCH_THREADS",
+            Runtime.getRuntime().availableProcessors());
+
+    // Wait for broker publisher confirms before ACKing the client
+    public static final boolean PUBLISHER_CONFIRMS = envBoolean("CHATFLOW_PUBLISHER_CONFIRMS", false);
+
+    // Node bits of message IDs, 0-1023 and unique per server; unset derives one from host and PID
+    public static final int NODE_ID = envInt("CHATFLOW_NODE_ID", -1);
+
+    // Number of channels in the publishing pool
+    public static final int CHANNEL_POOL_SIZE = envInt("CHATFLOW_CHANNEL_POOL_SIZE", 10);
+    // AMQP connections (TCP sockets) publishing is spread over
+    public static final int RABBITMQ_CONNECTIONS = envInt("CHATFLOW_RABBITMQ_CONNECTIONS", 1);
+    // Give each publishing thread its own channel instead of borrowing from the pool
+    public static final boolean CHANNEL_AFFINITY = envBoolean("CHATFLOW_CHANNEL_AFFINITY", true);
+
+    // Handle each message on a virtual thread (Java 21) instead of the decoder
+    // thread that read it; ignored with a warning on older JVMs
+    public static final boolean VIRTUAL_THREADS = envVirtualThreads("CHATFLOW_VIRTUAL_THREADS");
+    // Messages handled at once on virtual threads, further reads wait for a slot
+    public static final int VIRTUAL_MAX_CONCURRENCY = envInt("CHATFLOW_VIRTUAL_MAX_CONCURRENCY", 1024);
+
+    // WebSocket decoder (worker) threads, one publish ring is sized per thread
+    public static final int DECODER_THREADS = envInt("CHATFLOW_DECODER_THREADS",
+            Runtime.getRuntime().availableProcessors());
+
+    // Hand publishing off to dedicated publisher threads through ring buffers
+    public static final boolean PUBLISH_STAGE = envBoolean("CHATFLOW_PUBLISH_STAGE", true);
+    public static final int RING_SIZE = envInt("CHATFLOW_RING_SIZE", 1024);
+    public static final int PUBLISHER_THREADS = envInt("CHATFLOW_PUBLISHER_THREADS", 4);
+    // busyspin | yielding | sleeping | blocking
+    public static final String WAIT_STRATEGY = envString("CHATFLOW_WAIT_STRATEGY", "sleeping");
+    // reject | backpressure
+    public static final String QUEUE_FULL_POLICY = envString("CHATFLOW_QUEUE_FULL_POLICY", "reject");
+    // room: stripe publisher threads by room so each room publishes in order;
+    // connection: one ring per worker thread, ordered per connection only
+    public static final String PUBLISH_ORDERING = envString("CHATFLOW_PUBLISH_ORDERING", "room");
+
+    // Micro-batching per room routing key: off | envelope | burst
+    public static final String BATCH_MODE = envString("CHATFLOW_BATCH_MODE", "off");
+    // Flush a room batch once it holds this many messages...
+    public static final int BATCH_SIZE = envInt("CHATFLOW_BATCH_SIZE", 64);
+    // ...or once its oldest message has waited this long
+    public static final long BATCH_LINGER_MICROS = envLong("CHATFLOW_BATCH_LINGER_MICROS", 2000);
+
+    // permessage-deflate for clients that offer it
+    public static final boolean WS_COMPRESSION = envBoolean("CHATFLOW_WS_COMPRESSION", false);
+    // Payloads below this many bytes go out uncompressed
+    public static final int WS_COMPRESSION_THRESHOLD = envInt("CHATFLOW_WS_COMPRESSION_THRESHOLD", 256);
+    // Keep the deflate window between messages (better ratio, more memory per connection)
+    public static final boolean WS_CONTEXT_TAKEOVER = envBoolean("CHATFLOW_WS_CONTEXT_TAKEOVER", true);
+
+    // Per-connection in-flight publishes: answer THROTTLE at the high watermark
+    // until the connection drains to the low one; 0 disables throttling
+    public static final int INFLIGHT_HIGH_WATERMARK = envInt("CHATFLOW_INFLIGHT_HIGH_WATERMARK", 1000);
+    public static final int INFLIGHT_LOW_WATERMARK = envInt("CHATFLOW_INFLIGHT_LOW_WATERMARK", 500);
+
+    // /ready turns 503 above this many in-flight publishes
+    public static final int READY_MAX_BACKLOG = envInt("CHATFLOW_READY_MAX_BACKLOG", 10000);
+
+    // On shutdown, how long to wait for in-flight publishes before closing anyway
+    public static final long DRAIN_TIMEOUT_MILLIS = envLong("CHATFLOW_DRAIN_TIMEOUT_MS", 10000);
+
+    // Ingress rate limits as "rate:burst" (messages per second, bucket size),
+    // unset leaves the limit off. Room overrides replace the user limit:
+    // "lobby=5:10,3=50:100"
+    public static final String USER_RATE_LIMIT = envString("CHATFLOW_USER_RATE_LIMIT", "");
+    public static final String ROOM_RATE_LIMITS = envString("CHATFLOW_ROOM_RATE_LIMITS", "");
+    public static final String CONNECTION_RATE_LIMIT = envString("CHATFLOW_CONNECTION_RATE_LIMIT", "");
+
+    // Route rooms to this many shard queues by consistent hashing, 0 keeps one queue per room
+    public static final int ROOM_SHARDS = envInt("CHATFLOW_ROOM_SHARDS", 0);
+    // Points per shard on the hash ring, more points spread rooms more evenly
+    public static final int SHARD_VNODES = envInt("CHATFLOW_SHARD_VNODES", 160);
+
+    private ServerConfig() {}
+
+    static String envString(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return (value == null || value.isBlank()) ? defaultValue : value.trim();
+    }
+
+    static int envInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value for {}: {}, using default: {}", name, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static long envLong(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value for {}: {}, using default: {}", name, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static boolean envBoolean(String name, boolean defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    static boolean envVirtualThreads(String name) {
+        if (!envBoolean(name, false)) {
+            return false;
+        }
+        if (!VirtualThreads.isSupported()) {
+            log.warn("{} needs Java 21, running {}; using platform threads", name, Runtime.version());
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,309 @@
+package com.chatflow.server;
+
+import com.chatflow.common.BinaryChatFrame;
+import com.chatflow.common.BinaryCodec;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+
+/**
+ * Parses and validates an inbound chat frame in a single pass over the JSON
+ * tokens. Field rules are checked as each value is tokenized, straight from
+ * the parser's character buffer, and parsing stops at the first violation.
+ * A {@link ChatMessage} is only built once every field has passed.
+ *
+ * Rules and error texts match the original validateMessage: userId 1-100000,
+ * username 3-20 alphanumeric characters, message 1-500 characters,
+ * messageType and timestamp required.
+ */
+public class StreamingMessageValidator {
+    private static final MessageType[] MESSAGE_TYPES = MessageType.values();
+
+    private final JsonFactory jsonFactory;
+
+    public StreamingMessageValidator() {
+        this(new JsonFactory());
+    }
+
+    public StreamingMessageValidator(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    public ValidationResult parse(String json) {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return ValidationResult.INVALID_JSON;
+            }
+
+            String userId = null;
+            String username = null;
+            String message = null;
+            String timestamp = null;
+            String trackingId = null;
+            MessageType messageType = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+
+                switch (field) {
+                    case "userId":
+                        ValidationResult userIdError = checkUserId(parser, value);
+                        if (userIdError != null) {
+                            return userIdError;
+                        }
+                        userId = parser.getText();
+                        break;
+
+                    case "username":
+                        if (value == JsonToken.VALUE_NULL) {
+                            return ValidationResult.USERNAME_REQUIRED;
+                        }
+                        ValidationResult usernameError = checkUsername(parser, value);
+                        if (usernameError != null) {
+                            return usernameError;
+                        }
+                        username = parser.getText();
+                        break;
+
+                    case "message":
+                        if (value == JsonToken.VALUE_NULL) {
+                            return ValidationResult.MESSAGE_REQUIRED;
+                        }
+                        if (!value.isScalarValue()) {
+                            return ValidationResult.INVALID_JSON;
+                        }
+                        int length = parser.getTextLength();
+                        if (length < 1 || length > 500) {
+                            return ValidationResult.MESSAGE_LENGTH;
+                        }
+                        message = parser.getText();
+                        break;
+
+                    case "messageType":
+                        if (value == JsonToken.VALUE_NULL) {
+                            return ValidationResult.MESSAGE_TYPE_REQUIRED;
+                        }
+                        if (value != JsonToken.VALUE_STRING) {
+                            return ValidationResult.MESSAGE_TYPE_INVALID;
+                        }
+                        messageType = matchMessageType(parser);
+                        if (messageType == null) {
+                            return ValidationResult.MESSAGE_TYPE_INVALID;
+                        }
+                        break;
+
+                    case "timestamp":
+                        if (value == JsonToken.VALUE_NULL) {
+                            return ValidationResult.TIMESTAMP_REQUIRED;
+                        }
+                        if (!value.isScalarValue()) {
+                            return ValidationResult.INVALID_JSON;
+                        }
+                        timestamp = parser.getText();
+                        break;
+
+                    case "trackingId":
+                        if (value != JsonToken.VALUE_NULL) {
+                            if (!value.isScalarValue()) {
+                                return ValidationResult.INVALID_JSON;
+                            }
+                            trackingId = parser.getText();
+                        }
+                        break;
+
+                    default:
+                        // Unknown fields are ignored, like @JsonIgnoreProperties on ChatMessage
+                        parser.skipChildren();
+                }
+            }
+
+            // Missing fields, reported in the original validation order
+            if (userId == null) {
+                return ValidationResult.USER_ID_REQUIRED;
+            }
+            if (username == null) {
+                return ValidationResult.USERNAME_REQUIRED;
+            }
+            if (message == null) {
+                return ValidationResult.MESSAGE_REQUIRED;
+            }
+            if (messageType == null) {
+                return ValidationResult.MESSAGE_TYPE_REQUIRED;
+            }
+            if (timestamp == null) {
+                return ValidationResult.TIMESTAMP_REQUIRED;
+            }
+
+            return ValidationResult.valid(
+                    new ChatMessage(userId, username, message, timestamp, messageType, trackingId));
+
+        } catch (IOException e) {
+            return ValidationResult.INVALID_JSON;
+        }
+    }
+
+    /**
+     * Binary counterpart of {@link #parse(String)} for connections using the
+     * {@link BinaryCodec#PROTOCOL} subprotocol. Same rules and error texts;
+     * the epoch-millis timestamp is rendered as ISO-8601 for the queue.
+     */
+    public ValidationResult parse(ByteBuffer frame) {
+        BinaryChatFrame decoded;
+        try {
+            decoded = BinaryCodec.decodeChat(frame);
+        } catch (IllegalArgumentException e) {
+            return ValidationResult.INVALID_JSON;
+        }
+        if (decoded.getFrameType() != BinaryCodec.CHAT) {
+            return ValidationResult.INVALID_JSON;
+        }
+
+        int userId = decoded.getUserId();
+        if (userId < 1 || userId > 100000) {
+            return ValidationResult.USER_ID_RANGE;
+        }
+
+        String username = decoded.getUsername();
+        if (username == null) {
+            return ValidationResult.USERNAME_REQUIRED;
+        }
+        if (username.length() < 3 || username.length() > 20) {
+            return ValidationResult.USERNAME_LENGTH;
+        }
+        for (int i = 0; i < username.length(); i++) {
+            if (!isAlphanumeric(username.charAt(i))) {
+                return ValidationResult.USERNAME_CHARSET;
+            }
+        }
+
+        String message = decoded.getMessage();
+        if (message == null) {
+            return ValidationResult.MESSAGE_REQUIRED;
+        }
+        if (message.length() < 1 || message.length() > 500) {
+            return ValidationResult.MESSAGE_LENGTH;
+        }
+
+        // Binary codes follow the MessageType declaration order
+        byte typeCode = decoded.getMessageType();
+        if (typeCode < 0 || typeCode >= MESSAGE_TYPES.length) {
+            return ValidationResult.MESSAGE_TYPE_INVALID;
+        }
+
+        if (decoded.getTimestampMillis() <= 0) {
+            return ValidationResult.TIMESTAMP_REQUIRED;
+        }
+
+        return ValidationResult.valid(new ChatMessage(
+                Integer.toString(userId), username, message,
+                Instant.ofEpochMilli(decoded.getTimestampMillis()).toString(),
+                MESSAGE_TYPES[typeCode], decoded.getTrackingId()));
+    }
+
+    // Same acceptance as Integer.parseInt plus the 1-100000 range, without exceptions
+    private static ValidationResult checkUserId(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            return ValidationResult.USER_ID_REQUIRED;
+        }
+        if (!value.isScalarValue()) {
+            return ValidationResult.INVALID_JSON;
+        }
+        if (value != JsonToken.VALUE_STRING && value != JsonToken.VALUE_NUMBER_INT) {
+            return ValidationResult.USER_ID_NUMBER;
+        }
+
+        char[] chars = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int length = parser.getTextLength();
+        if (length == 0) {
+            return ValidationResult.USER_ID_NUMBER;
+        }
+
+        int index = offset;
+        int end = offset + length;
+        boolean negative = false;
+        if (chars[index] == '-' || chars[index] == '+') {
+            negative = chars[index] == '-';
+            index++;
+            if (index == end) {
+                return ValidationResult.USER_ID_NUMBER;
+            }
+        }
+
+        long number = 0;
+        for (; index < end; index++) {
+            char c = chars[index];
+            if (c < '0' || c > '9') {
+                return ValidationResult.USER_ID_NUMBER;
+            }
+            number = number * 10 + (c - '0');
+            if (number > (long) Integer.MAX_VALUE + 1) {
+                return ValidationResult.USER_ID_NUMBER; // parseInt would overflow
+            }
+        }
+        if (!negative && number > Integer.MAX_VALUE) {
+            return ValidationResult.USER_ID_NUMBER;
+        }
+
+        long userId = negative ? -number : number;
+        if (userId < 1 || userId > 100000) {
+            return ValidationResult.USER_ID_RANGE;
+        }
+        return null;
+    }
+
+    private static ValidationResult checkUsername(JsonParser parser, JsonToken value) throws IOException {
+        if (!value.isScalarValue()) {
+            return ValidationResult.INVALID_JSON;
+        }
+
+        int length = parser.getTextLength();
+        if (length < 3 || length > 20) {
+            return ValidationResult.USERNAME_LENGTH;
+        }
+
+        char[] chars = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        for (int i = offset; i < offset + length; i++) {
+            if (!isAlphanumeric(chars[i])) {
+                return ValidationResult.USERNAME_CHARSET;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isAlphanumeric(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    // Case-insensitive match against the enum names, without allocating
+    private static MessageType matchMessageType(JsonParser parser) throws IOException {
+        char[] chars = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int length = parser.getTextLength();
+
+        for (MessageType type : MESSAGE_TYPES) {
+            String name = type.name();
+            if (name.length() != length) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < length; i++) {
+                if (Character.toUpperCase(chars[offset + i]) != name.charAt(i)) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,47 @@
+package com.chatflow.server;
+
+/**
+ * Outcome of {@link StreamingMessageValidator#parse}. Rejections are shared
+ * constants, so an invalid frame costs no allocation here; each carries a
+ * short reason used as a metrics label.
+ */
+public final class ValidationResult {
+    static final ValidationResult INVALID_JSON = error("invalid_json", "Failed to process message");
+    static final ValidationResult USER_ID_REQUIRED = error("user_id_required", "userId is required");
+    static final ValidationResult USER_ID_RANGE = error("user_id_range", "userId must be between 1 and 100000");
+    static final ValidationResult USER_ID_NUMBER = error("user_id_number", "userId must be a valid number");
+    static final ValidationResult USERNAME_REQUIRED = error("username_required", "username is required");
+    static final ValidationResult USERNAME_LENGTH = error("username_length", "username must be between 3 and 20 characters");
+    static final ValidationResult USERNAME_CHARSET = error("username_charset", "username must be alphanumeric only");
+    static final ValidationResult MESSAGE_REQUIRED = error("message_required", "message is required");
+    static final ValidationResult MESSAGE_LENGTH = error("message_length", "message must be 1-500 characters");
+    static final ValidationResult MESSAGE_TYPE_REQUIRED = error("message_type_required", "messageType is required");
+    static final ValidationResult MESSAGE_TYPE_INVALID = error("message_type_invalid", "messageType must be TEXT, JOIN or LEAVE");
+    static final ValidationResult TIMESTAMP_REQUIRED = error("timestamp_required", "timestamp is required");
+
+    private final ChatMessage message;
+    private final String reason;
+    private final String error;
+
+    private ValidationResult(ChatMessage message, String reason, String error) {
+        this.message = message;
+        this.reason = reason;
+        this.error = error;
+    }
+
+    static ValidationResult valid(ChatMessage message) {
+        return new ValidationResult(message, null, null);
+    }
+
+    private static ValidationResult error(String reason, String error) {
+        return new ValidationResult(null, reason, error);
+    }
+
+    public boolean isValid() {
+        return error == null;
+    }
+
+    public ChatMessage getMessage() { return message; }
+    public String getReason() { return reason; }
+    public String getError() { return error; }
+}
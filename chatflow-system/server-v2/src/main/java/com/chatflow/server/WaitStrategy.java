@@ -0,0 +1,127 @@
+package com.chatflow.server;
+
+import com.chatflow.common.ChatLogger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * How an idle publisher thread waits for new events in its rings.
+ * Trades wake-up latency against CPU burned while the rings are empty.
+ */
+public interface WaitStrategy {
+
+    /**
+     * Called each time a publisher thread finds nothing to do.
+     *
+     * @param idleCount consecutive empty polls so far
+     * @return the idle count to pass on the next call
+     */
+    int idle(int idleCount) throws InterruptedException;
+
+    // Called by producers after publishing, only blocking waits care
+    void signal();
+
+    static WaitStrategy fromName(String name) {
+        switch (name.toLowerCase()) {
+            case "busyspin":
+                return new BusySpin();
+            case "yielding":
+                return new Yielding();
+            case "blocking":
+                return new Blocking();
+            case "sleeping":
+                return new Sleeping();
+            default:
+                ChatLogger.getLogger(WaitStrategy.class).warn("Unknown wait strategy {}, using sleeping", name);
+                return new Sleeping();
+        }
+    }
+
+    // Lowest latency, burns a full core per publisher thread
+    class BusySpin implements WaitStrategy {
+        @Override
+        public int idle(int idleCount) {
+            Thread.onSpinWait();
+            return idleCount + 1;
+        }
+
+        @Override
+        public void signal() {}
+    }
+
+    // Spins briefly, then yields the core to other runnable threads
+    class Yielding implements WaitStrategy {
+        private static final int SPIN_TRIES = 100;
+
+        @Override
+        public int idle(int idleCount) {
+            if (idleCount < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+            return idleCount + 1;
+        }
+
+        @Override
+        public void signal() {}
+    }
+
+    // Spin, then yield, then park for short intervals
+    class Sleeping implements WaitStrategy {
+        private static final int SPIN_TRIES = 100;
+        private static final int YIELD_TRIES = 200;
+        private static final long PARK_NANOS = 100_000;
+
+        @Override
+        public int idle(int idleCount) {
+            if (idleCount < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else if (idleCount < YIELD_TRIES) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+            return idleCount + 1;
+        }
+
+        @Override
+        public void signal() {}
+    }
+
+    // Sleeps on a condition; cheapest on CPU, producers pay for a signal
+    class Blocking implements WaitStrategy {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private volatile int waiters = 0;
+
+        @Override
+        public int idle(int idleCount) throws InterruptedException {
+            lock.lock();
+            try {
+                waiters++;
+                // Timed so an event published between the poll and the await is never missed for long
+                notEmpty.await(1, TimeUnit.MILLISECONDS);
+            } finally {
+                waiters--;
+                lock.unlock();
+            }
+            return idleCount + 1;
+        }
+
+        @Override
+        public void signal() {
+            if (waiters > 0) {
+                lock.lock();
+                try {
+                    notEmpty.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.chatflow.server;
+
+import junit.framework.TestCase;
+
+/**
+ * Going from N to N+1 shards with the configured virtual nodes per shard,
+ * about 1/(N+1) of the rooms move, all of them to the new shard, and every
+ * shard ends up with close to an even share.
+ */
+public class ConsistentHashRingTest extends TestCase {
+    private static final int ROOMS = 100_000;
+    // Allowed deviation from the ideal, relative; 160 points per shard stay well within it
+    private static final double TOLERANCE = 0.3;
+
+    public void testAddingShardMovesOnlyItsShare() {
+        for (int shards : new int[] {2, 4, 8, 16}) {
+            ConsistentHashRing before = new ConsistentHashRing(shards, ServerConfig.SHARD_VNODES);
+            ConsistentHashRing after = new ConsistentHashRing(shards + 1, ServerConfig.SHARD_VNODES);
+            int moved = 0;
+            for (int room = 1; room <= ROOMS; room++) {
+                String roomId = String.valueOf(room);
+                int shard = after.shardFor(roomId);
+                if (before.shardFor(roomId) != shard) {
+                    assertEquals("room " + roomId + " moved between old shards", shards, shard);
+                    moved++;
+                }
+            }
+            double expected = (double) ROOMS / (shards + 1);
+            assertTrue(shards + " -> " + (shards + 1) + " moved " + moved + ", expected about " + (int) expected,
+                    Math.abs(moved - expected) <= TOLERANCE * expected);
+        }
+    }
+
+    public void testShardsGetEvenShares() {
+        for (int shards : new int[] {2, 3, 4, 5, 8, 9, 16, 17}) {
+            ConsistentHashRing ring = new ConsistentHashRing(shards, ServerConfig.SHARD_VNODES);
+            int[] rooms = new int[shards];
+            for (int room = 1; room <= ROOMS; room++) {
+                rooms[ring.shardFor(String.valueOf(room))]++;
+            }
+            double expected = (double) ROOMS / shards;
+            for (int shard = 0; shard < shards; shard++) {
+                assertTrue("shard " + shard + " of " + shards + " has " + rooms[shard] + " rooms",
+                        Math.abs(rooms[shard] - expected) <= TOLERANCE * expected);
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.chatflow.server;
+
+import com.chatflow.common.BoundedExecutor;
+import com.chatflow.common.VirtualThreads;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decoder threads against virtual threads for per-message work. Each message
+ * is validated and then blocks for a while, standing in for a synchronous
+ * publish (publish stage off, confirms on). The platform model pins every
+ * connection to one of the decoder threads, the way Java-WebSocket assigns
+ * connections to workers; the virtual model runs each connection's messages
+ * in order on virtual threads, at most CHATFLOW_VIRTUAL_MAX_CONCURRENCY at
+ * once. Needs Java 21 for the virtual rows. Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass="com.chatflow.server.ExecutionModelBenchmark"
+ */
+public class ExecutionModelBenchmark {
+    private static final int CONNECTIONS = 100;
+    private static final int MESSAGES_PER_CONNECTION = 200;
+    // Simulated broker round trip per message; 0 is pure CPU work
+    private static final long[] BLOCKING_MICROS = {0, 200, 1_000};
+
+    private static final String[] FRAMES = {
+            "{\"userId\":\"12345\",\"username\":\"user12345\",\"message\":\"Hello everyone!\",\"timestamp\":\"2025-09-30T10:00:00Z\",\"messageType\":\"TEXT\",\"trackingId\":\"5b0c5f43-2d7a-4d38-9a52-7f6c0e4b9e11\"}",
+            "{\"userId\":\"42\",\"username\":\"alice42\",\"message\":\"Meeting in 5 mins\",\"timestamp\":\"2025-09-30T10:00:01Z\",\"messageType\":\"TEXT\"}"
+    };
+
+    private static final StreamingMessageValidator validator = new StreamingMessageValidator();
+
+    // Sink so the JIT cannot drop the work
+    private static long blackhole;
+
+    public static void main(String[] args) throws Exception {
+        int decoderThreads = ServerConfig.DECODER_THREADS;
+        int virtualConcurrency = ServerConfig.VIRTUAL_MAX_CONCURRENCY;
+        boolean virtual = VirtualThreads.isSupported();
+
+        System.out.println("=== Execution Model Benchmark ===");
+        System.out.println(CONNECTIONS + " connections x " + MESSAGES_PER_CONNECTION + " messages, "
+                + decoderThreads + " decoder threads, virtual concurrency " + virtualConcurrency);
+        if (!virtual) {
+            System.out.println("Virtual threads need Java 21 (running " + Runtime.version()
+                    + "), only the platform model runs");
+        }
+
+        // Warm up the validator and both thread paths
+        run(false, 0, decoderThreads, virtualConcurrency);
+        if (virtual) {
+            run(true, 0, decoderThreads, virtualConcurrency);
+        }
+
+        System.out.printf("%-10s %10s %12s %10s %10s %10s%n", "Model", "block us", "msg/s", "p50 us", "p99 us", "max us");
+        for (long blockMicros : BLOCKING_MICROS) {
+            print("platform", blockMicros, run(false, blockMicros, decoderThreads, virtualConcurrency));
+            if (virtual) {
+                print("virtual", blockMicros, run(true, blockMicros, decoderThreads, virtualConcurrency));
+            }
+        }
+        System.out.println("(blackhole " + blackhole + ")");
+    }
+
+    private static void print(String model, long blockMicros, Result result) {
+        double perSecond = result.histogram.getCount() * 1e9 / result.elapsedNanos;
+        System.out.printf("%-10s %10d %12.0f %10d %10d %10d%n", model, blockMicros, perSecond,
+                result.histogram.getPercentileMicros(50), result.histogram.getPercentileMicros(99),
+                result.histogram.getMaxMicros());
+    }
+
+    private static Result run(boolean virtual, long blockMicros, int decoderThreads, int virtualConcurrency)
+            throws InterruptedException {
+        ExecutorService threads;
+        Executor[] lanes = new Executor[CONNECTIONS];
+        ExecutorService[] workers = new ExecutorService[0];
+        if (virtual) {
+            threads = VirtualThreads.newExecutor("bench-");
+            BoundedExecutor bounded = new BoundedExecutor("Benchmark", threads, virtualConcurrency);
+            for (int c = 0; c < CONNECTIONS; c++) {
+                lanes[c] = bounded.serial();
+            }
+        } else {
+            threads = null;
+            workers = new ExecutorService[decoderThreads];
+            for (int w = 0; w < decoderThreads; w++) {
+                workers[w] = Executors.newSingleThreadExecutor();
+            }
+            for (int c = 0; c < CONNECTIONS; c++) {
+                lanes[c] = workers[c % decoderThreads];
+            }
+        }
+
+        int total = CONNECTIONS * MESSAGES_PER_CONNECTION;
+        CountDownLatch done = new CountDownLatch(total);
+        LatencyHistogram histogram = new LatencyHistogram();
+        long blockNanos = TimeUnit.MICROSECONDS.toNanos(blockMicros);
+
+        long start = System.nanoTime();
+        // One feeding thread, like the selector handing frames to workers
+        for (int m = 0; m < MESSAGES_PER_CONNECTION; m++) {
+            for (int c = 0; c < CONNECTIONS; c++) {
+                String frame = FRAMES[(m + c) % FRAMES.length];
+                long queuedAt = System.nanoTime();
+                lanes[c].execute(() -> {
+                    handle(frame, blockNanos);
+                    histogram.recordNanos(System.nanoTime() - queuedAt);
+                    done.countDown();
+                });
+            }
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+        if (threads != null) {
+            threads.shutdown();
+        }
+        return new Result(elapsed, histogram);
+    }
+
+    private static void handle(String frame, long blockNanos) {
+        ValidationResult result = validator.parse(frame);
+        blackhole += result.isValid() ? 1 : 0;
+        if (blockNanos > 0) {
+            // A virtual thread unmounts here, a decoder thread is held
+            long deadline = System.nanoTime() + blockNanos;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+    }
+
+    private static final class Result {
+        final long elapsedNanos;
+        final LatencyHistogram histogram;
+
+        Result(long elapsedNanos, LatencyHistogram histogram) {
+            this.elapsedNanos = elapsedNanos;
+            this.histogram = histogram;
+        }
+    }
+}
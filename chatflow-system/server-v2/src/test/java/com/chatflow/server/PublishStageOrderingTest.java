@@ -0,0 +1,88 @@
+package com.chatflow.server;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Several producer threads submit messages for shared rooms, numbering each
+ * room's messages in the order they are submitted. With room striping every
+ * room must reach the handler as 0, 1, 2, ... with no gaps or swaps.
+ */
+public class PublishStageOrderingTest extends TestCase {
+    private static final int ROOMS = 16;
+    private static final int PRODUCERS = 4;
+    private static final int PUBLISHERS = 4;
+    private static final int MESSAGES_PER_PRODUCER = 20_000;
+
+    public void testRoomStripingKeepsPerRoomOrder() throws Exception {
+        int total = PRODUCERS * MESSAGES_PER_PRODUCER;
+        Map<String, Long> expected = new ConcurrentHashMap<>();
+        AtomicInteger outOfOrder = new AtomicInteger();
+        // Counted rather than asserted, a failure on a producer thread would not fail the test
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch handled = new CountDownLatch(total);
+
+        // A small ring so producers regularly hit a full ring and wait
+        PublishStage stage = new PublishStage(PRODUCERS, 64, PUBLISHERS,
+                WaitStrategy.fromName("yielding"), QueueFullPolicy.BACKPRESSURE, true, event -> {
+                    QueueMessage message = event.getQueueMessage();
+                    long sequence = Long.parseLong(message.getMessage());
+                    long want = expected.getOrDefault(message.getRoomId(), 0L);
+                    if (sequence != want) {
+                        outOfOrder.incrementAndGet();
+                    }
+                    expected.put(message.getRoomId(), sequence + 1);
+                    handled.countDown();
+                });
+        stage.start();
+
+        // The lock makes numbering and submitting one step, defining each room's order
+        long[] nextSequence = new long[ROOMS];
+        Object[] roomLocks = new Object[ROOMS];
+        for (int room = 0; room < ROOMS; room++) {
+            roomLocks[room] = new Object();
+        }
+
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            long seed = p;
+            producers[p] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < MESSAGES_PER_PRODUCER; i++) {
+                    int room = random.nextInt(ROOMS);
+                    synchronized (roomLocks[room]) {
+                        QueueMessage message = new QueueMessage();
+                        message.setRoomId(String.valueOf(room + 1));
+                        message.setMessage(String.valueOf(nextSequence[room]++));
+                        if (!stage.submit(null, message)) {
+                            rejected.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertEquals("submits rejected", 0, rejected.get());
+
+        assertTrue("timed out waiting for publisher threads", handled.await(30, TimeUnit.SECONDS));
+        stage.stop(1000);
+
+        assertEquals(0, outOfOrder.get());
+        long delivered = 0;
+        for (int room = 0; room < ROOMS; room++) {
+            assertEquals(nextSequence[room], (long) expected.getOrDefault(String.valueOf(room + 1), 0L));
+            delivered += nextSequence[room];
+        }
+        assertEquals(total, delivered);
+        assertEquals(total, stage.getEnqueued());
+    }
+}
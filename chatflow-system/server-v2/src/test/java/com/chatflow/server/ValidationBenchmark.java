@@ -0,0 +1,121 @@
+package com.chatflow.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares the original ObjectMapper + validateMessage path against
+ * {@link StreamingMessageValidator} on valid frames and on a flood of invalid
+ * ones. Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass="com.chatflow.server.ValidationBenchmark"
+ */
+public class ValidationBenchmark {
+    private static final int WARMUP_ROUNDS = 200_000;
+    private static final int MEASURED_ROUNDS = 1_000_000;
+
+    private static final String[] VALID_FRAMES = {
+            "{\"userId\":\"12345\",\"username\":\"user12345\",\"message\":\"Hello everyone!\",\"timestamp\":\"2025-09-30T10:00:00Z\",\"messageType\":\"TEXT\",\"trackingId\":\"5b0c5f43-2d7a-4d38-9a52-7f6c0e4b9e11\"}",
+            "{\"userId\":\"42\",\"username\":\"alice42\",\"message\":\"Meeting in 5 mins\",\"timestamp\":\"2025-09-30T10:00:01Z\",\"messageType\":\"JOIN\"}"
+    };
+
+    private static final String[] INVALID_FRAMES = {
+            "{\"userId\":\"abc\",\"username\":\"user1\",\"message\":\"hi\",\"timestamp\":\"2025-09-30T10:00:00Z\",\"messageType\":\"TEXT\"}",
+            "{\"userId\":\"0\",\"username\":\"user1\",\"message\":\"hi\",\"timestamp\":\"2025-09-30T10:00:00Z\",\"messageType\":\"TEXT\"}",
+            "{\"userId\":\"7\",\"username\":\"u$er!\",\"message\":\"hi\",\"timestamp\":\"2025-09-30T10:00:00Z\",\"messageType\":\"TEXT\"}",
+            "{\"userId\":\"7\",\"username\":\"averyveryverylongusername\",\"message\":\"hi\",\"timestamp\":\"2025-09-30T10:00:00Z\",\"messageType\":\"TEXT\"}",
+            "{\"userId\":\"7\",\"username\":\"user7\",\"message\":\"\",\"timestamp\":\"2025-09-30T10:00:00Z\",\"messageType\":\"TEXT\"}",
+            "{\"userId\":\"7\",\"username\":\"user7\",\"message\":\"hi\",\"messageType\":\"TEXT\"}"
+    };
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final StreamingMessageValidator validator = new StreamingMessageValidator();
+
+    // Sink so the JIT cannot drop the work
+    private static long blackhole;
+
+    public static void main(String[] args) {
+        checkEquivalence();
+
+        System.out.println("=== Validation Benchmark ===");
+        System.out.printf("%-10s %-10s %12s%n", "Input", "Path", "ns/frame");
+        for (String[] frames : new String[][]{VALID_FRAMES, INVALID_FRAMES}) {
+            String label = frames == VALID_FRAMES ? "valid" : "invalid";
+
+            run(frames, WARMUP_ROUNDS, true);
+            run(frames, WARMUP_ROUNDS, false);
+
+            double legacyNs = run(frames, MEASURED_ROUNDS, true);
+            double streamingNs = run(frames, MEASURED_ROUNDS, false);
+
+            System.out.printf("%-10s %-10s %12.1f%n", label, "legacy", legacyNs);
+            System.out.printf("%-10s %-10s %12.1f%n", label, "streaming", streamingNs);
+            System.out.printf("%-10s speedup %.2fx%n", label, legacyNs / streamingNs);
+        }
+        System.out.println("(blackhole " + blackhole + ")");
+    }
+
+    private static double run(String[] frames, int rounds, boolean legacy) {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            String frame = frames[i % frames.length];
+            String error = legacy ? legacyParse(frame) : validator.parse(frame).getError();
+            blackhole += error == null ? 1 : error.length();
+        }
+        return (double) (System.nanoTime() - start) / rounds;
+    }
+
+    private static void checkEquivalence() {
+        for (String[] frames : new String[][]{VALID_FRAMES, INVALID_FRAMES}) {
+            for (String frame : frames) {
+                String legacy = legacyParse(frame);
+                String streaming = validator.parse(frame).getError();
+                if (legacy == null ? streaming != null : !legacy.equals(streaming)) {
+                    System.out.println("MISMATCH for " + frame + ": legacy=" + legacy + " streaming=" + streaming);
+                }
+            }
+        }
+    }
+
+    // The original onMessage path: full POJO, then a second walk with regex and parseInt
+    private static String legacyParse(String frame) {
+        ChatMessage msg;
+        try {
+            msg = objectMapper.readValue(frame, ChatMessage.class);
+        } catch (Exception e) {
+            return "Failed to process message";
+        }
+
+        if (msg.getUserId() == null) {
+            return "userId is required";
+        }
+        try {
+            int userId = Integer.parseInt(msg.getUserId());
+            if (userId < 1 || userId > 100000) {
+                return "userId must be between 1 and 100000";
+            }
+        } catch (NumberFormatException e) {
+            return "userId must be a valid number";
+        }
+        if (msg.getUsername() == null) {
+            return "username is required";
+        }
+        if (msg.getUsername().length() < 3 || msg.getUsername().length() > 20) {
+            return "username must be between 3 and 20 characters";
+        }
+        if (!msg.getUsername().matches("^[a-zA-Z0-9]+$")) {
+            return "username must be alphanumeric only";
+        }
+        if (msg.getMessage() == null) {
+            return "message is required";
+        }
+        if (msg.getMessage().length() < 1 || msg.getMessage().length() > 500) {
+            return "message must be 1-500 characters";
+        }
+        if (msg.getMessageType() == null) {
+            return "messageType is required";
+        }
+        if (msg.getTimestamp() == null) {
+            return "timestamp is required";
+        }
+        return null;
+    }
+}
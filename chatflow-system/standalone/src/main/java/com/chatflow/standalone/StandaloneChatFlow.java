@@ -0,0 +1,47 @@
+package com.chatflow.standalone;
+
+import com.chatflow.common.ChatLogger;
+import com.chatflow.common.InMemoryBroker;
+import com.chatflow.common.VirtualThreads;
+import com.chatflow.consumer.ConsumerConfig;
+import com.chatflow.consumer.ConsumerPool;
+import com.chatflow.server.ChatFlowServerV2;
+import com.chatflow.server.ServerConfig;
+
+/**
+ * Server-v2 and the consumer in one JVM, connected by an InMemoryBroker
+ * instead of RabbitMQ. Same ports as the separate processes: clients send to
+ * 8080 (health on 8081) and receive broadcasts from 8082. Run with:
+ * mvn compile exec:java -Dexec.mainClass="com.chatflow.standalone.StandaloneChatFlow"
+ */
+public class StandaloneChatFlow {
+    private static final ChatLogger log = ChatLogger.getLogger(StandaloneChatFlow.class);
+    private static final int DEFAULT_CONSUMER_COUNT = 10;
+
+    public static void main(String[] args) {
+        int numConsumers = DEFAULT_CONSUMER_COUNT;
+        if (args.length > 0) {
+            try {
+                numConsumers = Math.max(1, Integer.parseInt(args[0]));
+            } catch (NumberFormatException e) {
+                log.warn("Invalid consumer count, using default: {}", DEFAULT_CONSUMER_COUNT);
+            }
+        }
+
+        try {
+            InMemoryBroker broker = ConsumerConfig.VIRTUAL_THREADS
+                    ? new InMemoryBroker(ServerConfig.MEMORY_QUEUE_CAPACITY, VirtualThreads.newExecutor("broker-"))
+                    : new InMemoryBroker(ServerConfig.MEMORY_QUEUE_CAPACITY, ServerConfig.MEMORY_DISPATCH_THREADS);
+
+            // Consumers first, so they follow every room from the first publish
+            ConsumerPool consumerPool = new ConsumerPool(numConsumers, broker);
+            consumerPool.start();
+
+            // One ordered shutdown: the server drains, then the consumers, then the log
+            ChatFlowServerV2.start(new ChatFlowServerV2(8080, broker), 8081, consumerPool::shutdown);
+            log.info("Standalone ChatFlow running with {} consumers", numConsumers);
+        } catch (Exception e) {
+            log.error("Failed to start standalone ChatFlow: " + e.getMessage(), e);
+        }
+    }
+}